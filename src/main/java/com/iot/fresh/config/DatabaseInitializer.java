@@ -4,6 +4,10 @@ import com.iot.fresh.entity.Alarm;
 import com.iot.fresh.entity.Device;
 import com.iot.fresh.repository.AlarmRepository;
 import com.iot.fresh.repository.DeviceRepository;
+import com.iot.fresh.service.ActiveAlarmIndex;
+import com.iot.fresh.service.AlarmStatisticsSnapshot;
+import com.iot.fresh.service.DeviceRealTimeSnapshot;
+import com.iot.fresh.service.DeviceStatusCounter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
@@ -20,16 +24,34 @@ public class DatabaseInitializer implements CommandLineRunner {
     @Autowired
     private AlarmRepository alarmRepository;
 
+    @Autowired
+    private AlarmStatisticsSnapshot alarmStatisticsSnapshot;
+
+    @Autowired
+    private ActiveAlarmIndex activeAlarmIndex;
+
+    @Autowired
+    private DeviceStatusCounter deviceStatusCounter;
+
+    @Autowired
+    private DeviceRealTimeSnapshot deviceRealTimeSnapshot;
+
     @Override
     public void run(String... args) throws Exception {
         // 检查是否已有设备数据，如果没有则创建一些测试设备
         if (deviceRepository.count() == 0) {
             createTestDevices();
+            // 测试设备直接写库，重新加载设备状态计数和实时数据快照
+            deviceStatusCounter.reload();
+            deviceRealTimeSnapshot.reload();
         }
 
         // 检查是否已有报警数据，如果没有则创建一些测试报警
         if (alarmRepository.count() == 0) {
             createTestAlarms();
+            // 测试报警直接写库，重新加载报警统计和活动报警索引
+            alarmStatisticsSnapshot.reload();
+            activeAlarmIndex.reload();
         }
     }
 
@@ -1,6 +1,8 @@
 package com.iot.fresh.config;
 
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -16,11 +18,27 @@ import org.springframework.integration.mqtt.support.DefaultPahoMessageConverter;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.MessageHandler;
 
+import java.net.InetAddress;
+import java.util.UUID;
+
 @Configuration
 @EnableIntegration
 @IntegrationComponentScan
 public class MqttConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(MqttConfig.class);
+
+    // 设备上行主题
+    static final String[] DEVICE_TOPICS = {
+            "device/+/data",
+            "device/+/batch",
+            "device/+/alarm",
+            "device/+/status",
+            "device/+/rfid",
+            // 按主题后缀指定编码的消息，如device/V001/data/cbor
+            "device/+/+/cbor"
+    };
+
     @Value("${mqtt.broker:tcp://localhost:1883}")
     private String brokerUrl;
 
@@ -33,6 +51,18 @@ public class MqttConfig {
     @Value("${mqtt.password:}")
     private String password;
 
+    @Value("${mqtt.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    @Value("${mqtt.cluster.group:iot-fresh}")
+    private String clusterGroup;
+
+    @Value("${mqtt.cluster.node-id:}")
+    private String nodeId;
+
+    @Value("${mqtt.cluster.sticky-routing:false}")
+    private boolean stickyRouting;
+
     @Bean
     public MqttPahoClientFactory mqttClientFactory() {
         DefaultMqttPahoClientFactory factory = new DefaultMqttPahoClientFactory();
@@ -54,16 +84,20 @@ public class MqttConfig {
 
     @Bean
     public MessageProducerSupport mqttInbound() {
+        checkClusterRouting(clusterEnabled, stickyRouting);
+        String[] topics = inboundTopics(clusterEnabled, clusterGroup);
+        String inboundClientId = nodeClientId("inbound");
+        log.info("MQTT订阅 - 客户端ID: {}, 集群模式: {}, 主题: {}", inboundClientId, clusterEnabled, String.join(", ", topics));
         MqttPahoMessageDrivenChannelAdapter adapter = 
-            new MqttPahoMessageDrivenChannelAdapter(clientId + "-inbound", 
+            new MqttPahoMessageDrivenChannelAdapter(inboundClientId, 
                 mqttClientFactory(), 
-                "device/+/data", 
-                "device/+/alarm", 
-                "device/+/status", 
-                "device/+/rfid");
+                topics);
         
         adapter.setCompletionTimeout(5000);
-        adapter.setConverter(new DefaultPahoMessageConverter());
+        // 载荷保持为byte[]，由MqttMessageHandler按编码解码，JSON也直接从字节解析
+        DefaultPahoMessageConverter converter = new DefaultPahoMessageConverter();
+        converter.setPayloadAsBytes(true);
+        adapter.setConverter(converter);
         adapter.setQos(1);
         adapter.setOutputChannel(mqttInputChannel());
         return adapter;
@@ -72,9 +106,64 @@ public class MqttConfig {
     @Bean
     public MqttPahoMessageHandler mqttOutbound() {
         MqttPahoMessageHandler messageHandler = 
-            new MqttPahoMessageHandler(clientId + "-outbound", mqttClientFactory());
+            new MqttPahoMessageHandler(nodeClientId("outbound"), mqttClientFactory());
         messageHandler.setAsync(true);
         // 不设置默认主题，因为在发送消息时会动态指定主题
         return messageHandler;
     }
-}
\ No newline at end of file
+
+    /**
+     * 计算订阅主题：集群模式下使用共享订阅$share/<group>/...，
+     * 同一组内的多个节点由Broker分摊消息，每条消息只投递给其中一个节点
+     */
+    static String[] inboundTopics(boolean shared, String group) {
+        if (!shared) {
+            return DEVICE_TOPICS.clone();
+        }
+        String[] topics = new String[DEVICE_TOPICS.length];
+        for (int i = 0; i < DEVICE_TOPICS.length; i++) {
+            topics[i] = "$share/" + group + "/" + DEVICE_TOPICS[i];
+        }
+        return topics;
+    }
+
+    /**
+     * 集群模式要求Broker按发布者客户端ID哈希分配共享订阅消息（如EMQX hash_clientid），
+     * 并且每台设备只用一个客户端ID发布全部主题，这样同一设备的data、status、alarm、batch等消息
+     * 才会投递给同一个节点。按主题哈希（hash_topic）不满足要求：同一设备的不同主题会落到不同节点。
+     * 设备最新状态、实时数据快照、去重窗口、死区基准和在线检测都以节点内存为准，
+     * 同一设备的消息分散到多个节点会让这些状态分裂，因此未确认路由方式时拒绝启动
+     */
+    static void checkClusterRouting(boolean shared, boolean sticky) {
+        if (shared && !sticky) {
+            throw new IllegalStateException("MQTT集群模式要求Broker按发布者客户端ID哈希分配共享订阅消息"
+                    + "（如EMQX broker.shared_subscription_strategy = hash_clientid），且每台设备只用一个客户端ID发布，"
+                    + "按主题哈希(hash_topic)会把同一设备的不同主题分到不同节点；"
+                    + "配置完成后设置mqtt.cluster.sticky-routing=true");
+        }
+    }
+
+    /**
+     * 客户端ID：集群模式下追加节点标识，避免多个节点使用相同ID互相踢下线
+     */
+    private String nodeClientId(String role) {
+        if (!clusterEnabled) {
+            return clientId + "-" + role;
+        }
+        if (nodeId == null || nodeId.trim().isEmpty()) {
+            nodeId = defaultNodeId();
+        }
+        return clientId + "-" + nodeId + "-" + role;
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "node";
+        }
+        // 同一主机上运行多个实例时也保证唯一
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
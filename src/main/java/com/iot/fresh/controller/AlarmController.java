@@ -2,6 +2,7 @@ package com.iot.fresh.controller;
 
 import com.iot.fresh.dto.ApiResponse;
 import com.iot.fresh.dto.PaginatedResponse;
+import com.iot.fresh.service.ActiveAlarmIndex;
 import com.iot.fresh.service.AlarmService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
@@ -16,6 +17,9 @@ public class AlarmController {
     @Autowired
     private AlarmService alarmService;
 
+    @Autowired
+    private ActiveAlarmIndex activeAlarmIndex;
+
     // 1. 获取报警列表接口
     @GetMapping("/list")
     public ApiResponse<PaginatedResponse<Map<String, Object>>> getAlarmList(
@@ -66,7 +70,8 @@ public class AlarmController {
      *   "data": {
      *     "high": 3,
      *     "medium": 8,
-     *     "low": 5
+     *     "low": 5,
+     *     "active": { "total": 4, "high": 1, "medium": 2, "low": 1 }
      *   }
      * }
      */
@@ -94,6 +99,14 @@ public class AlarmController {
             // 一般报警数量 (对应后端的一般字段)
             levelStats.put("low", fullStats.get("normal") != null ? fullStats.get("normal") : 0);
             
+            // 未处理报警按级别的数量，从活动报警索引读取
+            Map<String, Object> activeStats = new HashMap<>();
+            activeStats.put("total", activeAlarmIndex.count());
+            activeStats.put("high", activeAlarmIndex.countByLevel("critical") + activeAlarmIndex.countByLevel("high"));
+            activeStats.put("medium", activeAlarmIndex.countByLevel("medium"));
+            activeStats.put("low", activeAlarmIndex.countByLevel("low"));
+            levelStats.put("active", activeStats);
+            
             return ApiResponse.success("获取成功", levelStats);
             
         } catch (Exception e) {
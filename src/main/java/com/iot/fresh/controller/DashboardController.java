@@ -8,6 +8,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
@@ -283,4 +284,30 @@ public class DashboardController {
             return ApiResponse.error("获取设备状态分布失败: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+    
+    /**
+     * 数据量分布接口
+     * 
+     * 路径: GET /api/dashboard/data-volume
+     * 
+     * 请求参数:
+     * - date - 日期（可选，默认今天）
+     * 
+     * 返回格式:
+     * {
+     *   "code": 200,
+     *   "msg": "获取数据量成功",
+     *   "data": {
+     *     "date": "2026-01-01",
+     *     "total": 14400,                // 当天历史数据量
+     *     "hourly": [600, 600, ...],     // 每小时数据量，下标为小时(0-23)
+     *     "byDevice": {"V001": 1440}     // 每台设备数据量
+     *   }
+     * }
+     */
+    @GetMapping("/data-volume")
+    public ApiResponse<Map<String, Object>> getDataVolume(
+            @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date) {
+        return dataService.getDataVolume(date != null ? date : LocalDate.now());
+    }
+}
@@ -46,13 +46,26 @@ public class DataController {
         return dataService.getDeviceHistoryData(vid, startDateTime, endDateTime);
     }
 
-    // 注释掉温度历史数据接口 - 不再需要图表功能
-    /*
+    /**
+ * 获取温度历史数据（TemperatureChart）
+ * 
+ * 数据来自分钟/小时/天汇总表，按时间范围和点数上限自动选择粒度，每个点的tin、tout为时间桶内的平均值
+ * 
+ * @param vid 设备唯一标识符
+ * @param startTime 开始时间（可选）
+ * @param endTime 结束时间（可选）
+ * @param timeRange 时间范围（可选，1h/6h/24h/7d/30d）
+ * @param maxPoints 最大点数（可选）
+ * @return ApiResponse<Map<String, Object>> 包含温度序列的响应对象
+ * @author donghuang
+ * @since 2026
+ */
     @GetMapping("/temperature/{vid}")
     public ApiResponse<Map<String, Object>> getTemperatureHistory(@PathVariable String vid,
                                                                   @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
                                                                   @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime,
-                                                                  @RequestParam(required = false) String timeRange) {
+                                                                  @RequestParam(required = false) String timeRange,
+                                                                  @RequestParam(required = false) Integer maxPoints) {
         // 如果指定了timeRange，根据timeRange计算开始和结束时间
         if (timeRange != null) {
             LocalDateTime now = LocalDateTime.now();
@@ -63,9 +76,6 @@ public class DataController {
                 case "6h":
                     startTime = now.minusHours(6);
                     break;
-                case "24h":
-                    startTime = now.minusHours(24);
-                    break;
                 case "7d":
                     startTime = now.minusDays(7);
                     break;
@@ -73,70 +83,16 @@ public class DataController {
                     startTime = now.minusDays(30);
                     break;
                 default:
-                    // 如果timeRange无效，使用默认的24小时
+                    // 24h或无效的timeRange，使用默认的24小时
                     startTime = now.minusHours(24);
                     break;
             }
             if (endTime == null) {
                 endTime = now;
             }
-        } else {
-            // 如果没有指定timeRange，使用默认的24小时
-            if (startTime == null) {
-                startTime = LocalDateTime.now().minusHours(24);
-            }
-            if (endTime == null) {
-                endTime = LocalDateTime.now();
-            }
-        }
-
-        // 获取设备历史数据
-        ApiResponse<List<DeviceDataDto>> response = dataService.getDeviceHistoryData(vid, startTime, endTime);
-        
-        if (response.isSuccess()) {
-            // 将DeviceDataDto列表转换为前端TemperatureChart期望的格式
-            List<Map<String, Object>> temperatureDataList = response.getData().stream()
-                .filter(data -> data.getTimestamp() != null || data.getCreatedAt() != null) // 过滤掉没有时间戳的数据
-                .map(data -> {
-                    Map<String, Object> item = new java.util.HashMap<>();
-                    
-                    // 使用ISO 8601格式的时间字符串
-                    java.time.format.DateTimeFormatter formatter = java.time.format.DateTimeFormatter.ISO_LOCAL_DATE_TIME;
-                    item.put("timestamp", data.getTimestamp() != null ? 
-                        data.getTimestamp().format(formatter) : 
-                        data.getCreatedAt().format(formatter));
-                    
-                    // 温度数据 - 确保提供所有必需字段
-                    item.put("tin", data.getTin() != null ? data.getTin() : 0.0);  // 如果为空则设为0.0
-                    item.put("tout", data.getTout() != null ? data.getTout() : 0.0); // 如果为空则设为0.0
-                    
-                    // 添加温度上下限 - 从设备配置获取或使用默认值
-                    // 实际应用中可以从设备配置中获取特定设备的温控范围
-                    item.put("tinDH", 30.0); // 温度上限
-                    item.put("tinDL", 10.0); // 温度下限
-                    
-                    return item;
-                })
-                .sorted((a, b) -> {
-                    String timeA = (String) a.get("timestamp");
-                    String timeB = (String) b.get("timestamp");
-                    if (timeA == null || timeB == null) {
-                        return 0; // 如果任一时间戳为null，视为相等
-                    }
-                    return timeA.compareTo(timeB);
-                })
-                .collect(java.util.stream.Collectors.toList());
-            
-            // 构建前端期望的格式
-            Map<String, Object> result = new java.util.HashMap<>();
-            result.put("list", temperatureDataList);
-            
-            return ApiResponse.success(result);
-        } else {
-            return ApiResponse.error(response.getMsg());
         }
+        return dataService.getTemperatureSeries(vid, startTime, endTime, maxPoints);
     }
-    */
 
     /**
  * 获取光照历史数据
@@ -158,6 +114,31 @@ public class DataController {
         return dataService.getLightDataByVid(vid, startTime, endTime);
     }
 
+    /**
+ * 获取设备指标的汇总序列
+ * 
+ * 路径: GET /api/data/series/{vid}?metric=tin&startTime=...&endTime=...&maxPoints=500
+ * 
+ * 数据来自分钟/小时/天汇总表，按时间范围和点数上限自动选择粒度，每个点包含min/max/avg/count/first/last
+ * 
+ * @param vid 设备唯一标识符
+ * @param metric 指标（tin, tout, hin, hout, lxin, lxout, brightness）
+ * @param startTime 开始时间（可选，默认24小时前）
+ * @param endTime 结束时间（可选，默认当前时间）
+ * @param maxPoints 最大点数（可选）
+ * @return ApiResponse<Map<String, Object>> 包含粒度和序列的响应对象
+ * @author donghuang
+ * @since 2026
+ */
+    @GetMapping("/series/{vid}")
+    public ApiResponse<Map<String, Object>> getDeviceDataSeries(@PathVariable String vid,
+                                                                @RequestParam(defaultValue = "tin") String metric,
+                                                                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
+                                                                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime,
+                                                                @RequestParam(required = false) Integer maxPoints) {
+        return dataService.getDeviceDataSeries(vid, metric, startTime, endTime, maxPoints);
+    }
+
     /**
  * 导出数据功能
  * 
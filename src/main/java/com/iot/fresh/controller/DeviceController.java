@@ -5,6 +5,7 @@ import com.iot.fresh.dto.DeviceDto;
 import com.iot.fresh.service.DeviceService;
 import com.iot.fresh.service.DataService;
 import com.iot.fresh.service.DeviceManagementService;
+import com.iot.fresh.service.DeviceRealTimeSnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,6 +31,9 @@ public class DeviceController {
     
     @Autowired
     private DeviceManagementService deviceManagementService;
+
+    @Autowired
+    private DeviceRealTimeSnapshot deviceRealTimeSnapshot;
     
     /**
      * 新增设备
@@ -232,17 +236,21 @@ public class DeviceController {
     /**
      * 获取设备历史数据 - 前端期望的路径格式
      * GET http://localhost:8080/api/device/{vid}/history-data
+     * 传入cursor时按游标分页（第一页传空字符串，之后传上一页的nextCursor），忽略pageNum，
+     * 返回CursorPageResponse；不传时按页码分页
      */
     @GetMapping("/{vid}/history-data")
-    public ApiResponse<com.iot.fresh.dto.PaginatedResponse<com.iot.fresh.dto.DeviceDataDto>> getDeviceHistoryData(@PathVariable String vid,
+    public ApiResponse<?> getDeviceHistoryData(@PathVariable String vid,
                                                                        @RequestParam(defaultValue = "1") Integer pageNum,
                                                                        @RequestParam(defaultValue = "20") Integer pageSize,
                                                                        @RequestParam(required = false) String dataType,
                                                                        @RequestParam(required = false) String startTime,
-                                                                       @RequestParam(required = false) String endTime) {
+                                                                       @RequestParam(required = false) String endTime,
+                                                                       @RequestParam(required = false) String cursor,
+                                                                       @RequestParam(defaultValue = "false") boolean withTotal) {
         try {
-            log.info("接收到获取设备历史数据请求 - VID: {}, pageNum: {}, pageSize: {}, dataType: {}, startTime: {}, endTime: {}", 
-                    vid, pageNum, pageSize, dataType, startTime, endTime);
+            log.info("接收到获取设备历史数据请求 - VID: {}, pageNum: {}, pageSize: {}, dataType: {}, startTime: {}, endTime: {}, cursor: {}", 
+                    vid, pageNum, pageSize, dataType, startTime, endTime, cursor);
             
             // 解析时间参数
             java.time.LocalDateTime startDateTime = null;
@@ -267,6 +275,15 @@ public class DeviceController {
             
             log.info("查询时间范围 - 开始时间: {}, 结束时间: {}", startDateTime, endDateTime);
             
+            if (cursor != null) {
+                ApiResponse<com.iot.fresh.dto.CursorPageResponse<com.iot.fresh.dto.DeviceDataDto>> response =
+                    dataService.getDeviceHistoryDataByCursor(vid, dataType, startDateTime, endDateTime, cursor, pageSize, withTotal);
+                log.info("获取设备历史数据请求处理完成 - VID: {}, 结果: {}, 数据数量: {}", 
+                        vid, response.isSuccess(), 
+                        response.isSuccess() && response.getData() != null ? response.getData().getList().size() : 0);
+                return response;
+            }
+            
             // 调用数据服务获取历史数据
             ApiResponse<com.iot.fresh.dto.PaginatedResponse<com.iot.fresh.dto.DeviceDataDto>> response = 
                 dataService.getDeviceHistoryDataWithPagination(vid, dataType, startDateTime, endDateTime, pageNum, pageSize);
@@ -464,65 +481,14 @@ public class DeviceController {
     /**
      * 获取所有设备实时数据
      * GET http://localhost:8080/api/device/real-time-data
-     * 直接从device_data表获取最新的设备传感器数据
+     * 从内存中的设备实时数据快照获取设备信息和最新传感器数据
      */
     @GetMapping("/real-time-data")
     public ApiResponse<List<Map<String, Object>>> getAllRealTimeData() {
         try {
             log.info("接收到获取所有设备实时数据请求");
             
-            // 获取所有设备信息
-            ApiResponse<List<DeviceDto>> deviceResponse = deviceService.getAllDevices();
-            
-            if (!deviceResponse.isSuccess()) {
-                return ApiResponse.error("获取设备列表失败: " + deviceResponse.getMsg());
-            }
-            
-            List<DeviceDto> devices = deviceResponse.getData();
-            
-            // 创建结果列表
-            List<Map<String, Object>> result = new java.util.ArrayList<>();
-            
-            // 为每个设备获取最新的传感器数据
-            for (DeviceDto device : devices) {
-                Map<String, Object> deviceDataMap = new java.util.HashMap<>();
-                
-                // 基本设备信息
-                deviceDataMap.put("id", device.getId());
-                deviceDataMap.put("vid", device.getVid());
-                deviceDataMap.put("deviceName", device.getDeviceName());
-                deviceDataMap.put("deviceType", device.getDeviceType());
-                deviceDataMap.put("location", device.getLocation());
-                deviceDataMap.put("status", device.getStatus());
-                deviceDataMap.put("lastOnlineTime", device.getLastOnlineTime());
-                deviceDataMap.put("createTime", device.getCreateTime());
-                
-                // 添加前端需要的其他字段
-                deviceDataMap.put("contactPhone", device.getContactPhone());
-                deviceDataMap.put("description", device.getDescription());
-                deviceDataMap.put("lastHeartbeat", device.getLastHeartbeat()); // 使用真正的lastHeartbeat字段
-                
-                // 直接从device_data表获取该设备的最新传感器数据
-                com.iot.fresh.entity.DeviceData latestDeviceData = dataService.getLatestDeviceData(device.getVid());
-                if (latestDeviceData != null) {
-                    deviceDataMap.put("tin", latestDeviceData.getTin());
-                    deviceDataMap.put("tout", latestDeviceData.getTout());
-                    deviceDataMap.put("hin", latestDeviceData.getHin());
-                    deviceDataMap.put("hout", latestDeviceData.getHout());
-                    deviceDataMap.put("lxin", latestDeviceData.getLxin());
-                    deviceDataMap.put("lxout", latestDeviceData.getLxout());
-                    deviceDataMap.put("brightness", latestDeviceData.getBrightness());
-                    deviceDataMap.put("vStatus", latestDeviceData.getVstatus());
-                    
-                    if (latestDeviceData.getTimestamp() != null) {
-                        deviceDataMap.put("timestamp", latestDeviceData.getTimestamp().toString());
-                    } else if (latestDeviceData.getCreatedAt() != null) {
-                        deviceDataMap.put("timestamp", latestDeviceData.getCreatedAt().toString());
-                    }
-                }
-                
-                result.add(deviceDataMap);
-            }
+            List<Map<String, Object>> result = deviceRealTimeSnapshot.list();
             
             log.info("获取所有设备实时数据请求处理完成 - 设备数量: {}", result.size());
             return ApiResponse.success("获取实时数据成功", result);
@@ -533,6 +499,41 @@ public class DeviceController {
         }
     }
     
+    /**
+     * 获取设备实时数据快照（支持增量）
+     * GET http://localhost:8080/api/device/real-time-snapshot?since=版本号
+     * 不带since时返回全量，可按keyword、status过滤并分页；带上次返回的version时只返回之后
+     * 变化的设备(list)和已删除或不再满足过滤条件的VID(removed)。服务重启后旧版本号失效，
+     * 返回full=true的全量数据，客户端应整体替换
+     * 
+     * 响应格式:
+     * {
+     *   "code": 200,
+     *   "msg": "获取成功",
+     *   "data": {
+     *     "version": 1766000000000123,
+     *     "full": false,
+     *     "total": 1,
+     *     "list": [ { 字段与/real-time-data一致 } ],
+     *     "removed": ["device002"]
+     *   }
+     * }
+     */
+    @GetMapping("/real-time-snapshot")
+    public ApiResponse<Map<String, Object>> getRealTimeSnapshot(
+            @RequestParam(required = false) Long since,
+            @RequestParam(required = false) String keyword,
+            @RequestParam(required = false) Integer status,
+            @RequestParam(required = false) Integer pageNum,
+            @RequestParam(required = false) Integer pageSize) {
+        try {
+            return ApiResponse.success("获取成功", deviceRealTimeSnapshot.query(since, keyword, status, pageNum, pageSize));
+        } catch (Exception e) {
+            log.error("获取设备实时数据快照失败 - since: {}, 错误: {}", since, e.getMessage(), e);
+            return ApiResponse.error("处理请求时发生错误: " + e.getMessage());
+        }
+    }
+    
     /**
      * 获取单个设备实时数据
      * GET http://localhost:8080/api/device/real-time-data/{vid}
@@ -1,6 +1,7 @@
 package com.iot.fresh.controller;
 
 import com.iot.fresh.dto.ApiResponse;
+import com.iot.fresh.dto.CursorPageResponse;
 import com.iot.fresh.dto.DeviceDataDto;
 import com.iot.fresh.entity.DeviceDataHistory;
 import com.iot.fresh.service.DataService;
@@ -189,6 +190,8 @@ public class DeviceDataController {
      * - vid - 设备VID（可选）
      * - startTime - 开始时间（可选）
      * - endTime - 结束时间（可选）
+     * - cursor - 游标（可选）。传入时按游标分页，忽略pageNum：第一页传空字符串，之后传上一页的nextCursor
+     * - withTotal - 游标分页时是否返回估算总数（可选，默认false）
      * 
      * 返回格式:
      * {
@@ -210,11 +213,16 @@ public class DeviceDataController {
      *   }
      * }
      * 
+     * 游标分页时data为 {"list": [...], "nextCursor": "...", "hasMore": true, "pageSize": 10}，
+     * withTotal=true时还有total和totalApproximate；没有下一页时nextCursor为null
+     * 
      * @param pageNum 页码
      * @param pageSize 每页大小
      * @param vid 设备VID（可选）
      * @param startTime 开始时间（可选）
      * @param endTime 结束时间（可选）
+     * @param cursor 游标（可选）
+     * @param withTotal 游标分页时是否返回估算总数
      * @return ApiResponse<Map<String, Object>> 包含分页历史数据的响应对象
      * @author donghuang
      * @since 2026
@@ -225,7 +233,9 @@ public class DeviceDataController {
             @RequestParam(defaultValue = "20") Integer pageSize,
             @RequestParam(required = false) String vid,
             @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") String startTime,
-            @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") String endTime) {
+            @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") String endTime,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean withTotal) {
         
         try {
             // 转换时间格式
@@ -265,12 +275,34 @@ public class DeviceDataController {
                 endDateTime = LocalDateTime.now();
             }
             
+            String deviceVid = vid != null && !vid.trim().isEmpty() ? vid : null;
+            if (cursor != null) {
+                // 游标分页：按索引从上一页末尾继续读取，不随页码变慢
+                CursorPageResponse<DeviceDataHistory> page;
+                try {
+                    page = deviceDataHistoryService.getHistoryDataByCursor(
+                            deviceVid, null, startDateTime, endDateTime, cursor, pageSize, withTotal);
+                } catch (IllegalArgumentException e) {
+                    return ApiResponse.error(e.getMessage());
+                }
+                Map<String, Object> result = new HashMap<>();
+                result.put("list", page.getList().stream().map(this::toHistoryItem).collect(Collectors.toList()));
+                result.put("nextCursor", page.getNextCursor());
+                result.put("hasMore", page.isHasMore());
+                result.put("pageSize", pageSize);
+                if (withTotal) {
+                    result.put("total", page.getTotal());
+                    result.put("totalApproximate", page.isTotalApproximate());
+                }
+                return ApiResponse.success(result);
+            }
+            
             // 创建分页请求
             Pageable pageable = PageRequest.of(pageNum - 1, pageSize);
             
             // 查询历史数据表
             Page<DeviceDataHistory> historyPage;
-            if (vid != null && !vid.trim().isEmpty()) {
+            if (deviceVid != null) {
                 // 按设备ID和时间范围查询
                 historyPage = deviceDataHistoryService.getHistoryDataByVidAndTimeRange(vid, startDateTime, endDateTime, pageable);
             } else {
@@ -279,20 +311,9 @@ public class DeviceDataController {
             }
             
             // 转换数据格式以匹配前端期望
-            List<Map<String, Object>> resultList = historyPage.getContent().stream().map(history -> {
-                Map<String, Object> item = new HashMap<>();
-                
-                // 按照指定格式返回字段
-                if (history.getUpdatedAt() != null) {
-                    item.put("update_at", history.getUpdatedAt().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
-                }
-                if (history.getTin() != null) item.put("tin", history.getTin());
-                if (history.getTout() != null) item.put("tout", history.getTout());
-                if (history.getLxin() != null) item.put("lxin", history.getLxin());
-                if (history.getVstatus() != null) item.put("vStatus", history.getVstatus());
-                
-                return item;
-            }).collect(Collectors.toList());
+            List<Map<String, Object>> resultList = historyPage.getContent().stream()
+                    .map(this::toHistoryItem)
+                    .collect(Collectors.toList());
             
             // 构造分页响应
             Map<String, Object> result = new HashMap<>();
@@ -308,4 +329,19 @@ public class DeviceDataController {
             return ApiResponse.error("获取历史数据失败: " + e.getMessage());
         }
     }
+    
+    private Map<String, Object> toHistoryItem(DeviceDataHistory history) {
+        Map<String, Object> item = new HashMap<>();
+        
+        // 按照指定格式返回字段
+        if (history.getUpdatedAt() != null) {
+            item.put("update_at", history.getUpdatedAt().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+        }
+        if (history.getTin() != null) item.put("tin", history.getTin());
+        if (history.getTout() != null) item.put("tout", history.getTout());
+        if (history.getLxin() != null) item.put("lxin", history.getLxin());
+        if (history.getVstatus() != null) item.put("vStatus", history.getVstatus());
+        
+        return item;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+package com.iot.fresh.controller;
+
+import com.iot.fresh.dto.ApiResponse;
+import com.iot.fresh.handler.IngestDeduplicator;
+import com.iot.fresh.handler.PartitionedIngestExecutor;
+import com.iot.fresh.handler.TelemetryDecoder;
+import com.iot.fresh.service.DeviceDataHistoryDeadband;
+import com.iot.fresh.service.DeviceDataHistorySpool;
+import com.iot.fresh.service.DeviceDataHistoryWriter;
+import com.iot.fresh.service.DeviceDataRollupService;
+import com.iot.fresh.service.DeviceDataVolumeCounter;
+import com.iot.fresh.service.DeviceHeartbeatTracker;
+import com.iot.fresh.service.DeviceLatestStateStore;
+import com.iot.fresh.service.DeviceLivenessTracker;
+import com.iot.fresh.service.DeviceRealTimeSnapshot;
+import com.iot.fresh.service.DeviceRegistry;
+import com.iot.fresh.service.DeviceStatusCounter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 数据接入监控控制器
+ * 提供MQTT接入链路的运行指标，用于评估工作线程和数据库连接池的配置
+ *
+ * @author donghuang
+ * @since 2026
+ */
+@RestController
+@RequestMapping("/api/system/ingest")
+public class IngestMonitorController {
+
+    @Autowired
+    private PartitionedIngestExecutor ingestExecutor;
+
+    @Autowired
+    private IngestDeduplicator ingestDeduplicator;
+
+    @Autowired
+    private DeviceDataHistoryWriter deviceDataHistoryWriter;
+
+    @Autowired
+    private DeviceDataHistorySpool deviceDataHistorySpool;
+
+    @Autowired
+    private DeviceDataHistoryDeadband deviceDataHistoryDeadband;
+
+    @Autowired
+    private DeviceDataRollupService deviceDataRollupService;
+
+    @Autowired
+    private DeviceDataVolumeCounter deviceDataVolumeCounter;
+
+    @Autowired
+    private TelemetryDecoder telemetryDecoder;
+
+    @Autowired
+    private DeviceLatestStateStore deviceLatestStateStore;
+
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+
+    @Autowired
+    private DeviceStatusCounter deviceStatusCounter;
+
+    @Autowired
+    private DeviceRealTimeSnapshot deviceRealTimeSnapshot;
+
+    @Autowired
+    private DeviceHeartbeatTracker deviceHeartbeatTracker;
+
+    @Autowired
+    private DeviceLivenessTracker deviceLivenessTracker;
+
+    /**
+     * 获取接入链路统计
+     *
+     * 路径: GET /api/system/ingest/stats
+     *
+     * @return ApiResponse<Map<String, Object>> 各处理阶段的运行指标
+     */
+    @GetMapping("/stats")
+    public ApiResponse<Map<String, Object>> getIngestStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("executor", ingestExecutor.getStatistics());
+        stats.put("dedup", ingestDeduplicator.getStatistics());
+        stats.put("decoder", telemetryDecoder.getStatistics());
+        stats.put("historyWriter", deviceDataHistoryWriter.getStatistics());
+        stats.put("historySpool", deviceDataHistorySpool.getStatistics());
+        stats.put("historyDeadband", deviceDataHistoryDeadband.getStatistics());
+        stats.put("rollup", deviceDataRollupService.getStatistics());
+        stats.put("volume", deviceDataVolumeCounter.getStatistics());
+        stats.put("latestState", deviceLatestStateStore.getStatistics());
+        stats.put("deviceRegistry", deviceRegistry.getStatistics());
+        stats.put("deviceStatus", deviceStatusCounter.getStatistics());
+        stats.put("realTimeSnapshot", deviceRealTimeSnapshot.getStatistics());
+        stats.put("heartbeat", deviceHeartbeatTracker.getStatistics());
+        stats.put("liveness", deviceLivenessTracker.getStatistics());
+        return ApiResponse.success(stats);
+    }
+}
@@ -1,10 +1,9 @@
 package com.iot.fresh.controller;
 
 import com.iot.fresh.dto.ApiResponse;
-import com.iot.fresh.dto.DeviceDto;
+import com.iot.fresh.entity.Device;
 import com.iot.fresh.entity.DeviceData;
-import com.iot.fresh.service.DeviceService;
-import com.iot.fresh.service.DataService;
+import com.iot.fresh.service.DeviceRealTimeSnapshot;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -30,10 +29,7 @@ import java.util.stream.Collectors;
 public class RealTimeMonitorController {
 
     @Autowired
-    private DeviceService deviceService;
-
-    @Autowired
-    private DataService dataService;
+    private DeviceRealTimeSnapshot deviceRealTimeSnapshot;
 
     /**
      * 获取所有设备的实时数据
@@ -71,20 +67,14 @@ public class RealTimeMonitorController {
     @GetMapping("/all-real-time-data")
     public ApiResponse<List<Map<String, Object>>> getAllRealTimeData() {
         try {
-            // 获取所有设备信息
-            ApiResponse<List<DeviceDto>> deviceResponse = deviceService.getAllDevices();
-            
-            if (!deviceResponse.isSuccess()) {
-                return ApiResponse.error("获取设备列表失败: " + deviceResponse.getMsg());
-            }
-            
-            List<DeviceDto> devices = deviceResponse.getData();
+            // 从设备实时数据快照一次取出全部设备和最新数据
+            List<DeviceRealTimeSnapshot.Row> rows = deviceRealTimeSnapshot.rows();
             
             // 创建结果列表
             List<Map<String, Object>> result = new ArrayList<>();
             
-            // 为每个设备获取最新的数据
-            for (DeviceDto device : devices) {
+            for (DeviceRealTimeSnapshot.Row row : rows) {
+                Device device = row.device();
                 Map<String, Object> deviceDataMap = new HashMap<>();
                 
                 // 基本设备信息
@@ -94,8 +84,8 @@ public class RealTimeMonitorController {
                 deviceDataMap.put("deviceType", device.getDeviceType());
                 deviceDataMap.put("location", device.getLocation());
                 
-                // 获取设备最新数据
-                DeviceData latestData = dataService.getLatestDeviceData(device.getVid());
+                // 设备最新数据
+                DeviceData latestData = row.data();
                 
                 if (latestData != null) {
                     deviceDataMap.put("tin", latestData.getTin());
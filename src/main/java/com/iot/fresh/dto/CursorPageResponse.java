@@ -0,0 +1,47 @@
+package com.iot.fresh.dto;
+
+import java.util.List;
+
+/**
+ * 游标分页响应数据格式
+ * nextCursor为不透明的续页令牌，原样带回即可取下一页；没有更多数据时为null。
+ * total只在请求时返回，totalApproximate为true表示来自计数表的估算值
+ */
+public class CursorPageResponse<T> {
+    
+    private List<T> list;
+    private String nextCursor;
+    private boolean hasMore;
+    private int pageSize;
+    private Long total;
+    private boolean totalApproximate;
+    
+    // 默认构造函数
+    public CursorPageResponse() {}
+    
+    public CursorPageResponse(List<T> list, String nextCursor, int pageSize) {
+        this.list = list;
+        this.nextCursor = nextCursor;
+        this.hasMore = nextCursor != null;
+        this.pageSize = pageSize;
+    }
+    
+    // Getter和Setter方法
+    public List<T> getList() { return list; }
+    public void setList(List<T> list) { this.list = list; }
+    
+    public String getNextCursor() { return nextCursor; }
+    public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+    
+    public boolean isHasMore() { return hasMore; }
+    public void setHasMore(boolean hasMore) { this.hasMore = hasMore; }
+    
+    public int getPageSize() { return pageSize; }
+    public void setPageSize(int pageSize) { this.pageSize = pageSize; }
+    
+    public Long getTotal() { return total; }
+    public void setTotal(Long total) { this.total = total; }
+    
+    public boolean isTotalApproximate() { return totalApproximate; }
+    public void setTotalApproximate(boolean totalApproximate) { this.totalApproximate = totalApproximate; }
+}
@@ -0,0 +1,25 @@
+package com.iot.fresh.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * 汇总序列中的一个点：一个时间桶内某个指标的统计值
+ */
+@Data
+public class RollupPointDto implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime time; // 时间桶起点
+
+    private long count;
+    private double min;
+    private double max;
+    private double avg;
+    private double first; // 桶内最早的读数
+    private double last;  // 桶内最新的读数
+}
@@ -0,0 +1,189 @@
+package com.iot.fresh.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * 设备遥测记录（不可变）
+ * 一条上报消息只解析一次，最新状态更新、历史写入、报警检查和推送共用同一个对象。
+ * 数值字段以基本类型保存，是否上报由字段位掩码标记，避免装箱
+ */
+public final class TelemetryRecord {
+
+    public static final int TIN = 1;
+    public static final int TOUT = 1 << 1;
+    public static final int HIN = 1 << 2;
+    public static final int HOUT = 1 << 3;
+    public static final int LXIN = 1 << 4;
+    public static final int LXOUT = 1 << 5;
+    public static final int BRIGHTNESS = 1 << 6;
+    public static final int SPEED_M1 = 1 << 7;
+    public static final int SPEED_M2 = 1 << 8;
+    public static final int VSTATUS = 1 << 9;
+
+    // 除状态外的所有传感器字段
+    public static final int SENSOR_FIELDS = TIN | TOUT | HIN | HOUT | LXIN | LXOUT | BRIGHTNESS | SPEED_M1 | SPEED_M2;
+
+    private final String vid;
+    private final int fields;
+    private final double tin;
+    private final double tout;
+    private final int hin;
+    private final int hout;
+    private final int lxin;
+    private final int lxout;
+    private final int brightness;
+    private final int speedM1;
+    private final int speedM2;
+    private final int vstatus;
+    private final LocalDateTime timestamp;
+
+    private TelemetryRecord(Builder builder) {
+        this.vid = builder.vid;
+        this.fields = builder.fields;
+        this.tin = builder.tin;
+        this.tout = builder.tout;
+        this.hin = builder.hin;
+        this.hout = builder.hout;
+        this.lxin = builder.lxin;
+        this.lxout = builder.lxout;
+        this.brightness = builder.brightness;
+        this.speedM1 = builder.speedM1;
+        this.speedM2 = builder.speedM2;
+        this.vstatus = builder.vstatus;
+        this.timestamp = builder.timestamp;
+    }
+
+    public static Builder builder(String vid) {
+        return new Builder(vid);
+    }
+
+    /**
+     * 由已有的DeviceDataDto构造记录（兼容旧接口）
+     */
+    public static TelemetryRecord fromDto(DeviceDataDto dto) {
+        Builder builder = builder(dto.getVid());
+        if (dto.getTin() != null) builder.tin(dto.getTin());
+        if (dto.getTout() != null) builder.tout(dto.getTout());
+        if (dto.getHin() != null) builder.hin(dto.getHin());
+        if (dto.getHout() != null) builder.hout(dto.getHout());
+        if (dto.getLxin() != null) builder.lxin(dto.getLxin());
+        if (dto.getLxout() != null) builder.lxout(dto.getLxout());
+        if (dto.getBrightness() != null) builder.brightness(dto.getBrightness());
+        if (dto.getSpeedM1() != null) builder.speedM1(dto.getSpeedM1());
+        if (dto.getSpeedM2() != null) builder.speedM2(dto.getSpeedM2());
+        if (dto.getVstatus() != null) builder.vstatus(dto.getVstatus());
+        builder.timestamp(dto.getTimestamp());
+        return builder.build();
+    }
+
+    /**
+     * 转换为前端使用的DeviceDataDto
+     */
+    public DeviceDataDto toDeviceDataDto() {
+        DeviceDataDto dto = new DeviceDataDto();
+        dto.setVid(vid);
+        dto.setTin(getTin());
+        dto.setTout(getTout());
+        dto.setHin(getHin());
+        dto.setHout(getHout());
+        dto.setLxin(getLxin());
+        dto.setLxout(getLxout());
+        dto.setBrightness(getBrightness());
+        dto.setSpeedM1(getSpeedM1());
+        dto.setSpeedM2(getSpeedM2());
+        dto.setVstatus(getVstatus());
+        dto.setTimestamp(timestamp);
+        return dto;
+    }
+
+    public boolean has(int field) {
+        return (fields & field) != 0;
+    }
+
+    /**
+     * 是否只上报了状态字段
+     */
+    public boolean isStatusOnly() {
+        return has(VSTATUS) && (fields & SENSOR_FIELDS) == 0;
+    }
+
+    public String getVid() { return vid; }
+    public int getFields() { return fields; }
+    public LocalDateTime getTimestamp() { return timestamp; }
+
+    // 基本类型访问，调用前应通过has()判断字段是否上报
+    public double tinValue() { return tin; }
+    public double toutValue() { return tout; }
+    public int hinValue() { return hin; }
+    public int houtValue() { return hout; }
+    public int lxinValue() { return lxin; }
+    public int lxoutValue() { return lxout; }
+    public int brightnessValue() { return brightness; }
+    public int vstatusValue() { return vstatus; }
+
+    // 可空访问，未上报的字段返回null
+    public Double getTin() { return has(TIN) ? tin : null; }
+    public Double getTout() { return has(TOUT) ? tout : null; }
+    public Integer getHin() { return has(HIN) ? hin : null; }
+    public Integer getHout() { return has(HOUT) ? hout : null; }
+    public Integer getLxin() { return has(LXIN) ? lxin : null; }
+    public Integer getLxout() { return has(LXOUT) ? lxout : null; }
+    public Integer getBrightness() { return has(BRIGHTNESS) ? brightness : null; }
+    public Integer getSpeedM1() { return has(SPEED_M1) ? speedM1 : null; }
+    public Integer getSpeedM2() { return has(SPEED_M2) ? speedM2 : null; }
+    public Integer getVstatus() { return has(VSTATUS) ? vstatus : null; }
+
+    @Override
+    public String toString() {
+        return "TelemetryRecord{vid=" + vid + ", tin=" + getTin() + ", tout=" + getTout()
+                + ", hin=" + getHin() + ", hout=" + getHout() + ", lxin=" + getLxin() + ", lxout=" + getLxout()
+                + ", brightness=" + getBrightness() + ", vstatus=" + getVstatus() + ", timestamp=" + timestamp + "}";
+    }
+
+    /**
+     * 解析过程中使用的可变构造器，解析完成后build()得到不可变记录
+     */
+    public static final class Builder {
+        private String vid;
+        private int fields;
+        private double tin;
+        private double tout;
+        private int hin;
+        private int hout;
+        private int lxin;
+        private int lxout;
+        private int brightness;
+        private int speedM1;
+        private int speedM2;
+        private int vstatus;
+        private LocalDateTime timestamp;
+
+        private Builder(String vid) {
+            this.vid = vid;
+        }
+
+        public Builder vid(String vid) { this.vid = vid; return this; }
+        public Builder tin(double value) { this.tin = value; fields |= TIN; return this; }
+        public Builder tout(double value) { this.tout = value; fields |= TOUT; return this; }
+        public Builder hin(int value) { this.hin = value; fields |= HIN; return this; }
+        public Builder hout(int value) { this.hout = value; fields |= HOUT; return this; }
+        public Builder lxin(int value) { this.lxin = value; fields |= LXIN; return this; }
+        public Builder lxout(int value) { this.lxout = value; fields |= LXOUT; return this; }
+        public Builder brightness(int value) { this.brightness = value; fields |= BRIGHTNESS; return this; }
+        public Builder speedM1(int value) { this.speedM1 = value; fields |= SPEED_M1; return this; }
+        public Builder speedM2(int value) { this.speedM2 = value; fields |= SPEED_M2; return this; }
+        public Builder vstatus(int value) { this.vstatus = value; fields |= VSTATUS; return this; }
+        public Builder timestamp(LocalDateTime timestamp) { this.timestamp = timestamp; return this; }
+
+        public boolean has(int field) {
+            return (fields & field) != 0;
+        }
+
+        public int fields() { return fields; }
+        public LocalDateTime timestamp() { return timestamp; }
+
+        public TelemetryRecord build() {
+            return new TelemetryRecord(this);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.iot.fresh.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * 遥测汇总数据的公共字段
+ * 每行是一台设备一个指标在一个时间桶内的汇总，由DeviceDataRollupService在接入时增量维护，
+ * 按分钟、小时、天三种粒度分别存放在独立的表中
+ */
+@MappedSuperclass
+public abstract class DeviceDataRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "vid", nullable = false, length = 50)
+    private String vid;
+
+    @Column(name = "metric", nullable = false, length = 16)
+    private String metric; // 指标: tin, tout, hin, hout, lxin, lxout, brightness
+
+    @Column(name = "bucket_start", nullable = false)
+    private LocalDateTime bucketStart; // 时间桶起点
+
+    @Column(name = "sample_count", nullable = false)
+    private Long sampleCount; // 读数条数
+
+    @Column(name = "sum_value", nullable = false)
+    private Double sumValue; // 读数之和，平均值 = sum_value / sample_count
+
+    @Column(name = "min_value", nullable = false)
+    private Double minValue;
+
+    @Column(name = "max_value", nullable = false)
+    private Double maxValue;
+
+    @Column(name = "first_value", nullable = false)
+    private Double firstValue; // 桶内最早的读数
+
+    @Column(name = "first_at", nullable = false)
+    private LocalDateTime firstAt;
+
+    @Column(name = "last_value", nullable = false)
+    private Double lastValue; // 桶内最新的读数
+
+    @Column(name = "last_at", nullable = false)
+    private LocalDateTime lastAt;
+
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getVid() { return vid; }
+    public void setVid(String vid) { this.vid = vid; }
+
+    public String getMetric() { return metric; }
+    public void setMetric(String metric) { this.metric = metric; }
+
+    public LocalDateTime getBucketStart() { return bucketStart; }
+    public void setBucketStart(LocalDateTime bucketStart) { this.bucketStart = bucketStart; }
+
+    public Long getSampleCount() { return sampleCount; }
+    public void setSampleCount(Long sampleCount) { this.sampleCount = sampleCount; }
+
+    public Double getSumValue() { return sumValue; }
+    public void setSumValue(Double sumValue) { this.sumValue = sumValue; }
+
+    public Double getMinValue() { return minValue; }
+    public void setMinValue(Double minValue) { this.minValue = minValue; }
+
+    public Double getMaxValue() { return maxValue; }
+    public void setMaxValue(Double maxValue) { this.maxValue = maxValue; }
+
+    public Double getFirstValue() { return firstValue; }
+    public void setFirstValue(Double firstValue) { this.firstValue = firstValue; }
+
+    public LocalDateTime getFirstAt() { return firstAt; }
+    public void setFirstAt(LocalDateTime firstAt) { this.firstAt = firstAt; }
+
+    public Double getLastValue() { return lastValue; }
+    public void setLastValue(Double lastValue) { this.lastValue = lastValue; }
+
+    public LocalDateTime getLastAt() { return lastAt; }
+    public void setLastAt(LocalDateTime lastAt) { this.lastAt = lastAt; }
+}
@@ -0,0 +1,12 @@
+package com.iot.fresh.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * 按天汇总的遥测数据
+ */
+@Entity
+@Table(name = "device_data_rollup_1d",
+       uniqueConstraints = @UniqueConstraint(name = "uk_device_data_rollup_1d_bucket", columnNames = {"vid", "metric", "bucket_start"}))
+public class DeviceDataRollupDay extends DeviceDataRollup {
+}
@@ -0,0 +1,12 @@
+package com.iot.fresh.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * 按分钟汇总的遥测数据
+ */
+@Entity
+@Table(name = "device_data_rollup_1m",
+       uniqueConstraints = @UniqueConstraint(name = "uk_device_data_rollup_1m_bucket", columnNames = {"vid", "metric", "bucket_start"}))
+public class DeviceDataRollupMinute extends DeviceDataRollup {
+}
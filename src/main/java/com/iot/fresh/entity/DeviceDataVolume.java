@@ -0,0 +1,40 @@
+package com.iot.fresh.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * 按设备、按小时统计的历史数据量
+ * 由DeviceDataVolumeCounter在接入时计数并定期写入
+ */
+@Entity
+@Table(name = "device_data_volume_1h",
+       uniqueConstraints = @UniqueConstraint(name = "uk_device_data_volume_1h_bucket", columnNames = {"vid", "bucket_start"}))
+public class DeviceDataVolume {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "vid", nullable = false, length = 50)
+    private String vid;
+
+    @Column(name = "bucket_start", nullable = false)
+    private LocalDateTime bucketStart; // 小时起点
+
+    @Column(name = "record_count", nullable = false)
+    private Long recordCount; // 该小时写入的历史记录条数
+
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getVid() { return vid; }
+    public void setVid(String vid) { this.vid = vid; }
+
+    public LocalDateTime getBucketStart() { return bucketStart; }
+    public void setBucketStart(LocalDateTime bucketStart) { this.bucketStart = bucketStart; }
+
+    public Long getRecordCount() { return recordCount; }
+    public void setRecordCount(Long recordCount) { this.recordCount = recordCount; }
+}
@@ -0,0 +1,169 @@
+package com.iot.fresh.handler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.iot.fresh.service.DeviceRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MQTT重复消息过滤
+ * QoS 1的重投和设备端的重发会让同一条读数到达多次，产生重复的历史记录和报警。
+ * 每台设备保留一个固定大小的环形缓冲区，记录最近消息的指纹（消息类型 + 载荷哈希，
+ * 载荷中带有设备时间戳，因此指纹同时覆盖(vid, 设备时间戳, 载荷)），命中即丢弃，
+ * 在解码和写库之前完成。
+ * 每条消息的指纹都会记录，但只有载荷带设备时间戳或消息带MQTT重投标记时才会判定重复：
+ * 没有时间戳的设备可能连续上报完全相同的读数，这些不是重复消息，而它们随后的重投仍会被丢弃。
+ * 只为已注册的设备保留缓冲区，未注册的VID不做去重，内存只与设备数有关
+ */
+@Component
+public class IngestDeduplicator {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestDeduplicator.class);
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // JSON和CBOR中字段名都以UTF-8原样出现，直接在字节中查找
+    private static final byte[] TIMESTAMP_FIELD = "timestamp".getBytes(StandardCharsets.US_ASCII);
+
+    @Value("${mqtt.ingest.dedup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${mqtt.ingest.dedup.ring-size:32}")
+    private int ringSize;
+
+    // DeviceRegistry删除设备时会回调forget，延迟注入避免循环依赖
+    @Lazy
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+
+    private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+    private final LongAdder suppressedRedelivered = new LongAdder();
+    private final LongAdder skippedNoTimestamp = new LongAdder();
+
+    /**
+     * 判断消息是否为最近已接收过的重复消息，并记录其指纹
+     *
+     * @param redelivered 消息是否带MQTT重投标记(DUP)
+     * @return 重复消息返回true，调用方应直接丢弃
+     */
+    public boolean isDuplicate(String vid, String messageType, byte[] payload, boolean redelivered) {
+        if (!enabled || vid == null || payload == null || payload.length == 0) {
+            return false;
+        }
+        if (!rings.containsKey(vid) && deviceRegistry.findByVid(vid).isEmpty()) {
+            return false;
+        }
+        checked.increment();
+        long fingerprint = fingerprint(messageType, payload);
+        Ring ring = rings.computeIfAbsent(vid, k -> new Ring(ringSize));
+        if (ring.addIfAbsent(fingerprint)) {
+            return false;
+        }
+        // 没有设备时间戳的相同载荷可能是真实的重复读数，只有带重投标记时才丢弃
+        if (!redelivered && !contains(payload, TIMESTAMP_FIELD)) {
+            skippedNoTimestamp.increment();
+            return false;
+        }
+        suppressed.increment();
+        if (redelivered) {
+            suppressedRedelivered.increment();
+        }
+        log.debug("丢弃重复消息 - VID: {}, 类型: {}, 重投: {}", vid, messageType, redelivered);
+        return true;
+    }
+
+    /**
+     * 设备删除后清除其指纹记录
+     */
+    public void forget(String vid) {
+        if (vid != null) {
+            rings.remove(vid);
+        }
+    }
+
+    /**
+     * FNV-1a 64位哈希，消息类型参与计算，不同主题的相同载荷不会互相判重
+     */
+    static long fingerprint(String messageType, byte[] payload) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < messageType.length(); i++) {
+            hash ^= messageType.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        hash ^= '/';
+        hash *= FNV_PRIME;
+        for (byte b : payload) {
+            hash ^= b & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        // 0表示环形缓冲区中的空位
+        return hash != 0 ? hash : 1;
+    }
+
+    private static boolean contains(byte[] payload, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= payload.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (payload[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 获取去重统计：检查数、丢弃的重复消息数（其中带重投标记的数量）、因没有设备时间戳而未丢弃的相同载荷数量
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("enabled", enabled);
+        statistics.put("ringSize", ringSize);
+        statistics.put("devices", rings.size());
+        statistics.put("checked", checked.sum());
+        statistics.put("suppressed", suppressed.sum());
+        statistics.put("suppressedRedelivered", suppressedRedelivered.sum());
+        statistics.put("skippedNoTimestamp", skippedNoTimestamp.sum());
+        return statistics;
+    }
+
+    /**
+     * 单台设备最近消息指纹的环形缓冲区，满后覆盖最旧的指纹，内存固定
+     */
+    private static final class Ring {
+        private final long[] fingerprints;
+        private int next;
+
+        private Ring(int size) {
+            fingerprints = new long[Math.max(1, size)];
+        }
+
+        /**
+         * @return 指纹不存在并已记录时返回true，已存在时返回false
+         */
+        synchronized boolean addIfAbsent(long fingerprint) {
+            for (long existing : fingerprints) {
+                if (existing == fingerprint) {
+                    return false;
+                }
+            }
+            fingerprints[next] = fingerprint;
+            next = (next + 1) % fingerprints.length;
+            return true;
+        }
+    }
+}
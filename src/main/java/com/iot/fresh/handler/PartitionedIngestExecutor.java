@@ -0,0 +1,318 @@
+package com.iot.fresh.handler;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MQTT消息分区执行器
+ * 按设备VID哈希到固定的工作通道(lane)，不同设备的消息并行处理，
+ * 同一设备的消息始终落在同一通道上，保证按到达顺序处理。
+ * 每个通道是有界队列，队列满时按配置的策略处理：阻塞MQTT回调线程、丢弃最旧的遥测消息，
+ * 或按设备采样遥测消息。报警和状态消息不会被丢弃
+ */
+@Component
+public class PartitionedIngestExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionedIngestExecutor.class);
+
+    @Value("${mqtt.ingest.lanes:0}")
+    private int laneCount;
+
+    @Value("${mqtt.ingest.lane-capacity:1000}")
+    private int laneCapacity;
+
+    @Value("${mqtt.ingest.shutdown-timeout:10000}")
+    private long shutdownTimeoutMillis;
+
+    @Value("${mqtt.ingest.overflow-policy:BLOCK}")
+    private OverflowPolicy overflowPolicy;
+
+    @Value("${mqtt.ingest.sample-interval:5000}")
+    private long sampleIntervalMillis;
+
+    @Value("${mqtt.ingest.sample-watermark:0.5}")
+    private double sampleWatermark;
+
+    /**
+     * 通道队列满时的处理策略
+     */
+    public enum OverflowPolicy {
+        /** 阻塞MQTT回调线程，直到通道有空位 */
+        BLOCK,
+        /** 丢弃通道中最旧的遥测消息，为新消息腾出位置 */
+        DROP_OLDEST,
+        /** 通道积压超过水位后，每台设备每个采样间隔只保留一条遥测消息 */
+        SAMPLE
+    }
+
+    // 采样策略下每台设备最近一次接收遥测消息的时间
+    private final Map<String, Long> lastSampled = new ConcurrentHashMap<>();
+
+    private final LongAdder blockedWaits = new LongAdder();
+    private final LongAdder droppedOldest = new LongAdder();
+    private final LongAdder droppedSampled = new LongAdder();
+
+    private Lane[] lanes;
+
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        if (laneCount <= 0) {
+            laneCount = Runtime.getRuntime().availableProcessors();
+        }
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i, laneCapacity);
+            lanes[i].thread.start();
+        }
+        running = true;
+        log.info("MQTT分区执行器已启动 - 通道数: {}, 每通道容量: {}, 溢出策略: {}", laneCount, laneCapacity, overflowPolicy);
+    }
+
+    /**
+     * 提交不可丢弃的任务，同一个key的任务按提交顺序串行执行
+     * 通道已满时阻塞调用线程，形成对MQTT回调线程的背压
+     */
+    public void execute(String key, Runnable task) {
+        execute(key, task, false);
+    }
+
+    /**
+     * 提交任务，同一个key的任务按提交顺序串行执行
+     *
+     * @param sheddable 是否允许按溢出策略丢弃（遥测消息为true，报警、状态为false）
+     */
+    public void execute(String key, Runnable task, boolean sheddable) {
+        if (!running) {
+            // 关闭过程中直接在调用线程执行，避免丢消息
+            task.run();
+            return;
+        }
+        Lane lane = laneFor(key);
+        if (sheddable && overflowPolicy == OverflowPolicy.SAMPLE && !sample(key, lane)) {
+            droppedSampled.increment();
+            return;
+        }
+        Task entry = new Task(task, System.nanoTime(), sheddable);
+        if (lane.queue.offer(entry)) {
+            return;
+        }
+        if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            // 腾出位置后重试，通道里只剩不可丢弃的任务时退化为阻塞
+            while (lane.evictOldestSheddable()) {
+                droppedOldest.increment();
+                if (lane.queue.offer(entry)) {
+                    return;
+                }
+            }
+        }
+        blockedWaits.increment();
+        try {
+            lane.queue.put(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("提交任务被中断，改为在调用线程执行 - key: {}", key);
+            task.run();
+        }
+    }
+
+    /**
+     * 采样判断：通道积压未超过水位时全部接收，超过后每台设备每个采样间隔只接收一条
+     */
+    private boolean sample(String key, Lane lane) {
+        if (lane.queue.size() < laneCapacity * sampleWatermark) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        Long last = lastSampled.get(key);
+        if (last != null && now - last < sampleIntervalMillis) {
+            return false;
+        }
+        lastSampled.put(key, now);
+        return true;
+    }
+
+    /**
+     * 计算key对应的通道下标
+     */
+    public int laneIndex(String key) {
+        int hash = key != null ? key.hashCode() : 0;
+        return (hash & 0x7fffffff) % lanes.length;
+    }
+
+    private Lane laneFor(String key) {
+        return lanes[laneIndex(key)];
+    }
+
+    /**
+     * 获取各通道运行统计：队列深度、已处理数、失败数、延迟
+     */
+    public Map<String, Object> getStatistics() {
+        List<Map<String, Object>> laneStats = new ArrayList<>();
+        long totalDepth = 0;
+        long totalProcessed = 0;
+        long maxLagNanos = 0;
+        long now = System.nanoTime();
+        for (Lane lane : lanes) {
+            Map<String, Object> stat = lane.snapshot(now);
+            totalDepth += lane.queue.size();
+            totalProcessed += lane.processed.sum();
+            maxLagNanos = Math.max(maxLagNanos, lane.oldestAgeNanos(now));
+            laneStats.add(stat);
+        }
+
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("laneCount", lanes.length);
+        statistics.put("laneCapacity", laneCapacity);
+        statistics.put("overflowPolicy", overflowPolicy.name());
+        statistics.put("totalDepth", totalDepth);
+        statistics.put("totalProcessed", totalProcessed);
+        statistics.put("blockedWaits", blockedWaits.sum());
+        statistics.put("droppedOldest", droppedOldest.sum());
+        statistics.put("droppedSampled", droppedSampled.sum());
+        // 当前最久未处理消息的等待时间，持续增长说明处理能力不足
+        statistics.put("maxLagMs", maxLagNanos / 1_000_000.0);
+        statistics.put("lanes", laneStats);
+        return statistics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        long deadline = System.currentTimeMillis() + shutdownTimeoutMillis;
+        for (Lane lane : lanes) {
+            lane.stop();
+        }
+        for (Lane lane : lanes) {
+            try {
+                long remaining = Math.max(1, deadline - System.currentTimeMillis());
+                lane.thread.join(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        log.info("MQTT分区执行器已关闭");
+    }
+
+    private static final class Task {
+        private final Runnable runnable;
+        private final long enqueuedAt;
+        private final boolean sheddable;
+
+        private Task(Runnable runnable, long enqueuedAt, boolean sheddable) {
+            this.runnable = runnable;
+            this.enqueuedAt = enqueuedAt;
+            this.sheddable = sheddable;
+        }
+    }
+
+    private static final class Lane implements Runnable {
+        private final int index;
+        private final BlockingQueue<Task> queue;
+        private final Thread thread;
+        private volatile boolean stopped;
+
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final AtomicLong totalQueueNanos = new AtomicLong();
+        private final AtomicLong totalLatencyNanos = new AtomicLong();
+        private final AtomicLong maxLatencyNanos = new AtomicLong();
+        private volatile long lastLatencyNanos;
+
+        private Lane(int index, int capacity) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.thread = new Thread(this, "mqtt-ingest-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!stopped || !queue.isEmpty()) {
+                Task task;
+                try {
+                    task = queue.poll(200, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    if (stopped) {
+                        continue;
+                    }
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (task == null) {
+                    continue;
+                }
+                totalQueueNanos.addAndGet(System.nanoTime() - task.enqueuedAt);
+                try {
+                    task.runnable.run();
+                } catch (Exception e) {
+                    failed.increment();
+                    log.error("通道 {} 处理消息失败: {}", index, e.getMessage(), e);
+                } finally {
+                    // 延迟 = 排队等待 + 处理耗时
+                    long latency = System.nanoTime() - task.enqueuedAt;
+                    lastLatencyNanos = latency;
+                    totalLatencyNanos.addAndGet(latency);
+                    maxLatencyNanos.accumulateAndGet(latency, Math::max);
+                    processed.increment();
+                }
+            }
+        }
+
+        private void stop() {
+            stopped = true;
+        }
+
+        /**
+         * 移除队列中最旧的一条可丢弃任务，队列中没有可丢弃任务时返回false
+         */
+        private boolean evictOldestSheddable() {
+            Iterator<Task> iterator = queue.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().sheddable) {
+                    iterator.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private long oldestAgeNanos(long now) {
+            Task head = queue.peek();
+            return head != null ? Math.max(0, now - head.enqueuedAt) : 0;
+        }
+
+        private Map<String, Object> snapshot(long now) {
+            long count = processed.sum();
+            Map<String, Object> stat = new HashMap<>();
+            stat.put("lane", index);
+            stat.put("depth", queue.size());
+            stat.put("processed", count);
+            stat.put("failed", failed.sum());
+            stat.put("lagMs", oldestAgeNanos(now) / 1_000_000.0);
+            stat.put("avgQueueMs", count > 0 ? totalQueueNanos.get() / count / 1_000_000.0 : 0.0);
+            stat.put("avgLatencyMs", count > 0 ? totalLatencyNanos.get() / count / 1_000_000.0 : 0.0);
+            stat.put("maxLatencyMs", maxLatencyNanos.get() / 1_000_000.0);
+            stat.put("lastLatencyMs", lastLatencyNanos / 1_000_000.0);
+            return stat;
+        }
+    }
+}
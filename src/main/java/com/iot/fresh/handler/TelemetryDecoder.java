@@ -0,0 +1,645 @@
+package com.iot.fresh.handler;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.iot.fresh.dto.AlarmDataDto;
+import com.iot.fresh.dto.TelemetryRecord;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 设备遥测消息解码器
+ * MQTT和设备WebSocket上报的数据统一在这里解码一次，得到不可变的TelemetryRecord，
+ * 后续的最新状态更新、历史写入、报警检查和推送都复用该记录。
+ * 基于Jackson的JsonParser逐个读取token，一次遍历即可识别各种字段写法（Tin/tin、LXin/lxin、
+ * status/vstatus/VStatus），数值直接写入基本类型字段，不创建中间Map；
+ * 单个字段类型不合法时跳过并计数，不抛出异常。
+ * 除JSON外还支持CBOR编码的载荷：CBOR与JSON共用同一套token流，字段识别逻辑完全相同，
+ * 二进制载荷直接从byte[]解码，不需要先转换成String
+ */
+@Component
+public class TelemetryDecoder {
+
+    private static final Logger log = LoggerFactory.getLogger(TelemetryDecoder.class);
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    // 状态字段的优先级：status > vstatus > VStatus/vStatus
+    private static final int STATUS_RANK_NONE = 0;
+    private static final int STATUS_RANK_VSTATUS_UPPER = 1;
+    private static final int STATUS_RANK_VSTATUS = 2;
+    private static final int STATUS_RANK_STATUS = 3;
+
+    // 整数字段缺失或不合法时readInt的返回值
+    private static final long MISSING = Long.MIN_VALUE;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // CBOR自描述标签55799的编码（RFC 8949 3.4.6），设备可以用它作为载荷的魔数
+    private static final int CBOR_MAGIC_0 = 0xD9;
+    private static final int CBOR_MAGIC_1 = 0xD9;
+    private static final int CBOR_MAGIC_2 = 0xF7;
+
+    /**
+     * 载荷编码
+     */
+    public enum PayloadFormat {
+        JSON,
+        CBOR
+    }
+
+    /**
+     * 创建解析器，JSON和CBOR载荷共用同一套解码逻辑
+     */
+    @FunctionalInterface
+    private interface ParserSource {
+        JsonParser open() throws IOException;
+    }
+
+    private JsonFactory jsonFactory;
+
+    private final CBORFactory cborFactory = new CBORFactory();
+
+    private final LongAdder decoded = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder malformedFields = new LongAdder();
+    private final LongAdder truncatedPayloads = new LongAdder();
+    private final LongAdder cborPayloads = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * 解码数据主题的消息
+     * @return 解码结果，无法解析出任何字段时返回null
+     */
+    public TelemetryRecord decodeData(String vid, String payload) {
+        if (payload == null || payload.isEmpty()) {
+            rejected.increment();
+            return null;
+        }
+        return decodeData(vid, PayloadFormat.JSON, () -> jsonFactory.createParser(payload));
+    }
+
+    /**
+     * 解码数据主题的原始载荷，JSON直接从UTF-8字节解析，CBOR按二进制解析
+     * @return 解码结果，无法解析出任何字段时返回null
+     */
+    public TelemetryRecord decodeData(String vid, byte[] payload, PayloadFormat format) {
+        if (payload == null || payload.length == 0) {
+            rejected.increment();
+            return null;
+        }
+        return decodeData(vid, format, () -> createParser(payload, format));
+    }
+
+    private TelemetryRecord decodeData(String vid, PayloadFormat format, ParserSource source) {
+        TelemetryRecord.Builder builder = TelemetryRecord.builder(vid);
+        boolean vidFromPayload = false;
+        try (JsonParser parser = source.open()) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                rejected.increment();
+                log.warn("设备数据不是{}对象 - VID: {}", format, vid);
+                return null;
+            }
+            vidFromPayload = readFields(parser, builder, vid);
+        } catch (IOException e) {
+            // 载荷结构损坏：已读出的字段仍然有效，一个字段都没有时才视为解码失败
+            if (builder.fields() == 0) {
+                rejected.increment();
+                log.warn("设备数据{}格式错误 - VID: {}, 错误: {}", format, vid, e.getMessage());
+                return null;
+            }
+            truncatedPayloads.increment();
+            log.warn("设备数据{}不完整，保留已解析的字段 - VID: {}, 错误: {}", format, vid, e.getMessage());
+        }
+        return complete(builder, vid, vidFromPayload);
+    }
+
+    /**
+     * 解码批量主题的消息，一次遍历解析出全部读数
+     * 载荷可以是读数数组[{...},{...}]，也可以是{"readings":[{...},{...}]}，每条读数的字段与数据主题相同
+     *
+     * @return 按时间戳升序排列的读数，无法解析时返回空列表
+     */
+    public List<TelemetryRecord> decodeBatch(String vid, String payload) {
+        if (payload == null || payload.isEmpty()) {
+            rejected.increment();
+            return new ArrayList<>();
+        }
+        return decodeBatch(vid, PayloadFormat.JSON, () -> jsonFactory.createParser(payload));
+    }
+
+    /**
+     * 解码批量主题的原始载荷，结构与JSON批量载荷相同
+     * @return 按时间戳升序排列的读数，无法解析时返回空列表
+     */
+    public List<TelemetryRecord> decodeBatch(String vid, byte[] payload, PayloadFormat format) {
+        if (payload == null || payload.length == 0) {
+            rejected.increment();
+            return new ArrayList<>();
+        }
+        return decodeBatch(vid, format, () -> createParser(payload, format));
+    }
+
+    private List<TelemetryRecord> decodeBatch(String vid, PayloadFormat format, ParserSource source) {
+        List<TelemetryRecord> records = new ArrayList<>();
+        try (JsonParser parser = source.open()) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                // {"readings":[...]}，跳过数组以外的字段
+                token = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if ("readings".equals(field) && value == JsonToken.START_ARRAY) {
+                        token = value;
+                        break;
+                    }
+                    skipValue(parser, value);
+                }
+            }
+            if (token != JsonToken.START_ARRAY) {
+                rejected.increment();
+                log.warn("批量设备数据不是读数数组 - VID: {}", vid);
+                return records;
+            }
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    skipValue(parser, token);
+                    malformed(vid, "readings", token.name());
+                    continue;
+                }
+                TelemetryRecord.Builder builder = TelemetryRecord.builder(vid);
+                boolean vidFromPayload = readFields(parser, builder, vid);
+                if (builder.fields() == 0) {
+                    continue;
+                }
+                records.add(complete(builder, vid, vidFromPayload));
+            }
+        } catch (IOException e) {
+            // 数组被截断：保留已完整解析的读数
+            truncatedPayloads.increment();
+            log.warn("批量设备数据{}不完整，保留已解析的 {} 条读数 - VID: {}, 错误: {}", format, records.size(), vid, e.getMessage());
+        }
+        // 设备缓存的读数不一定按顺序上报，统一按时间戳排序（稳定排序，相同时间保持原顺序）
+        records.sort(Comparator.comparing(TelemetryRecord::getTimestamp));
+        return records;
+    }
+
+    /**
+     * 读取当前JSON对象的全部字段写入builder，parser位于START_OBJECT之后，返回时位于END_OBJECT
+     * @return 载荷中是否带有vid
+     */
+    private boolean readFields(JsonParser parser, TelemetryRecord.Builder builder, String vid) throws IOException {
+        int statusRank = STATUS_RANK_NONE;
+        boolean vidFromPayload = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "vid":
+                    if (value == JsonToken.VALUE_STRING && !parser.getText().isEmpty()) {
+                        builder.vid(parser.getText());
+                        vidFromPayload = true;
+                    } else {
+                        skipValue(parser, value);
+                    }
+                    break;
+                case "Tin":
+                case "tin":
+                    double tin = readDouble(parser, value, vid, field);
+                    if (!Double.isNaN(tin)) {
+                        builder.tin(tin);
+                    }
+                    break;
+                case "Tout":
+                case "tout":
+                    double tout = readDouble(parser, value, vid, field);
+                    if (!Double.isNaN(tout)) {
+                        builder.tout(tout);
+                    }
+                    break;
+                case "Hin":
+                case "hin":
+                    long hin = readInt(parser, value, vid, field);
+                    if (hin != MISSING) {
+                        builder.hin((int) hin);
+                    }
+                    break;
+                case "Hout":
+                case "hout":
+                    long hout = readInt(parser, value, vid, field);
+                    if (hout != MISSING) {
+                        builder.hout((int) hout);
+                    }
+                    break;
+                case "LXin":
+                case "Lxin":
+                case "lxin":
+                    long lxin = readInt(parser, value, vid, field);
+                    if (lxin != MISSING) {
+                        builder.lxin((int) lxin);
+                    }
+                    break;
+                case "LXout":
+                case "Lxout":
+                case "lxout":
+                    long lxout = readInt(parser, value, vid, field);
+                    if (lxout != MISSING) {
+                        builder.lxout((int) lxout);
+                    }
+                    break;
+                case "brightness":
+                    long brightness = readInt(parser, value, vid, field);
+                    if (brightness != MISSING) {
+                        builder.brightness((int) brightness);
+                    }
+                    break;
+                case "speedM1":
+                    long speedM1 = readInt(parser, value, vid, field);
+                    if (speedM1 != MISSING) {
+                        builder.speedM1((int) speedM1);
+                    }
+                    break;
+                case "speedM2":
+                    long speedM2 = readInt(parser, value, vid, field);
+                    if (speedM2 != MISSING) {
+                        builder.speedM2((int) speedM2);
+                    }
+                    break;
+                case "status":
+                case "vstatus":
+                case "vStatus":
+                case "VStatus": {
+                    int rank = statusRank(field);
+                    long vstatus = readInt(parser, value, vid, field);
+                    if (vstatus != MISSING && rank > statusRank) {
+                        builder.vstatus((int) vstatus);
+                        statusRank = rank;
+                    }
+                    break;
+                }
+                case "timestamp":
+                    LocalDateTime timestamp = readTimestamp(parser, value, vid);
+                    if (timestamp != null) {
+                        builder.timestamp(timestamp);
+                    }
+                    break;
+                default:
+                    // 未知字段（deviceType、pid、battery等）直接跳过
+                    skipValue(parser, value);
+                    break;
+            }
+        }
+        return vidFromPayload;
+    }
+
+    /**
+     * 补齐默认值并生成记录
+     */
+    private TelemetryRecord complete(TelemetryRecord.Builder builder, String vid, boolean vidFromPayload) {
+        if (!vidFromPayload) {
+            builder.vid(vid);
+        }
+        // 没有上报状态时默认为0，与原有解析逻辑一致
+        if (!builder.has(TelemetryRecord.VSTATUS)) {
+            builder.vstatus(0);
+        }
+        if (builder.timestamp() == null) {
+            builder.timestamp(LocalDateTime.now());
+        }
+        decoded.increment();
+        return builder.build();
+    }
+
+    /**
+     * 从载荷中解析状态值，支持status、vstatus、VStatus三种写法
+     * @return 状态值，没有合法的状态字段时返回null
+     */
+    public Integer decodeStatus(String payload) {
+        if (payload == null || payload.isEmpty()) {
+            return null;
+        }
+        return decodeStatus(PayloadFormat.JSON, () -> jsonFactory.createParser(payload));
+    }
+
+    /**
+     * 从原始载荷中解析状态值
+     * @return 状态值，没有合法的状态字段时返回null
+     */
+    public Integer decodeStatus(byte[] payload, PayloadFormat format) {
+        if (payload == null || payload.length == 0) {
+            return null;
+        }
+        return decodeStatus(format, () -> createParser(payload, format));
+    }
+
+    private Integer decodeStatus(PayloadFormat format, ParserSource source) {
+        int statusRank = STATUS_RANK_NONE;
+        int status = 0;
+        try (JsonParser parser = source.open()) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                int rank = statusRank(field);
+                if (rank == STATUS_RANK_NONE) {
+                    skipValue(parser, value);
+                    continue;
+                }
+                long parsed = readInt(parser, value, null, field);
+                if (parsed != MISSING && rank > statusRank) {
+                    status = (int) parsed;
+                    statusRank = rank;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("状态消息{}格式错误: {}", format, e.getMessage());
+        }
+        return statusRank != STATUS_RANK_NONE ? status : null;
+    }
+
+    /**
+     * 解码报警主题的消息，所有字段按字符串读取
+     * @return 解码结果，无法解析出任何字段时返回null
+     */
+    public AlarmDataDto decodeAlarm(String vid, String payload) {
+        if (payload == null || payload.isEmpty()) {
+            return null;
+        }
+        return decodeAlarm(vid, PayloadFormat.JSON, () -> jsonFactory.createParser(payload));
+    }
+
+    /**
+     * 解码报警主题的原始载荷
+     * @return 解码结果，无法解析出任何字段时返回null
+     */
+    public AlarmDataDto decodeAlarm(String vid, byte[] payload, PayloadFormat format) {
+        if (payload == null || payload.length == 0) {
+            return null;
+        }
+        return decodeAlarm(vid, format, () -> createParser(payload, format));
+    }
+
+    private AlarmDataDto decodeAlarm(String vid, PayloadFormat format, ParserSource source) {
+        AlarmDataDto dto = new AlarmDataDto();
+        boolean any = false;
+        try (JsonParser parser = source.open()) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (!value.isScalarValue()) {
+                    skipValue(parser, value);
+                    continue;
+                }
+                String text = value == JsonToken.VALUE_NULL ? null : parser.getText();
+                switch (field) {
+                    case "deviceName": dto.setDeviceName(text); break;
+                    case "alarmType": dto.setAlarmType(text); break;
+                    case "level": dto.setLevel(text); break;
+                    case "alarmContent": dto.setAlarmContent(text); break;
+                    case "status": dto.setStatus(text); break;
+                    case "timestamp": dto.setTimestamp(text); break;
+                    case "type": dto.setType(text); break;
+                    case "message": dto.setMessage(text); break;
+                    default: continue;
+                }
+                any = true;
+            }
+        } catch (IOException e) {
+            log.warn("报警消息{}格式错误 - VID: {}, 错误: {}", format, vid, e.getMessage());
+            if (!any) {
+                return null;
+            }
+        }
+        dto.setVid(vid);
+        return dto;
+    }
+
+    /**
+     * 判断载荷编码：主题后缀(device/{vid}/{type}/cbor或/json)优先，没有后缀时看首字节。
+     * CBOR的map/array首字节(0x80~0xBF)和自描述标签0xD9D9F7都不可能是JSON文本的首字节，
+     * 因此设备可以在原有主题上直接发送CBOR载荷
+     */
+    public static PayloadFormat detectFormat(String suffix, byte[] payload) {
+        if (suffix != null) {
+            if ("cbor".equalsIgnoreCase(suffix)) {
+                return PayloadFormat.CBOR;
+            }
+            if ("json".equalsIgnoreCase(suffix)) {
+                return PayloadFormat.JSON;
+            }
+        }
+        if (payload == null || payload.length == 0) {
+            return PayloadFormat.JSON;
+        }
+        int first = payload[0] & 0xFF;
+        if (first >= 0x80 && first <= 0xBF) {
+            return PayloadFormat.CBOR;
+        }
+        if (payload.length >= 3 && first == CBOR_MAGIC_0
+                && (payload[1] & 0xFF) == CBOR_MAGIC_1 && (payload[2] & 0xFF) == CBOR_MAGIC_2) {
+            return PayloadFormat.CBOR;
+        }
+        return PayloadFormat.JSON;
+    }
+
+    private JsonParser createParser(byte[] payload, PayloadFormat format) throws IOException {
+        if (format == PayloadFormat.CBOR) {
+            cborPayloads.increment();
+            // 自描述标签由CBOR解析器作为值的标签处理，不影响token流
+            return cborFactory.createParser(payload);
+        }
+        return jsonFactory.createParser(payload);
+    }
+
+    /**
+     * 获取解码统计：成功数、拒绝数、非法字段数、不完整消息数、CBOR载荷数
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("decoded", decoded.sum());
+        statistics.put("rejected", rejected.sum());
+        statistics.put("malformedFields", malformedFields.sum());
+        statistics.put("truncatedPayloads", truncatedPayloads.sum());
+        statistics.put("cborPayloads", cborPayloads.sum());
+        return statistics;
+    }
+
+    /**
+     * 读取浮点字段，支持数字和数字字符串
+     * @return 字段值，null或不合法时返回NaN
+     */
+    private double readDouble(JsonParser parser, JsonToken value, String vid, String field) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_FLOAT || value == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getDoubleValue();
+        }
+        if (value == JsonToken.VALUE_STRING) {
+            String text = parser.getText().trim();
+            try {
+                double parsed = Double.parseDouble(text);
+                if (!Double.isNaN(parsed)) {
+                    return parsed;
+                }
+            } catch (NumberFormatException ignored) {
+                // 下面统一计为非法字段
+            }
+            malformed(vid, field, text);
+            return Double.NaN;
+        }
+        skipValue(parser, value);
+        if (value != JsonToken.VALUE_NULL) {
+            malformed(vid, field, value.name());
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * 读取整数字段，支持整数、小数（截断）和数字字符串
+     * @return 字段值，null或不合法时返回MISSING
+     */
+    private long readInt(JsonParser parser, JsonToken value, String vid, String field) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT) {
+            if (parser.getNumberType() != JsonParser.NumberType.INT) {
+                malformed(vid, field, parser.getText());
+                return MISSING;
+            }
+            return parser.getIntValue();
+        }
+        if (value == JsonToken.VALUE_NUMBER_FLOAT) {
+            // 与原先convertToInteger一致，小数截断为整数
+            return (int) parser.getDoubleValue();
+        }
+        if (value == JsonToken.VALUE_STRING) {
+            String text = parser.getText().trim();
+            try {
+                return Integer.parseInt(text);
+            } catch (NumberFormatException e) {
+                malformed(vid, field, text);
+                return MISSING;
+            }
+        }
+        skipValue(parser, value);
+        if (value != JsonToken.VALUE_NULL) {
+            malformed(vid, field, value.name());
+        }
+        return MISSING;
+    }
+
+    private LocalDateTime readTimestamp(JsonParser parser, JsonToken value, String vid) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT) {
+            // 毫秒时间戳
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(parser.getLongValue()), ZoneId.systemDefault());
+        }
+        if (value != JsonToken.VALUE_STRING) {
+            skipValue(parser, value);
+            if (value != JsonToken.VALUE_NULL) {
+                malformed(vid, "timestamp", value.name());
+            }
+            return null;
+        }
+        // 常见的"yyyy-MM-dd HH:mm:ss"和"yyyy-MM-ddTHH:mm:ss"直接按位读取，不创建字符串
+        LocalDateTime fixed = parseFixedTimestamp(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        if (fixed != null) {
+            return fixed;
+        }
+        String text = parser.getText().trim();
+        try {
+            if (text.length() > 10 && text.charAt(10) == ' ') {
+                return LocalDateTime.parse(text, TIMESTAMP_FORMAT);
+            }
+            return LocalDateTime.parse(text);
+        } catch (DateTimeParseException e) {
+            malformed(vid, "timestamp", text);
+            return null;
+        }
+    }
+
+    /**
+     * 按固定位置解析19位时间戳，格式不符时返回null交给DateTimeFormatter处理
+     */
+    private static LocalDateTime parseFixedTimestamp(char[] chars, int offset, int length) {
+        if (length != 19
+                || chars[offset + 4] != '-' || chars[offset + 7] != '-'
+                || (chars[offset + 10] != ' ' && chars[offset + 10] != 'T')
+                || chars[offset + 13] != ':' || chars[offset + 16] != ':') {
+            return null;
+        }
+        int year = digits(chars, offset, 4);
+        int month = digits(chars, offset + 5, 2);
+        int day = digits(chars, offset + 8, 2);
+        int hour = digits(chars, offset + 11, 2);
+        int minute = digits(chars, offset + 14, 2);
+        int second = digits(chars, offset + 17, 2);
+        if ((year | month | day | hour | minute | second) < 0) {
+            return null;
+        }
+        try {
+            return LocalDateTime.of(year, month, day, hour, minute, second);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    private static int digits(char[] chars, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private void malformed(String vid, String field, String value) {
+        malformedFields.increment();
+        log.warn("字段值不合法，已忽略 - VID: {}, 字段: {}, 值: {}", vid, field, value);
+    }
+
+    private static void skipValue(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+            parser.skipChildren();
+        }
+    }
+
+    private static int statusRank(String field) {
+        switch (field) {
+            case "status": return STATUS_RANK_STATUS;
+            case "vstatus": return STATUS_RANK_VSTATUS;
+            case "vStatus":
+            case "VStatus": return STATUS_RANK_VSTATUS_UPPER;
+            default: return STATUS_RANK_NONE;
+        }
+    }
+}
@@ -56,6 +56,14 @@ public interface AlarmRepository extends JpaRepository<Alarm, Long> {
     @Query("SELECT COUNT(a) FROM Alarm a WHERE a.alarmLevel = :level AND a.status = :status")
     Long countByAlarmLevelAndStatus(String level, String status);
     
+    // 活动报警索引只需要的字段，每行为 [ID, 级别, 设备VID, 类型]，不加载报警实体
+    @Query("SELECT a.id, a.alarmLevel, a.vid, a.alarmType FROM Alarm a WHERE a.status = :status")
+    List<Object[]> findIndexByStatus(String status);
+    
+    // 按级别和状态分组统计，每行为 [级别, 状态, 数量]
+    @Query("SELECT a.alarmLevel, a.status, COUNT(a) FROM Alarm a GROUP BY a.alarmLevel, a.status")
+    List<Object[]> countGroupByAlarmLevelAndStatus();
+    
     // 按时间范围查询
     Page<Alarm> findByCreatedAtBetween(java.time.LocalDateTime start, java.time.LocalDateTime end, Pageable pageable);
     
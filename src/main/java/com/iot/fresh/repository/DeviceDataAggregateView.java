@@ -0,0 +1,28 @@
+package com.iot.fresh.repository;
+
+/**
+ * 按设备聚合的历史数据统计（投影）
+ * 温度、湿度取内外两个值的平均，只有一个值时取该值；计数用于多台设备合并时加权
+ */
+public interface DeviceDataAggregateView {
+
+    String getVid();
+
+    Long getRecordCount();
+
+    Long getTempCount();
+
+    Double getAvgTemp();
+
+    Double getMaxTemp();
+
+    Double getMinTemp();
+
+    Long getHumidityCount();
+
+    Double getAvgHumidity();
+
+    Long getLightCount();
+
+    Double getAvgLight();
+}
@@ -45,4 +45,108 @@ public interface DeviceDataHistoryRepository extends JpaRepository<DeviceDataHis
      * 根据时间范围分页查询所有设备的历史数据
      */
     Page<DeviceDataHistory> findByUpdatedAtBetween(LocalDateTime startTime, LocalDateTime endTime, Pageable pageable);
+
+    // 按数据类型过滤，:dataType为null时不过滤；取值见HistoryDataType
+    String DATA_TYPE_CONDITION = "(:dataType IS NULL " +
+            "OR (:dataType = 'temperature' AND (d.tin IS NOT NULL OR d.tout IS NOT NULL)) " +
+            "OR (:dataType = 'humidity' AND (d.hin IS NOT NULL OR d.hout IS NOT NULL)) " +
+            "OR (:dataType = 'light' AND (d.lxin IS NOT NULL OR d.lxout IS NOT NULL)) " +
+            "OR (:dataType = 'brightness' AND d.brightness IS NOT NULL) " +
+            "OR (:dataType = 'status' AND d.vstatus IS NOT NULL))";
+
+    String VID_RANGE_CONDITION = "d.vid = :vid AND d.updatedAt BETWEEN :startTime AND :endTime AND " + DATA_TYPE_CONDITION;
+
+    String RANGE_CONDITION = "d.updatedAt BETWEEN :startTime AND :endTime AND " + DATA_TYPE_CONDITION;
+
+    /**
+     * 按设备、时间范围和数据类型分页查询历史数据，总数按同样的条件COUNT
+     */
+    @Query(value = "SELECT d FROM DeviceDataHistory d WHERE " + VID_RANGE_CONDITION,
+           countQuery = "SELECT COUNT(d) FROM DeviceDataHistory d WHERE " + VID_RANGE_CONDITION)
+    Page<DeviceDataHistory> findByVidAndDataType(@Param("vid") String vid,
+                                                 @Param("startTime") LocalDateTime startTime,
+                                                 @Param("endTime") LocalDateTime endTime,
+                                                 @Param("dataType") String dataType,
+                                                 Pageable pageable);
+
+    /**
+     * 统计设备时间范围内指定数据类型的记录数
+     */
+    @Query("SELECT COUNT(d) FROM DeviceDataHistory d WHERE " + VID_RANGE_CONDITION)
+    long countByVidAndDataType(@Param("vid") String vid,
+                               @Param("startTime") LocalDateTime startTime,
+                               @Param("endTime") LocalDateTime endTime,
+                               @Param("dataType") String dataType);
+
+    /**
+     * 统计所有设备时间范围内指定数据类型的记录数
+     */
+    @Query("SELECT COUNT(d) FROM DeviceDataHistory d WHERE " + RANGE_CONDITION)
+    long countByDataType(@Param("startTime") LocalDateTime startTime,
+                         @Param("endTime") LocalDateTime endTime,
+                         @Param("dataType") String dataType);
+
+    /**
+     * 查找设备在指定时间之前符合数据类型的最后一条历史记录，pageable只用于限制条数
+     */
+    @Query("SELECT d FROM DeviceDataHistory d WHERE d.vid = :vid AND d.updatedAt < :time AND " + DATA_TYPE_CONDITION +
+           " ORDER BY d.updatedAt DESC, d.id DESC")
+    List<DeviceDataHistory> findLastBefore(@Param("vid") String vid,
+                                           @Param("time") LocalDateTime time,
+                                           @Param("dataType") String dataType,
+                                           Pageable pageable);
+
+    // 键集分页条件：取(updatedAt, id)排在游标之后的记录，按(updatedAt, id)降序，不使用OFFSET，也不COUNT总数
+    String SEEK_CONDITION = "d.updatedAt >= :startTime " +
+            "AND (d.updatedAt < :afterTime OR (d.updatedAt = :afterTime AND d.id < :afterId)) " +
+            "AND " + DATA_TYPE_CONDITION + " ORDER BY d.updatedAt DESC, d.id DESC";
+
+    /**
+     * 按游标查询设备的下一页历史数据，pageable只用于限制条数
+     */
+    @Query("SELECT d FROM DeviceDataHistory d WHERE d.vid = :vid AND " + SEEK_CONDITION)
+    List<DeviceDataHistory> findPageByVidBefore(@Param("vid") String vid,
+                                                @Param("startTime") LocalDateTime startTime,
+                                                @Param("afterTime") LocalDateTime afterTime,
+                                                @Param("afterId") Long afterId,
+                                                @Param("dataType") String dataType,
+                                                Pageable pageable);
+
+    /**
+     * 按游标查询所有设备的下一页历史数据，pageable只用于限制条数
+     */
+    @Query("SELECT d FROM DeviceDataHistory d WHERE " + SEEK_CONDITION)
+    List<DeviceDataHistory> findPageBefore(@Param("startTime") LocalDateTime startTime,
+                                           @Param("afterTime") LocalDateTime afterTime,
+                                           @Param("afterId") Long afterId,
+                                           @Param("dataType") String dataType,
+                                           Pageable pageable);
+
+    // 按设备聚合的查询列，与DeviceDataAggregateView的属性对应
+    String AGGREGATE_SELECT = "SELECT d.vid AS vid, COUNT(d) AS recordCount, " +
+            "COUNT(COALESCE(d.tin, d.tout)) AS tempCount, " +
+            "AVG((COALESCE(d.tin, d.tout) + COALESCE(d.tout, d.tin)) / 2.0) AS avgTemp, " +
+            "MAX(CASE WHEN d.tout IS NULL OR d.tin >= d.tout THEN COALESCE(d.tin, d.tout) ELSE d.tout END) AS maxTemp, " +
+            "MIN(CASE WHEN d.tout IS NULL OR d.tin <= d.tout THEN COALESCE(d.tin, d.tout) ELSE d.tout END) AS minTemp, " +
+            "COUNT(COALESCE(d.hin, d.hout)) AS humidityCount, " +
+            "AVG((COALESCE(d.hin, d.hout) + COALESCE(d.hout, d.hin)) / 2.0) AS avgHumidity, " +
+            "COUNT(d.lxin) AS lightCount, " +
+            "AVG(d.lxin) AS avgLight " +
+            "FROM DeviceDataHistory d ";
+
+    /**
+     * 按设备聚合时间范围内的历史数据，在数据库中一次完成，不加载明细记录
+     * 死区设备只记录变化的行，计数和平均值有偏差，仅在遥测汇总未启用时用于设备数据统计
+     */
+    @Query(AGGREGATE_SELECT + "WHERE d.updatedAt BETWEEN :startTime AND :endTime GROUP BY d.vid")
+    List<DeviceDataAggregateView> aggregateByVid(@Param("startTime") LocalDateTime startTime,
+                                                 @Param("endTime") LocalDateTime endTime);
+
+    /**
+     * 聚合单台设备时间范围内的历史数据
+     */
+    @Query(AGGREGATE_SELECT + "WHERE d.vid = :vid AND d.updatedAt BETWEEN :startTime AND :endTime GROUP BY d.vid")
+    List<DeviceDataAggregateView> aggregateByVid(@Param("vid") String vid,
+                                                 @Param("startTime") LocalDateTime startTime,
+                                                 @Param("endTime") LocalDateTime endTime);
 }
\ No newline at end of file
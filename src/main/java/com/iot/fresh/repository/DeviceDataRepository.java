@@ -9,6 +9,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -24,6 +25,11 @@ public interface DeviceDataRepository extends JpaRepository<DeviceData, Long> {
     
     DeviceData findTopByVidOrderByCreatedAtDesc(String vid);
     
+    // 多台设备各自最新的一行（按创建时间），一次查询代替逐台findTopByVidOrderByCreatedAtDesc
+    @Query("SELECT d FROM DeviceData d WHERE d.vid IN :vids AND d.createdAt = " +
+           "(SELECT MAX(d2.createdAt) FROM DeviceData d2 WHERE d2.vid = d.vid)")
+    List<DeviceData> findLatestByVidIn(@Param("vids") Collection<String> vids);
+    
     @Query("SELECT d FROM DeviceData d WHERE d.vid = :vid AND d.timestamp BETWEEN :startTime AND :endTime ORDER BY d.timestamp DESC")
     org.springframework.data.domain.Page<DeviceData> findByVidAndTimeRangeWithPagination(
             @Param("vid") String vid, 
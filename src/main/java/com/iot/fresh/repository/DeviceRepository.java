@@ -8,6 +8,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -19,6 +20,11 @@ public interface DeviceRepository extends JpaRepository<Device, Long> {
      */
     Optional<Device> findByVid(String vid);
     
+    /**
+     * 根据多个VID批量查找设备
+     */
+    List<Device> findByVidIn(Collection<String> vids);
+    
     /**
      * 检查设备VID是否存在
      */
@@ -34,6 +40,18 @@ public interface DeviceRepository extends JpaRepository<Device, Long> {
      */
     long countByStatus(Integer status);
     
+    /**
+     * 按状态分组统计设备数量，每行为 [状态, 数量]
+     */
+    @Query("SELECT d.status, COUNT(d) FROM Device d GROUP BY d.status")
+    List<Object[]> countGroupByStatus();
+    
+    /**
+     * 查询全部设备的ID和状态，每行为 [ID, 状态]，不加载设备实体
+     */
+    @Query("SELECT d.id, d.status FROM Device d")
+    List<Object[]> findIdAndStatus();
+    
     /**
      * 根据设备名称或VID模糊查询并分页
      */
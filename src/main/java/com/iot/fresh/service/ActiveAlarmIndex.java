@@ -0,0 +1,247 @@
+package com.iot.fresh.service;
+
+import com.iot.fresh.entity.Alarm;
+import com.iot.fresh.repository.AlarmRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 活动报警索引
+ * 在内存中保存所有状态为active的报警（只保存ID、级别、设备和类型），并按级别、设备、类型
+ * 维护计数，未处理报警数等统计O(1)读取，报警风暴时仪表盘刷新也不再加载报警实体。
+ * 启动时查询一次活动报警的ID和分类字段建立索引，之后由AlarmServiceImpl在报警新增和
+ * 状态变化时更新；以报警ID为键，重复通知不会重复计数。
+ * 定期重新加载时查询不持有锁，查询期间变化的报警按ID记录最新条目，在查询结果上重放，
+ * 持续有报警写入时也能与数据库校准。
+ * 写操作加锁（报警写入频率远低于读取），读取不加锁
+ */
+@Service
+public class ActiveAlarmIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ActiveAlarmIndex.class);
+
+    private static final String ACTIVE = "active";
+
+    @Autowired
+    private AlarmRepository alarmRepository;
+
+    @Value("${alarm.statistics.reconcile-interval:300000}")
+    private long reconcileIntervalMillis;
+
+    private final Map<Long, Entry> active = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> byLevel = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> byVid = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> byType = new ConcurrentHashMap<>();
+
+    // 重新加载期间变化的报警：ID -> 最新条目，不再活动时为null；不在加载时为null，由this加锁保护
+    private Map<Long, Entry> pendingChanges;
+
+    // 重新加载期间是否清除过全部报警，清除之前的查询结果作废
+    private boolean pendingCleared;
+
+    private Thread reconciler;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        reload();
+        running = true;
+        reconciler = new Thread(this::reconcileLoop, "active-alarm-reconciler");
+        reconciler.setDaemon(true);
+        reconciler.start();
+    }
+
+    /**
+     * 报警保存后更新索引：状态为active时加入，否则移除
+     */
+    public synchronized void onSaved(Alarm alarm) {
+        if (alarm == null || alarm.getId() == null) {
+            return;
+        }
+        Entry entry = ACTIVE.equals(alarm.getStatus())
+                ? new Entry(alarm.getAlarmLevel(), alarm.getVid(), alarm.getAlarmType())
+                : null;
+        remove(alarm.getId());
+        if (entry != null) {
+            add(alarm.getId(), entry);
+        }
+        if (pendingChanges != null) {
+            pendingChanges.put(alarm.getId(), entry);
+        }
+    }
+
+    /**
+     * 全部报警已清除
+     */
+    public synchronized void clear() {
+        reset();
+        if (pendingChanges != null) {
+            pendingChanges.clear();
+            pendingCleared = true;
+        }
+    }
+
+    private void reset() {
+        active.clear();
+        byLevel.clear();
+        byVid.clear();
+        byType.clear();
+    }
+
+    /**
+     * 重新查询活动报警建立索引，查询期间的变化在查询结果上重放
+     */
+    public void reload() {
+        synchronized (this) {
+            if (pendingChanges != null) {
+                // 已有重新加载在进行
+                return;
+            }
+            pendingChanges = new HashMap<>();
+            pendingCleared = false;
+        }
+        List<Object[]> rows;
+        try {
+            rows = alarmRepository.findIndexByStatus(ACTIVE);
+        } catch (Exception e) {
+            synchronized (this) {
+                pendingChanges = null;
+            }
+            log.error("加载活动报警索引失败: {}", e.getMessage(), e);
+            return;
+        }
+        synchronized (this) {
+            reset();
+            if (!pendingCleared) {
+                for (Object[] row : rows) {
+                    add((Long) row[0], new Entry((String) row[1], (String) row[2], (String) row[3]));
+                }
+            }
+            pendingChanges.forEach((id, entry) -> {
+                remove(id);
+                if (entry != null) {
+                    add(id, entry);
+                }
+            });
+            pendingChanges = null;
+        }
+        log.debug("活动报警索引已加载 - 活动报警: {}", active.size());
+    }
+
+    private void add(Long id, Entry entry) {
+        if (active.putIfAbsent(id, entry) == null) {
+            adjust(entry, 1);
+        }
+    }
+
+    private void remove(Long id) {
+        Entry entry = active.remove(id);
+        if (entry != null) {
+            adjust(entry, -1);
+        }
+    }
+
+    private void adjust(Entry entry, int delta) {
+        counter(byLevel, entry.level()).add(delta);
+        counter(byVid, entry.vid()).add(delta);
+        counter(byType, entry.type()).add(delta);
+    }
+
+    private static LongAdder counter(Map<String, LongAdder> counters, String key) {
+        return counters.computeIfAbsent(key != null ? key : "", k -> new LongAdder());
+    }
+
+    /**
+     * 活动报警总数
+     */
+    public long count() {
+        return active.size();
+    }
+
+    public long countByLevel(String level) {
+        return sum(byLevel, level);
+    }
+
+    public long countByVid(String vid) {
+        return sum(byVid, vid);
+    }
+
+    public long countByType(String type) {
+        return sum(byType, type);
+    }
+
+    /**
+     * 按级别统计的活动报警数
+     */
+    public Map<String, Long> getCountsByLevel() {
+        return snapshot(byLevel);
+    }
+
+    /**
+     * 按设备统计的活动报警数
+     */
+    public Map<String, Long> getCountsByVid() {
+        return snapshot(byVid);
+    }
+
+    /**
+     * 按类型统计的活动报警数
+     */
+    public Map<String, Long> getCountsByType() {
+        return snapshot(byType);
+    }
+
+    private static long sum(Map<String, LongAdder> counters, String key) {
+        LongAdder counter = counters.get(key != null ? key : "");
+        return counter != null ? counter.sum() : 0L;
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> counters) {
+        Map<String, Long> result = new HashMap<>();
+        counters.forEach((key, counter) -> {
+            long value = counter.sum();
+            if (value > 0) {
+                result.put(key, value);
+            }
+        });
+        return result;
+    }
+
+    private void reconcileLoop() {
+        while (running) {
+            try {
+                Thread.sleep(reconcileIntervalMillis);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+            reload();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (reconciler != null) {
+            reconciler.interrupt();
+        }
+    }
+
+    private record Entry(String level, String vid, String type) {
+    }
+}
@@ -3,6 +3,7 @@ package com.iot.fresh.service;
 import com.iot.fresh.entity.Alarm;
 import com.iot.fresh.websocket.WebSocketEndpoint;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.HashMap;
@@ -13,6 +14,9 @@ public class AlarmPushService {
     
     private final ObjectMapper objectMapper = new ObjectMapper();
     
+    @Autowired
+    private ActiveAlarmIndex activeAlarmIndex;
+    
     public void sendPriorityAlarm(Alarm alarm) {
         try {
             // 构建前端需要的消息格式
@@ -39,6 +43,10 @@ public class AlarmPushService {
             }
             data.put("status", status);
             
+            // 当前未处理报警数（全部和该设备），从活动报警索引读取
+            data.put("activeAlarms", activeAlarmIndex.count());
+            data.put("deviceActiveAlarms", activeAlarmIndex.countByVid(alarm.getVid()));
+            
             message.put("data", data);
             
             // 转换为JSON字符串并发送到所有WebSocket客户端
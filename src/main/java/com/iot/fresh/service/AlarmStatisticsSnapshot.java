@@ -0,0 +1,232 @@
+package com.iot.fresh.service;
+
+import com.iot.fresh.repository.AlarmRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * 报警统计快照
+ * 启动时以一条GROUP BY alarm_level, status查询加载各级别、各状态的报警数，之后在报警新增、
+ * 处理、关闭和清空时增量更新；统计接口和WebSocket请求直接读取快照，不再逐项COUNT。
+ * 后台线程定期重新查询一次，修正绕过AlarmService直接写库造成的偏差（集群模式下也是其他节点报警的来源）。
+ * 查询不持有锁，查询期间的增量更新会记录下来，在查询结果上按顺序重放后替换内存中的计数
+ */
+@Service
+public class AlarmStatisticsSnapshot {
+
+    private static final Logger log = LoggerFactory.getLogger(AlarmStatisticsSnapshot.class);
+
+    @Autowired
+    private AlarmRepository alarmRepository;
+
+    @Value("${alarm.statistics.reconcile-interval:300000}")
+    private long reconcileIntervalMillis;
+
+    // (级别, 状态) -> 报警数，由this加锁保护
+    private final Map<LevelStatus, Long> counts = new HashMap<>();
+
+    // 重新加载期间的增量更新，查询结果应用后按顺序重放；不在加载时为null，由this加锁保护
+    private List<Consumer<Map<LevelStatus, Long>>> pendingDeltas;
+
+    // 对外提供的统计结果，每次变化后重新生成
+    private volatile Map<String, Object> snapshot;
+
+    private Thread reconciler;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        reload();
+        running = true;
+        reconciler = new Thread(this::reconcileLoop, "alarm-statistics-reconciler");
+        reconciler.setDaemon(true);
+        reconciler.start();
+    }
+
+    /**
+     * 获取报警统计，字段与原getAlarmStatistics一致
+     */
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> current = snapshot;
+        if (current == null) {
+            // 启动时加载失败，读取时重试
+            reload();
+            current = snapshot;
+        }
+        return current != null ? current : build(Collections.emptyMap());
+    }
+
+    /**
+     * 新增一条报警
+     */
+    public synchronized void added(String level, String status) {
+        apply(target -> target.merge(new LevelStatus(level, status), 1L, Long::sum));
+    }
+
+    /**
+     * 报警状态变化
+     */
+    public synchronized void statusChanged(String level, String oldStatus, String newStatus) {
+        if (Objects.equals(oldStatus, newStatus)) {
+            return;
+        }
+        apply(target -> {
+            target.computeIfPresent(new LevelStatus(level, oldStatus), (k, count) -> count > 1 ? count - 1 : null);
+            target.merge(new LevelStatus(level, newStatus), 1L, Long::sum);
+        });
+    }
+
+    /**
+     * 全部报警已清除
+     */
+    public synchronized void cleared() {
+        apply(Map::clear);
+    }
+
+    /**
+     * 按级别和状态分组查询一次，重放查询期间的增量更新后替换内存中的计数
+     */
+    public void reload() {
+        synchronized (this) {
+            if (pendingDeltas != null) {
+                // 已有重新加载在进行
+                return;
+            }
+            pendingDeltas = new ArrayList<>();
+        }
+        List<Object[]> rows;
+        try {
+            rows = alarmRepository.countGroupByAlarmLevelAndStatus();
+        } catch (Exception e) {
+            synchronized (this) {
+                pendingDeltas = null;
+            }
+            log.error("加载报警统计失败: {}", e.getMessage(), e);
+            return;
+        }
+        synchronized (this) {
+            Map<LevelStatus, Long> loaded = new HashMap<>();
+            for (Object[] row : rows) {
+                loaded.put(new LevelStatus((String) row[0], (String) row[1]), ((Number) row[2]).longValue());
+            }
+            for (Consumer<Map<LevelStatus, Long>> delta : pendingDeltas) {
+                delta.accept(loaded);
+            }
+            pendingDeltas = null;
+            counts.clear();
+            counts.putAll(loaded);
+            snapshot = build(counts);
+        }
+    }
+
+    /**
+     * 在内存计数上应用一次增量更新，重新加载期间同时记录下来，调用方持有this锁
+     */
+    private void apply(Consumer<Map<LevelStatus, Long>> delta) {
+        delta.accept(counts);
+        if (pendingDeltas != null) {
+            pendingDeltas.add(delta);
+        }
+        snapshot = build(counts);
+    }
+
+    private void reconcileLoop() {
+        while (running) {
+            try {
+                Thread.sleep(reconcileIntervalMillis);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+            reload();
+        }
+    }
+
+    private static Map<String, Object> build(Map<LevelStatus, Long> counts) {
+        Map<String, Object> statistics = new HashMap<>();
+
+        // 总报警数
+        statistics.put("total", sum(counts, null, null));
+
+        // 按状态统计 (按照API规范使用pending, resolved, ignored，active状态对应pending)
+        statistics.put("pending", sum(counts, null, "active"));
+        statistics.put("resolved", sum(counts, null, "resolved"));
+        statistics.put("ignored", sum(counts, null, "ignored"));
+
+        // 按前端三个级别统计：紧急(critical和high)、重要(medium)、一般(low)
+        String[] urgent = { "critical", "high" };
+        String[] important = { "medium" };
+        String[] normal = { "low" };
+        statistics.put("urgent", sum(counts, urgent, null));
+        statistics.put("important", sum(counts, important, null));
+        statistics.put("normal", sum(counts, normal, null));
+
+        // 按前端级别和状态统计
+        statistics.put("urgentPending", sum(counts, urgent, "active"));
+        statistics.put("urgentResolved", sum(counts, urgent, "resolved"));
+        statistics.put("urgentIgnored", sum(counts, urgent, "ignored"));
+        statistics.put("importantPending", sum(counts, important, "active"));
+        statistics.put("importantResolved", sum(counts, important, "resolved"));
+        statistics.put("importantIgnored", sum(counts, important, "ignored"));
+        statistics.put("normalPending", sum(counts, normal, "active"));
+        statistics.put("normalResolved", sum(counts, normal, "resolved"));
+        statistics.put("normalIgnored", sum(counts, normal, "ignored"));
+
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    /**
+     * @param levels 为null时不限级别
+     * @param status 为null时不限状态
+     */
+    private static long sum(Map<LevelStatus, Long> counts, String[] levels, String status) {
+        long total = 0;
+        for (Map.Entry<LevelStatus, Long> entry : counts.entrySet()) {
+            LevelStatus key = entry.getKey();
+            if (status != null && !status.equals(key.status())) {
+                continue;
+            }
+            if (levels != null && !contains(levels, key.level())) {
+                continue;
+            }
+            total += entry.getValue();
+        }
+        return total;
+    }
+
+    private static boolean contains(String[] values, String value) {
+        for (String candidate : values) {
+            if (candidate.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (reconciler != null) {
+            reconciler.interrupt();
+        }
+    }
+
+    private record LevelStatus(String level, String status) {
+    }
+}
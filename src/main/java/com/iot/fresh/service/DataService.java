@@ -2,7 +2,9 @@ package com.iot.fresh.service;
 
 import com.iot.fresh.dto.DeviceDataDto;
 import com.iot.fresh.dto.ApiResponse;
+import com.iot.fresh.dto.TelemetryRecord;
 import com.iot.fresh.entity.DeviceData;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +25,15 @@ public interface DataService {
      */
     ApiResponse<DeviceDataDto> saveDeviceData(DeviceDataDto deviceDataDto);
     
+    /**
+     * 保存已解码的设备遥测记录
+     * MQTT与WebSocket上报的数据只解码一次，解码结果直接传入此方法
+     * 
+     * @param record 不可变的设备遥测记录
+     * @return ApiResponse<DeviceDataDto> 保存结果响应对象
+     */
+    ApiResponse<DeviceDataDto> saveTelemetry(TelemetryRecord record);
+    
     /**
      * 获取设备实时数据
      * 
@@ -51,6 +62,18 @@ public interface DataService {
      */
     ApiResponse<List<Map<String, Object>>> getLightDataByVid(String vid, LocalDateTime startTime, LocalDateTime endTime);
     
+    /**
+     * 获取设备某个指标的汇总序列，按时间范围和点数上限自动选择分钟/小时/天粒度
+     * 
+     * @param vid 设备唯一标识符
+     * @param metric 指标（tin, tout, hin, hout, lxin, lxout, brightness）
+     * @param startTime 开始时间
+     * @param endTime 结束时间
+     * @param maxPoints 最大点数，为空时使用默认值
+     * @return ApiResponse<Map<String, Object>> 包含粒度和序列的响应对象
+     */
+    ApiResponse<Map<String, Object>> getDeviceDataSeries(String vid, String metric, LocalDateTime startTime, LocalDateTime endTime, Integer maxPoints);
+    
     /**
      * 处理由MQTT接收的设备数据
      * 
@@ -68,13 +91,24 @@ public interface DataService {
     void updateDeviceStatus(String vid, Integer status);
     
     /**
-     * 获取设备最新数据
+     * 获取设备最新数据（以内存中的最新状态为准）
      * 
      * @param vid 设备唯一标识符
      * @return DeviceData 最新设备数据实体
      */
     DeviceData getLatestDeviceData(String vid);
     
+    /**
+     * 获取设备温度序列（tin、tout），数据来自汇总表，粒度按时间范围和点数上限自动选择
+     * 
+     * @param vid 设备唯一标识符
+     * @param startTime 开始时间（可选，默认24小时前）
+     * @param endTime 结束时间（可选，默认当前时间）
+     * @param maxPoints 最大点数（可选）
+     * @return ApiResponse<Map<String, Object>> 包含粒度和温度序列的响应对象
+     */
+    ApiResponse<Map<String, Object>> getTemperatureSeries(String vid, LocalDateTime startTime, LocalDateTime endTime, Integer maxPoints);
+    
     /**
      * 分页获取设备历史数据
      * 
@@ -88,6 +122,21 @@ public interface DataService {
     ApiResponse<com.iot.fresh.dto.PaginatedResponse<DeviceDataDto>> getDeviceHistoryDataWithPagination(
             String vid, String dataType, LocalDateTime startTime, LocalDateTime endTime, Integer pageNum, Integer pageSize);
     
+    /**
+     * 按游标分页获取设备历史数据，按时间降序
+     * 
+     * @param vid 设备唯一标识符
+     * @param dataType 数据类型（可选）
+     * @param startTime 开始时间
+     * @param endTime 结束时间
+     * @param cursor 上一页返回的nextCursor，第一页传空字符串
+     * @param pageSize 每页大小
+     * @param withTotal 是否返回估算总数
+     * @return ApiResponse<CursorPageResponse<DeviceDataDto>> 游标分页历史数据响应对象
+     */
+    ApiResponse<com.iot.fresh.dto.CursorPageResponse<DeviceDataDto>> getDeviceHistoryDataByCursor(
+            String vid, String dataType, LocalDateTime startTime, LocalDateTime endTime, String cursor, Integer pageSize, boolean withTotal);
+    
     /**
      * 获取设备数据统计信息
      * 
@@ -105,6 +154,14 @@ public interface DataService {
      */
     ApiResponse<Map<String, Object>> getDataStatistics();
     
+    /**
+     * 获取某一天的历史数据量，包括按小时和按设备的分布
+     * 
+     * @param date 日期
+     * @return ApiResponse<Map<String, Object>> 数据量响应对象
+     */
+    ApiResponse<Map<String, Object>> getDataVolume(LocalDate date);
+    
     /**
      * 保存仅包含状态信息的设备数据记录
      * 
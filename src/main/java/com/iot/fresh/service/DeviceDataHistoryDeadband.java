@@ -0,0 +1,194 @@
+package com.iot.fresh.service;
+
+import com.iot.fresh.entity.DeviceDataHistory;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 历史数据死区过滤
+ * 冷库等环境长时间处于稳定状态，每条读数都写一行会产生大量完全相同的历史记录。
+ * 启用后，只有某个指标相对上一条已写入的记录变化超过阈值、设备状态变化、
+ * 或距上一条记录超过最长静默间隔时才写入新行，历史表因此变成按变化点记录的阶梯序列，
+ * 查询时由DeviceDataHistoryService补上时间范围起点的取值。
+ * 可以按设备类型启用并覆盖各指标的阈值
+ */
+@Service
+public class DeviceDataHistoryDeadband {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceDataHistoryDeadband.class);
+
+    // 参与比较的指标，顺序与阈值数组一致
+    private static final String[] METRICS = { "tin", "tout", "hin", "hout", "lxin", "lxout", "brightness" };
+
+    @Value("${history.deadband.enabled:false}")
+    private boolean enabled;
+
+    @Value("${history.deadband.max-silence:300000}")
+    private long maxSilenceMillis;
+
+    // 默认阈值，格式: 指标=阈值,指标=阈值
+    @Value("${history.deadband.thresholds:tin=0.2,tout=0.5,hin=2,hout=2,lxin=20,lxout=200,brightness=1}")
+    private String thresholdConfig;
+
+    // 启用死区的设备类型及阈值覆盖，格式: 类型;类型:指标=阈值,指标=阈值，为空表示全部类型
+    @Value("${history.deadband.types:}")
+    private String typeConfig;
+
+    private double[] defaultThresholds;
+
+    private final Map<String, double[]> typeThresholds = new HashMap<>();
+
+    // 每台设备最近一条已写入的记录，作为比较基准
+    private final Map<String, DeviceDataHistory> baselines = new ConcurrentHashMap<>();
+
+    private final LongAdder evaluated = new LongAdder();
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        defaultThresholds = parseThresholds(thresholdConfig, new double[METRICS.length]);
+        if (typeConfig != null && !typeConfig.trim().isEmpty()) {
+            for (String item : typeConfig.split(";")) {
+                int colon = item.indexOf(':');
+                String type = (colon >= 0 ? item.substring(0, colon) : item).trim();
+                if (type.isEmpty()) {
+                    continue;
+                }
+                double[] thresholds = defaultThresholds.clone();
+                if (colon >= 0) {
+                    parseThresholds(item.substring(colon + 1), thresholds);
+                }
+                typeThresholds.put(type, thresholds);
+            }
+        }
+        if (enabled) {
+            log.info("历史数据死区过滤已启用 - 最长静默: {}ms, 默认阈值: {}, 设备类型: {}",
+                    maxSilenceMillis, thresholdConfig, typeThresholds.isEmpty() ? "全部" : typeThresholds.keySet());
+        }
+    }
+
+    /**
+     * 该设备类型的历史数据是否按死区记录
+     */
+    public boolean appliesTo(String deviceType) {
+        if (!enabled) {
+            return false;
+        }
+        return typeThresholds.isEmpty() || (deviceType != null && typeThresholds.containsKey(deviceType));
+    }
+
+    /**
+     * 判断一条历史记录是否需要写入，需要写入时同时把它作为该设备新的比较基准
+     *
+     * @return 需要写入返回true，变化在死区内返回false
+     */
+    public boolean shouldRecord(DeviceDataHistory row, String deviceType) {
+        if (!appliesTo(deviceType) || row.getVid() == null) {
+            return true;
+        }
+        evaluated.increment();
+        double[] thresholds = typeThresholds.getOrDefault(deviceType, defaultThresholds);
+        boolean[] keep = new boolean[1];
+        baselines.compute(row.getVid(), (vid, last) -> {
+            if (last == null || changed(last, row, thresholds)) {
+                keep[0] = true;
+                return row;
+            }
+            return last;
+        });
+        if (keep[0]) {
+            recorded.increment();
+        } else {
+            suppressed.increment();
+        }
+        return keep[0];
+    }
+
+    /**
+     * 不经过死区判断直接写入的记录（如状态变化），更新比较基准
+     */
+    public void recorded(DeviceDataHistory row) {
+        if (enabled && row.getVid() != null) {
+            baselines.put(row.getVid(), row);
+        }
+    }
+
+    private boolean changed(DeviceDataHistory last, DeviceDataHistory row, double[] thresholds) {
+        if (!Objects.equals(last.getVstatus(), row.getVstatus())) {
+            return true;
+        }
+        if (last.getUpdatedAt() == null || row.getUpdatedAt() == null
+                || !row.getUpdatedAt().isAfter(last.getUpdatedAt())
+                || Duration.between(last.getUpdatedAt(), row.getUpdatedAt()).toMillis() >= maxSilenceMillis) {
+            return true;
+        }
+        return exceeds(last.getTin(), row.getTin(), thresholds[0])
+                || exceeds(last.getTout(), row.getTout(), thresholds[1])
+                || exceeds(last.getHin(), row.getHin(), thresholds[2])
+                || exceeds(last.getHout(), row.getHout(), thresholds[3])
+                || exceeds(last.getLxin(), row.getLxin(), thresholds[4])
+                || exceeds(last.getLxout(), row.getLxout(), thresholds[5])
+                || exceeds(last.getBrightness(), row.getBrightness(), thresholds[6]);
+    }
+
+    /**
+     * 指标出现或消失都算变化；阈值为0时任何变化都会写入
+     */
+    private static boolean exceeds(Number last, Number current, double threshold) {
+        if (last == null || current == null) {
+            return last != current;
+        }
+        double delta = Math.abs(current.doubleValue() - last.doubleValue());
+        return threshold > 0 ? delta >= threshold : delta > 0;
+    }
+
+    private double[] parseThresholds(String config, double[] target) {
+        if (config == null || config.trim().isEmpty()) {
+            return target;
+        }
+        for (String item : config.split(",")) {
+            int eq = item.indexOf('=');
+            if (eq <= 0) {
+                continue;
+            }
+            int index = Arrays.asList(METRICS).indexOf(item.substring(0, eq).trim().toLowerCase());
+            if (index < 0) {
+                log.warn("忽略未知的死区指标: {}", item);
+                continue;
+            }
+            try {
+                target[index] = Double.parseDouble(item.substring(eq + 1).trim());
+            } catch (NumberFormatException e) {
+                log.warn("忽略无效的死区阈值配置: {}", item);
+            }
+        }
+        return target;
+    }
+
+    /**
+     * 获取死区过滤统计：参与判断的记录数、写入数和被过滤的数量
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("enabled", enabled);
+        statistics.put("devices", baselines.size());
+        statistics.put("evaluated", evaluated.sum());
+        statistics.put("recorded", recorded.sum());
+        statistics.put("suppressed", suppressed.sum());
+        long total = evaluated.sum();
+        statistics.put("suppressedRatio", total > 0 ? (double) suppressed.sum() / total : 0.0);
+        return statistics;
+    }
+}
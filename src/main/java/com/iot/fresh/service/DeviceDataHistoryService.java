@@ -1,16 +1,21 @@
 package com.iot.fresh.service;
 
-import com.iot.fresh.dto.DeviceDataDto;
+import com.iot.fresh.dto.CursorPageResponse;
+import com.iot.fresh.dto.TelemetryRecord;
+import com.iot.fresh.entity.Device;
 import com.iot.fresh.entity.DeviceDataHistory;
 import com.iot.fresh.repository.DeviceDataHistoryRepository;
-import com.iot.fresh.repository.DeviceRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -25,47 +30,52 @@ public class DeviceDataHistoryService {
     private DeviceDataHistoryRepository deviceDataHistoryRepository;
     
     @Autowired
-    private DeviceRepository deviceRepository;
+    private DeviceRegistry deviceRegistry;
+    
+    @Autowired
+    private DeviceDataHistoryWriter deviceDataHistoryWriter;
+    
+    @Autowired
+    private DeviceDataHistoryDeadband deviceDataHistoryDeadband;
+    
+    @Autowired
+    private DeviceDataRollupService deviceDataRollupService;
+    
+    @Autowired
+    private DeviceDataVolumeCounter deviceDataVolumeCounter;
     
     /**
      * 处理数据主题的历史数据插入
-     * 每次都要创建新记录，状态和设备表保持一致
+     * 每次都要创建新记录，状态和设备表保持一致（启用死区过滤的设备类型只在数值变化超过阈值时写入）
+     * 记录交给批量写入器异步落库，直接复用已解码的遥测记录
      */
-    @Transactional
-    public void saveDeviceDataHistory(DeviceDataDto deviceDataDto) {
+    public void saveDeviceDataHistory(TelemetryRecord record) {
         try {
-            System.out.println("=== Starting device data history save ===");
-            System.out.println("DeviceDataDto - VID: " + deviceDataDto.getVid() + ", Tin: " + deviceDataDto.getTin());
-            
             // 获取设备表的状态作为默认值
-            Integer deviceStatus = getDeviceStatusFromDeviceTable(deviceDataDto.getVid());
-            System.out.println("Device table status: " + deviceStatus);
+            Device device = findDevice(record.getVid());
+            Integer deviceStatus = getDeviceStatusFromDeviceTable(record.getVid(), device);
             
             // 创建历史数据记录
             DeviceDataHistory history = new DeviceDataHistory();
-            history.setVid(deviceDataDto.getVid());
-            history.setTin(deviceDataDto.getTin());
-            history.setTout(deviceDataDto.getTout());
-            history.setHin(deviceDataDto.getHin());
-            history.setHout(deviceDataDto.getHout());
-            history.setLxin(deviceDataDto.getLxin());
-            history.setLxout(deviceDataDto.getLxout());
-            history.setBrightness(deviceDataDto.getBrightness());
+            history.setVid(record.getVid());
+            history.setTin(record.getTin());
+            history.setTout(record.getTout());
+            history.setHin(record.getHin());
+            history.setHout(record.getHout());
+            history.setLxin(record.getLxin());
+            history.setLxout(record.getLxout());
+            history.setBrightness(record.getBrightness());
             history.setVstatus(deviceStatus); // 状态和设备表保持一致
             history.setUpdatedAt(LocalDateTime.now()); // 当前时间
             
-            // 保存历史数据
-            DeviceDataHistory savedHistory = deviceDataHistoryRepository.save(history);
-            
-            System.out.println("Saved device data history - ID: " + savedHistory.getId() + ", VID: " + savedHistory.getVid());
-            System.out.println("History data - Tin: " + savedHistory.getTin() + ", VStatus: " + savedHistory.getVstatus());
-            System.out.println("History updated_at: " + savedHistory.getUpdatedAt());
-            
-            // 强制刷新到数据库
-            deviceDataHistoryRepository.flush();
-            System.out.println("Flushed device data history to database");
+            // 汇总使用每一条读数，不受死区过滤影响
+            deviceDataRollupService.accept(history);
+            if (!deviceDataHistoryDeadband.shouldRecord(history, deviceTypeOf(device))) {
+                return;
+            }
             
-            System.out.println("=== Device data history save COMPLETED ===");
+            deviceDataHistoryWriter.enqueue(history);
+            System.out.println("Queued device data history - VID: " + history.getVid() + ", Tin: " + history.getTin() + ", VStatus: " + history.getVstatus());
             
         } catch (Exception e) {
             System.err.println("ERROR saving device data history: " + e.getMessage());
@@ -73,27 +83,65 @@ public class DeviceDataHistoryService {
         }
     }
     
+    /**
+     * 处理批量主题的历史数据插入
+     * 每条读数一条历史记录，时间取读数自身的时间戳，整批以一次多行INSERT写入
+     */
+    public void saveDeviceDataHistoryBatch(List<TelemetryRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        try {
+            // 同一批读数属于同一设备，只查一次设备状态
+            Device device = findDevice(records.get(0).getVid());
+            Integer deviceStatus = getDeviceStatusFromDeviceTable(records.get(0).getVid(), device);
+            String deviceType = deviceTypeOf(device);
+            List<DeviceDataHistory> rows = new ArrayList<>(records.size());
+            for (TelemetryRecord record : records) {
+                DeviceDataHistory history = new DeviceDataHistory();
+                history.setVid(record.getVid());
+                history.setTin(record.getTin());
+                history.setTout(record.getTout());
+                history.setHin(record.getHin());
+                history.setHout(record.getHout());
+                history.setLxin(record.getLxin());
+                history.setLxout(record.getLxout());
+                history.setBrightness(record.getBrightness());
+                history.setVstatus(deviceStatus);
+                history.setUpdatedAt(record.getTimestamp() != null ? record.getTimestamp() : LocalDateTime.now());
+                deviceDataRollupService.accept(history);
+                // 读数已按时间排序，死区按时间顺序逐条判断
+                if (deviceDataHistoryDeadband.shouldRecord(history, deviceType)) {
+                    rows.add(history);
+                }
+            }
+            deviceDataHistoryWriter.writeAll(rows);
+            System.out.println("Saved device data history batch - VID: " + records.get(0).getVid() + ", rows: " + rows.size());
+        } catch (Exception e) {
+            System.err.println("ERROR saving device data history batch: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
     /**
      * 处理状态主题的历史数据插入
      * 创建新记录，数据和上一条保持一致，状态更改
+     * 上一条记录优先取写入器中尚未落库的最新记录
      */
-    @Transactional
     public void saveStatusHistory(String vid, Integer newStatus) {
         try {
-            System.out.println("=== Starting status history save ===");
-            System.out.println("Status history - VID: " + vid + ", new status: " + newStatus);
-            
-            // 查找最新的历史数据记录
-            Optional<DeviceDataHistory> latestHistoryOpt = deviceDataHistoryRepository.findTopByVidOrderByUpdatedAtDesc(vid);
+            DeviceDataHistory latestHistory = deviceDataHistoryWriter.getLastRow(vid);
+            if (latestHistory == null) {
+                latestHistory = deviceDataHistoryRepository.findTopByVidOrderByUpdatedAtDesc(vid).orElse(null);
+            }
             
             DeviceDataHistory history = new DeviceDataHistory();
             history.setVid(vid);
             history.setVstatus(newStatus); // 使用新的状态
             history.setUpdatedAt(LocalDateTime.now()); // 当前时间
             
-            if (latestHistoryOpt.isPresent()) {
+            if (latestHistory != null) {
                 // 有历史记录，数据和上一条保持一致
-                DeviceDataHistory latestHistory = latestHistoryOpt.get();
                 history.setTin(latestHistory.getTin());
                 history.setTout(latestHistory.getTout());
                 history.setHin(latestHistory.getHin());
@@ -102,25 +150,15 @@ public class DeviceDataHistoryService {
                 history.setLxout(latestHistory.getLxout());
                 history.setBrightness(latestHistory.getBrightness());
                 
-                System.out.println("Using previous data - Tin: " + latestHistory.getTin() + ", Tout: " + latestHistory.getTout());
-                System.out.println("Status changed from " + latestHistory.getVstatus() + " to " + newStatus);
+                System.out.println("Status history - VID: " + vid + ", status changed from " + latestHistory.getVstatus() + " to " + newStatus);
             } else {
-                // 没有历史记录，使用默认值
-                System.out.println("No previous history found, using default values");
-                // 传感器数据可以为null，状态已经设置
+                // 没有历史记录，传感器数据为null，状态已经设置
+                System.out.println("Status history - VID: " + vid + ", no previous history, status: " + newStatus);
             }
             
-            // 保存历史数据
-            DeviceDataHistory savedHistory = deviceDataHistoryRepository.save(history);
-            
-            System.out.println("Saved status history - ID: " + savedHistory.getId() + ", VID: " + savedHistory.getVid());
-            System.out.println("Status history - VStatus: " + savedHistory.getVstatus() + ", updated_at: " + savedHistory.getUpdatedAt());
-            
-            // 强制刷新到数据库
-            deviceDataHistoryRepository.flush();
-            System.out.println("Flushed status history to database");
-            
-            System.out.println("=== Status history save COMPLETED ===");
+            deviceDataHistoryWriter.enqueue(history);
+            // 状态记录总是写入，同时作为死区过滤新的比较基准
+            deviceDataHistoryDeadband.recorded(history);
             
         } catch (Exception e) {
             System.err.println("ERROR saving status history: " + e.getMessage());
@@ -129,37 +167,60 @@ public class DeviceDataHistoryService {
     }
     
     /**
-     * 从设备表获取对应设备的状态
+     * 从设备表获取对应设备，查询失败时返回null
      */
-    private Integer getDeviceStatusFromDeviceTable(String vid) {
+    private Device findDevice(String vid) {
         try {
-            Optional<com.iot.fresh.entity.Device> deviceOpt = deviceRepository.findByVid(vid);
-            if (deviceOpt.isPresent()) {
-                com.iot.fresh.entity.Device device = deviceOpt.get();
-                Integer status = device.getStatus();
-                System.out.println("Found device in devices table - VID: " + vid + ", status: " + status);
-                return status;
-            } else {
-                System.out.println("Device not found in devices table for VID: " + vid + ", using default status: 1");
-                return 1; // 默认在线状态
-            }
+            Optional<Device> deviceOpt = deviceRegistry.findByVid(vid);
+            return deviceOpt.orElse(null);
         } catch (Exception e) {
             System.err.println("Error getting device status from device table: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 从设备表获取对应设备的状态
+     */
+    private Integer getDeviceStatusFromDeviceTable(String vid, Device device) {
+        if (device != null) {
+            Integer status = device.getStatus();
+            System.out.println("Found device in devices table - VID: " + vid + ", status: " + status);
+            return status;
+        } else {
+            System.out.println("Device not found in devices table for VID: " + vid + ", using default status: 1");
             return 1; // 默认在线状态
         }
     }
     
+    private static String deviceTypeOf(Device device) {
+        return device != null ? device.getDeviceType() : null;
+    }
+    
     /**
      * 根据设备ID和时间范围分页查询历史数据
      */
     public Page<DeviceDataHistory> getHistoryDataByVidAndTimeRange(String vid, LocalDateTime startTime, LocalDateTime endTime, Pageable pageable) {
+        return getHistoryDataByVidAndTimeRange(vid, startTime, endTime, null, pageable);
+    }
+    
+    /**
+     * 根据设备ID、时间范围和数据类型分页查询历史数据，数据类型在数据库中过滤，每页都是满的，总数为过滤后的记录数
+     *
+     * @param dataType 为null时不过滤
+     */
+    public Page<DeviceDataHistory> getHistoryDataByVidAndTimeRange(String vid, LocalDateTime startTime, LocalDateTime endTime,
+                                                                   HistoryDataType dataType, Pageable pageable) {
         try {
-            System.out.println("Querying history data by VID and time range - VID: " + vid + ", Start: " + startTime + ", End: " + endTime);
+            System.out.println("Querying history data by VID and time range - VID: " + vid + ", Start: " + startTime + ", End: " + endTime
+                    + ", DataType: " + dataType);
             
-            Page<DeviceDataHistory> result = deviceDataHistoryRepository.findByVidAndUpdatedAtBetween(vid, startTime, endTime, pageable);
+            Page<DeviceDataHistory> result = dataType == null
+                    ? deviceDataHistoryRepository.findByVidAndUpdatedAtBetween(vid, startTime, endTime, pageable)
+                    : deviceDataHistoryRepository.findByVidAndDataType(vid, startTime, endTime, dataType.key(), pageable);
             
             System.out.println("Found " + result.getTotalElements() + " history records for VID: " + vid);
-            return result;
+            return withStartValue(vid, startTime, dataType, result, pageable);
             
         } catch (Exception e) {
             System.err.println("Error querying history data by VID and time range: " + e.getMessage());
@@ -168,6 +229,129 @@ public class DeviceDataHistoryService {
         }
     }
     
+    /**
+     * 死区记录的设备只在变化时写入，时间范围起点的取值是范围之前的最后一条记录。
+     * 把这条记录以起点时间补到序列中时间最早的一端（升序时第一页开头，降序时最后一页末尾），
+     * 调用方按阶梯序列处理即可得到完整曲线。补充的记录id为null，不计入总数
+     */
+    private Page<DeviceDataHistory> withStartValue(String vid, LocalDateTime startTime, HistoryDataType dataType,
+                                                   Page<DeviceDataHistory> page, Pageable pageable) {
+        try {
+            if (!deviceDataHistoryDeadband.appliesTo(deviceTypeOf(findDevice(vid)))) {
+                return page;
+            }
+            Sort.Order order = pageable.getSort().getOrderFor("updatedAt");
+            boolean descending = order != null && order.isDescending();
+            // 越过最后一页的空页isLast()也为true，不补充；没有任何记录时只在第一页补充
+            boolean oldestPage = descending
+                    ? page.isLast() && page.getNumber() < Math.max(1, page.getTotalPages())
+                    : page.isFirst();
+            if (!oldestPage) {
+                return page;
+            }
+            List<DeviceDataHistory> content = page.getContent();
+            DeviceDataHistory oldest = content.isEmpty() ? null : content.get(descending ? content.size() - 1 : 0);
+            DeviceDataHistory start = startValue(vid, startTime, dataType, oldest);
+            if (start == null) {
+                return page;
+            }
+            List<DeviceDataHistory> merged = new ArrayList<>(content.size() + 1);
+            if (descending) {
+                merged.addAll(content);
+                merged.add(start);
+            } else {
+                merged.add(start);
+                merged.addAll(content);
+            }
+            return new PageImpl<>(merged, pageable, page.getTotalElements());
+        } catch (Exception e) {
+            System.err.println("Error reconstructing start value for VID: " + vid + ", " + e.getMessage());
+            return page;
+        }
+    }
+    
+    /**
+     * 时间范围起点的取值：范围之前符合数据类型的最后一条记录，以起点时间返回；
+     * 起点恰好有记录或之前没有记录时返回null
+     */
+    private DeviceDataHistory startValue(String vid, LocalDateTime startTime, HistoryDataType dataType, DeviceDataHistory oldest) {
+        if (oldest != null && startTime.equals(oldest.getUpdatedAt())) {
+            return null;
+        }
+        // 与分页查询使用相同的数据类型条件，取起点之前最后一条同类型的记录
+        List<DeviceDataHistory> before = deviceDataHistoryRepository.findLastBefore(
+                vid, startTime, HistoryDataType.keyOf(dataType), PageRequest.of(0, 1));
+        if (before.isEmpty()) {
+            return null;
+        }
+        DeviceDataHistory last = before.get(0);
+        return new DeviceDataHistory(vid, last.getTin(), last.getTout(), last.getHin(), last.getHout(),
+                last.getLxin(), last.getLxout(), last.getBrightness(), last.getVstatus(), startTime);
+    }
+    
+    /**
+     * 按游标分页查询历史数据，按(updatedAt, id)降序
+     * 每页按索引从上一页最后一条记录继续读取pageSize + 1条，深翻页的代价与第一页相同，也不COUNT总数；
+     * 多读的一条只用来判断是否还有下一页。死区设备在最后一页末尾补充起点取值，与页码分页一致
+     *
+     * @param vid 为null时查询所有设备
+     * @param dataType 为null时不过滤，在数据库中过滤
+     * @param cursor 上一页返回的nextCursor，为空时从endTime开始
+     * @param withTotal 是否返回总数；不过滤时按小时计数估算，按数据类型过滤时COUNT准确值
+     * @throws IllegalArgumentException 游标格式不正确或pageSize不大于0
+     */
+    public CursorPageResponse<DeviceDataHistory> getHistoryDataByCursor(String vid, HistoryDataType dataType, LocalDateTime startTime,
+                                                                        LocalDateTime endTime, String cursor, int pageSize, boolean withTotal) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("页面大小必须大于0");
+        }
+        HistoryCursor after = cursor == null || cursor.isEmpty() ? null : HistoryCursor.decode(cursor);
+        if (after != null && after.updatedAt().isAfter(endTime)) {
+            // 换了时间范围的旧游标，从范围终点开始
+            after = null;
+        }
+        LocalDateTime afterTime = after != null ? after.updatedAt() : endTime;
+        long afterId = after != null ? after.id() : Long.MAX_VALUE;
+        Pageable limit = PageRequest.of(0, pageSize + 1);
+        List<DeviceDataHistory> rows = vid != null
+                ? deviceDataHistoryRepository.findPageByVidBefore(vid, startTime, afterTime, afterId, HistoryDataType.keyOf(dataType), limit)
+                : deviceDataHistoryRepository.findPageBefore(startTime, afterTime, afterId, HistoryDataType.keyOf(dataType), limit);
+        
+        boolean hasMore = rows.size() > pageSize;
+        List<DeviceDataHistory> content = new ArrayList<>(hasMore ? rows.subList(0, pageSize) : rows);
+        String nextCursor = hasMore ? HistoryCursor.of(content.get(content.size() - 1)).encode() : null;
+        if (!hasMore && vid != null) {
+            appendStartValue(vid, startTime, dataType, content);
+        }
+        
+        CursorPageResponse<DeviceDataHistory> page = new CursorPageResponse<>(content, nextCursor, pageSize);
+        if (withTotal && dataType == null) {
+            // 数据量计数按设备和小时分桶，范围两端所在的整小时计入，因此是估算值
+            page.setTotal(deviceDataVolumeCounter.countBetween(vid, startTime, endTime));
+            page.setTotalApproximate(true);
+        } else if (withTotal) {
+            // 数据量计数不区分数据类型，按类型过滤时从历史表COUNT
+            page.setTotal(vid != null
+                    ? deviceDataHistoryRepository.countByVidAndDataType(vid, startTime, endTime, dataType.key())
+                    : deviceDataHistoryRepository.countByDataType(startTime, endTime, dataType.key()));
+        }
+        return page;
+    }
+    
+    private void appendStartValue(String vid, LocalDateTime startTime, HistoryDataType dataType, List<DeviceDataHistory> content) {
+        try {
+            if (!deviceDataHistoryDeadband.appliesTo(deviceTypeOf(findDevice(vid)))) {
+                return;
+            }
+            DeviceDataHistory start = startValue(vid, startTime, dataType, content.isEmpty() ? null : content.get(content.size() - 1));
+            if (start != null) {
+                content.add(start);
+            }
+        } catch (Exception e) {
+            System.err.println("Error reconstructing start value for VID: " + vid + ", " + e.getMessage());
+        }
+    }
+    
     /**
      * 根据时间范围分页查询所有设备的历史数据
      */
@@ -0,0 +1,480 @@
+package com.iot.fresh.service;
+
+import com.iot.fresh.entity.DeviceDataHistory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * 历史数据本地落盘队列（spool）
+ * 数据库不可用时，历史写入器把写不进去的记录追加到本地磁盘上的内存映射分段日志中，
+ * 数据库恢复后由写入器按顺序重放。日志只追加，按固定大小滚动分段；每条记录带CRC32校验，
+ * 重启时逐条校验找回写入位置，残缺的尾部记录被丢弃；已重放的位置记录在checkpoint文件中，
+ * 全部重放完的分段直接删除
+ *
+ * 记录格式: [长度int][CRC32 int][内容]，长度为0表示分段结束
+ */
+@Service
+public class DeviceDataHistorySpool {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceDataHistorySpool.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int HEADER_SIZE = 8;
+
+    // 内容中可空字段的标记位
+    private static final int HAS_TIN = 1;
+    private static final int HAS_TOUT = 1 << 1;
+    private static final int HAS_HIN = 1 << 2;
+    private static final int HAS_HOUT = 1 << 3;
+    private static final int HAS_LXIN = 1 << 4;
+    private static final int HAS_LXOUT = 1 << 5;
+    private static final int HAS_BRIGHTNESS = 1 << 6;
+    private static final int HAS_VSTATUS = 1 << 7;
+    private static final int HAS_UPDATED_AT = 1 << 8;
+
+    @Value("${history.spool.enabled:true}")
+    private boolean enabled;
+
+    @Value("${history.spool.dir:./data/spool}")
+    private String directory;
+
+    @Value("${history.spool.segment-size:16777216}")
+    private int segmentSize;
+
+    @Value("${history.spool.max-segments:64}")
+    private int maxSegments;
+
+    private Path dir;
+
+    // 按序号排列的分段，最后一个为当前写入分段
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+
+    // 重放位置：第一个分段内的偏移
+    private int readPos;
+
+    // peek读到的位置，commit后成为新的重放位置
+    private Segment peekSegment;
+    private int peekPos;
+    private int peekCount;
+
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer scratch = ByteBuffer.allocate(256);
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder corrupted = new LongAdder();
+    private final LongAdder rotations = new LongAdder();
+
+    @PostConstruct
+    public synchronized void open() {
+        if (!enabled) {
+            log.info("历史数据落盘队列未启用");
+            return;
+        }
+        try {
+            dir = Paths.get(directory).toAbsolutePath();
+            Files.createDirectories(dir);
+            long[] checkpoint = readCheckpoint();
+            List<Long> sequences = listSegments();
+            for (long seq : sequences) {
+                if (seq < checkpoint[0]) {
+                    // checkpoint之前的分段已全部重放
+                    Files.deleteIfExists(segmentPath(seq));
+                    continue;
+                }
+                segments.addLast(recover(seq));
+            }
+            if (!segments.isEmpty() && segments.peekFirst().seq == checkpoint[0]) {
+                readPos = (int) Math.min(checkpoint[1], segments.peekFirst().writePos);
+            }
+            if (segments.isEmpty()) {
+                segments.addLast(mapSegment(Math.max(checkpoint[0], 1)));
+            }
+            log.info("历史数据落盘队列已打开 - 目录: {}, 分段数: {}, 待重放: {}", dir, segments.size(), hasPending());
+        } catch (IOException e) {
+            // 无法打开本地目录时退化为不落盘，写入失败的记录只记录日志
+            enabled = false;
+            closeSegments();
+            log.error("打开历史数据落盘队列失败，数据库故障期间的历史数据将无法保留 - 目录: {}, 错误: {}", directory, e.getMessage(), e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 追加一批记录，只写入内存映射区域，不等待刷盘
+     *
+     * @return 是否全部写入，磁盘分段数达到上限或已关闭时返回false
+     */
+    public synchronized boolean append(List<DeviceDataHistory> rows) {
+        if (!enabled || segments.isEmpty()) {
+            dropped.add(rows.size());
+            return false;
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            if (!appendOne(rows.get(i))) {
+                appended.add(i);
+                dropped.add(rows.size() - i);
+                log.error("历史数据落盘队列已满，丢弃 {} 条记录 - 分段数: {}", rows.size() - i, segments.size());
+                return false;
+            }
+        }
+        appended.add(rows.size());
+        return true;
+    }
+
+    private boolean appendOne(DeviceDataHistory row) {
+        ByteBuffer payload = encode(row);
+        int length = payload.remaining();
+        Segment active = segments.peekLast();
+        if (active.writePos + HEADER_SIZE + length > segmentSize) {
+            if (segments.size() >= maxSegments) {
+                return false;
+            }
+            active = rotate(active);
+            if (active == null) {
+                return false;
+            }
+        }
+        crc.reset();
+        crc.update(payload.duplicate());
+        MappedByteBuffer buffer = active.buffer;
+        int pos = active.writePos;
+        // 长度最后写入，读取方以长度为0判断结束；页面刷盘顺序不确定时由CRC识别残缺记录
+        buffer.putInt(pos + 4, (int) crc.getValue());
+        buffer.put(pos + HEADER_SIZE, payload, 0, length);
+        buffer.putInt(pos, length);
+        active.writePos = pos + HEADER_SIZE + length;
+        return true;
+    }
+
+    private Segment rotate(Segment active) {
+        try {
+            active.buffer.force();
+            Segment next = mapSegment(active.seq + 1);
+            segments.addLast(next);
+            rotations.increment();
+            return next;
+        } catch (IOException e) {
+            log.error("创建历史数据落盘分段失败: {}", e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 是否还有未重放的记录
+     */
+    public synchronized boolean hasPending() {
+        if (!enabled || segments.isEmpty()) {
+            return false;
+        }
+        return segments.size() > 1 || readPos < segments.peekFirst().writePos;
+    }
+
+    /**
+     * 从重放位置读取最多max条记录，不移动重放位置，写入数据库成功后调用commit
+     */
+    public synchronized List<DeviceDataHistory> peek(int max) {
+        List<DeviceDataHistory> rows = new ArrayList<>();
+        peekSegment = null;
+        peekCount = 0;
+        if (!enabled) {
+            return rows;
+        }
+        Iterator<Segment> iterator = segments.iterator();
+        int pos = readPos;
+        while (iterator.hasNext() && rows.size() < max) {
+            Segment segment = iterator.next();
+            while (rows.size() < max && pos < segment.writePos) {
+                int length = segment.buffer.getInt(pos);
+                ByteBuffer payload = segment.buffer.duplicate();
+                payload.position(pos + HEADER_SIZE).limit(pos + HEADER_SIZE + length);
+                rows.add(decode(payload.slice()));
+                pos += HEADER_SIZE + length;
+            }
+            peekSegment = segment;
+            peekPos = pos;
+            if (pos < segment.writePos) {
+                break;
+            }
+            pos = 0;
+        }
+        peekCount = rows.size();
+        return rows;
+    }
+
+    /**
+     * 确认上一次peek读到的记录已写入数据库：移动重放位置、删除已重放完的分段并保存checkpoint
+     */
+    public synchronized void commit() {
+        if (peekSegment == null) {
+            return;
+        }
+        while (segments.peekFirst() != peekSegment) {
+            deleteSegment(segments.pollFirst());
+        }
+        readPos = peekPos;
+        if (readPos >= peekSegment.writePos && segments.size() > 1) {
+            deleteSegment(segments.pollFirst());
+            readPos = 0;
+        }
+        replayed.add(peekCount);
+        peekSegment = null;
+        peekCount = 0;
+        try {
+            writeCheckpoint(segments.peekFirst().seq, readPos);
+        } catch (IOException e) {
+            // checkpoint写入失败只会导致重启后重复重放部分记录
+            log.warn("保存历史数据落盘队列checkpoint失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 把当前写入分段刷到磁盘
+     */
+    public synchronized void sync() {
+        if (enabled && !segments.isEmpty()) {
+            segments.peekLast().buffer.force();
+        }
+    }
+
+    private ByteBuffer encode(DeviceDataHistory row) {
+        byte[] vid = row.getVid() != null ? row.getVid().getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int size = 2 + 2 + vid.length + 8 * 2 + 4 * 6 + 12;
+        if (scratch.capacity() < size) {
+            scratch = ByteBuffer.allocate(size);
+        }
+        ByteBuffer buffer = scratch;
+        buffer.clear();
+        int flags = 0;
+        if (row.getTin() != null) flags |= HAS_TIN;
+        if (row.getTout() != null) flags |= HAS_TOUT;
+        if (row.getHin() != null) flags |= HAS_HIN;
+        if (row.getHout() != null) flags |= HAS_HOUT;
+        if (row.getLxin() != null) flags |= HAS_LXIN;
+        if (row.getLxout() != null) flags |= HAS_LXOUT;
+        if (row.getBrightness() != null) flags |= HAS_BRIGHTNESS;
+        if (row.getVstatus() != null) flags |= HAS_VSTATUS;
+        if (row.getUpdatedAt() != null) flags |= HAS_UPDATED_AT;
+        buffer.putShort((short) flags);
+        buffer.putShort((short) vid.length);
+        buffer.put(vid);
+        if (row.getTin() != null) buffer.putDouble(row.getTin());
+        if (row.getTout() != null) buffer.putDouble(row.getTout());
+        if (row.getHin() != null) buffer.putInt(row.getHin());
+        if (row.getHout() != null) buffer.putInt(row.getHout());
+        if (row.getLxin() != null) buffer.putInt(row.getLxin());
+        if (row.getLxout() != null) buffer.putInt(row.getLxout());
+        if (row.getBrightness() != null) buffer.putInt(row.getBrightness());
+        if (row.getVstatus() != null) buffer.putInt(row.getVstatus());
+        if (row.getUpdatedAt() != null) {
+            buffer.putLong(row.getUpdatedAt().toEpochSecond(ZoneOffset.UTC));
+            buffer.putInt(row.getUpdatedAt().getNano());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static DeviceDataHistory decode(ByteBuffer buffer) {
+        int flags = buffer.getShort();
+        byte[] vid = new byte[buffer.getShort()];
+        buffer.get(vid);
+        DeviceDataHistory row = new DeviceDataHistory();
+        row.setVid(new String(vid, StandardCharsets.UTF_8));
+        if ((flags & HAS_TIN) != 0) row.setTin(buffer.getDouble());
+        if ((flags & HAS_TOUT) != 0) row.setTout(buffer.getDouble());
+        if ((flags & HAS_HIN) != 0) row.setHin(buffer.getInt());
+        if ((flags & HAS_HOUT) != 0) row.setHout(buffer.getInt());
+        if ((flags & HAS_LXIN) != 0) row.setLxin(buffer.getInt());
+        if ((flags & HAS_LXOUT) != 0) row.setLxout(buffer.getInt());
+        if ((flags & HAS_BRIGHTNESS) != 0) row.setBrightness(buffer.getInt());
+        if ((flags & HAS_VSTATUS) != 0) row.setVstatus(buffer.getInt());
+        if ((flags & HAS_UPDATED_AT) != 0) {
+            long seconds = buffer.getLong();
+            row.setUpdatedAt(LocalDateTime.ofEpochSecond(seconds, buffer.getInt(), ZoneOffset.UTC));
+        }
+        return row;
+    }
+
+    /**
+     * 打开已有分段并逐条校验，找到最后一条完整记录之后的写入位置，之后的残留内容清零
+     */
+    private Segment recover(long seq) throws IOException {
+        Segment segment = mapSegment(seq);
+        MappedByteBuffer buffer = segment.buffer;
+        int pos = 0;
+        int records = 0;
+        while (pos + HEADER_SIZE <= segmentSize) {
+            int length = buffer.getInt(pos);
+            if (length <= 0 || pos + HEADER_SIZE + length > segmentSize) {
+                break;
+            }
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(pos + HEADER_SIZE).limit(pos + HEADER_SIZE + length);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(pos + 4)) {
+                corrupted.increment();
+                log.warn("历史数据落盘分段校验失败，丢弃之后的内容 - 分段: {}, 位置: {}", seq, pos);
+                break;
+            }
+            pos += HEADER_SIZE + length;
+            records++;
+        }
+        segment.writePos = pos;
+        // 清除崩溃时写了一半的尾部，避免之后追加的记录与残留数据混在一起
+        boolean dirtyTail = false;
+        for (int i = pos; i < segmentSize; i++) {
+            if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+                dirtyTail = true;
+            }
+        }
+        if (dirtyTail) {
+            buffer.force();
+        }
+        log.info("恢复历史数据落盘分段 - 分段: {}, 记录数: {}, 写入位置: {}", seq, records, pos);
+        return segment;
+    }
+
+    private Segment mapSegment(long seq) throws IOException {
+        Path path = segmentPath(seq);
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // 映射在通道关闭后仍然有效
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            return new Segment(seq, path, buffer);
+        }
+    }
+
+    private void deleteSegment(Segment segment) {
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            log.warn("删除已重放的历史数据落盘分段失败 - 分段: {}, 错误: {}", segment.seq, e.getMessage());
+        }
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    sequences.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    log.warn("忽略无法识别的落盘文件: {}", name);
+                }
+            }
+        }
+        sequences.sort(null);
+        return sequences;
+    }
+
+    private Path segmentPath(long seq) {
+        return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, seq, SEGMENT_SUFFIX));
+    }
+
+    private long[] readCheckpoint() throws IOException {
+        Path path = dir.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(path)) {
+            return new long[] { 0, 0 };
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.remaining() < 16) {
+            return new long[] { 0, 0 };
+        }
+        return new long[] { buffer.getLong(), buffer.getLong() };
+    }
+
+    private void writeCheckpoint(long seq, long pos) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putLong(seq).putLong(pos);
+        Path tmp = dir.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.write(tmp, buffer.array());
+        Files.move(tmp, dir.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void closeSegments() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        segments.clear();
+    }
+
+    /**
+     * 获取落盘队列统计
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        long pendingBytes = 0;
+        boolean first = true;
+        for (Segment segment : segments) {
+            pendingBytes += segment.writePos - (first ? readPos : 0);
+            first = false;
+        }
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("enabled", enabled);
+        statistics.put("segments", segments.size());
+        statistics.put("pendingBytes", pendingBytes);
+        statistics.put("appended", appended.sum());
+        statistics.put("replayed", replayed.sum());
+        statistics.put("dropped", dropped.sum());
+        statistics.put("corrupted", corrupted.sum());
+        statistics.put("rotations", rotations.sum());
+        return statistics;
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (!enabled) {
+            return;
+        }
+        closeSegments();
+        log.info("历史数据落盘队列已关闭 - 累计落盘: {} 条, 重放: {} 条, 丢弃: {} 条",
+                appended.sum(), replayed.sum(), dropped.sum());
+    }
+
+    private static final class Segment {
+        private final long seq;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private int writePos;
+
+        private Segment(long seq, Path path, MappedByteBuffer buffer) {
+            this.seq = seq;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+}
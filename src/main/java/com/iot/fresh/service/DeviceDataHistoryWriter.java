@@ -0,0 +1,415 @@
+package com.iot.fresh.service;
+
+import com.iot.fresh.entity.DeviceDataHistory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 历史数据异步批量写入器（write-behind）
+ * 所有设备的历史记录先进入有界缓冲区，由后台线程按数量或时间合并成
+ * 多行INSERT写入device_data_history，替代每条消息一次save+flush。
+ * 连接类故障（数据库不可用、连接超时等可重试的错误）时批次转存到本地落盘队列，
+ * 数据库恢复前的新批次也直接落盘，由重放线程按顺序补写。
+ * 其他错误（数据完整性、字段超长等）重试也不会成功，改为逐行写入，跳过写不进去的行并计数，
+ * 避免坏数据进入落盘队列后阻塞重放
+ */
+@Service
+public class DeviceDataHistoryWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceDataHistoryWriter.class);
+
+    private static final String INSERT_PREFIX =
+            "INSERT INTO device_data_history (vid, tin, tout, hin, hout, lxin, lxout, brightness, vstatus, updated_at) VALUES ";
+    private static final String ROW_PLACEHOLDER = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DeviceDataHistorySpool spool;
+
+    @Autowired
+    private DeviceDataVolumeCounter deviceDataVolumeCounter;
+
+    @Value("${history.writer.capacity:10000}")
+    private int capacity;
+
+    @Value("${history.writer.batch-size:500}")
+    private int batchSize;
+
+    @Value("${history.writer.flush-interval:1000}")
+    private long flushIntervalMillis;
+
+    @Value("${history.writer.shutdown-timeout:10000}")
+    private long shutdownTimeoutMillis;
+
+    @Value("${history.spool.replay-interval:5000}")
+    private long replayIntervalMillis;
+
+    private BlockingQueue<DeviceDataHistory> buffer;
+
+    // 每台设备最近一次写入的记录（可能还在缓冲区中），供状态历史沿用上一条数据
+    private final Map<String, DeviceDataHistory> lastRows = new ConcurrentHashMap<>();
+
+    private Thread flusher;
+    private Thread replayer;
+    private volatile boolean running;
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder rowsFailed = new LongAdder();
+    private final LongAdder rowsRejected = new LongAdder();
+    private final LongAdder rowsSpooled = new LongAdder();
+    private final LongAdder rowsReplayed = new LongAdder();
+    private final LongAdder backpressureWaits = new LongAdder();
+    private final LongAdder flushCount = new LongAdder();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private volatile long lastFlushNanos;
+
+    @PostConstruct
+    public void start() {
+        buffer = new ArrayBlockingQueue<>(capacity);
+        running = true;
+        flusher = new Thread(this::flushLoop, "history-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+        if (spool.isEnabled()) {
+            replayer = new Thread(this::replayLoop, "history-spool-replayer");
+            replayer.setDaemon(true);
+            replayer.start();
+        }
+        log.info("历史数据批量写入器已启动 - 缓冲容量: {}, 批大小: {}, 刷新间隔: {}ms", capacity, batchSize, flushIntervalMillis);
+    }
+
+    /**
+     * 提交一条历史记录，缓冲区满时阻塞等待，保证内存有界
+     */
+    public void enqueue(DeviceDataHistory history) {
+        lastRows.put(history.getVid(), history);
+        enqueued.increment();
+        if (!running) {
+            // 已进入关闭流程，直接同步写入
+            writeBatch(Collections.singletonList(history));
+            return;
+        }
+        if (buffer.offer(history)) {
+            return;
+        }
+        backpressureWaits.increment();
+        try {
+            buffer.put(history);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writeBatch(Collections.singletonList(history));
+        }
+    }
+
+    /**
+     * 同步写入一批记录（设备批量上报的读数），按批大小拆分为多行INSERT，
+     * 失败时与缓冲区中的批次一样转存到落盘队列
+     */
+    public void writeAll(List<DeviceDataHistory> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        DeviceDataHistory newest = rows.get(rows.size() - 1);
+        lastRows.put(newest.getVid(), newest);
+        enqueued.add(rows.size());
+        for (int i = 0; i < rows.size(); i += batchSize) {
+            writeBatch(rows.subList(i, Math.min(i + batchSize, rows.size())));
+        }
+    }
+
+    /**
+     * 获取设备最近一次提交的历史记录（包含尚未落库的记录）
+     */
+    public DeviceDataHistory getLastRow(String vid) {
+        return lastRows.get(vid);
+    }
+
+    private void flushLoop() {
+        List<DeviceDataHistory> batch = new ArrayList<>(batchSize);
+        while (running || !buffer.isEmpty()) {
+            try {
+                DeviceDataHistory first = buffer.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < batchSize) {
+                    buffer.drainTo(batch, batchSize - batch.size());
+                    if (batch.size() >= batchSize) {
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || !running) {
+                        break;
+                    }
+                    DeviceDataHistory next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    continue;
+                }
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 写入一批记录：落盘队列中还有未重放的记录时直接追加到队列尾部，保持顺序；
+     * 否则写数据库，因连接类故障没有写入的部分转存到落盘队列
+     */
+    private void writeBatch(List<DeviceDataHistory> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (spool.hasPending()) {
+            spoolBatch(batch);
+            return;
+        }
+        int handled = insertBatch(batch);
+        if (handled < batch.size()) {
+            spoolBatch(batch.subList(handled, batch.size()));
+        }
+    }
+
+    private void spoolBatch(List<DeviceDataHistory> batch) {
+        if (spool.append(batch)) {
+            rowsSpooled.add(batch.size());
+        } else {
+            log.error("历史数据无法写入数据库也无法落盘，丢弃 {} 行", batch.size());
+        }
+    }
+
+    /**
+     * 以单条多行INSERT写入一批记录，非连接类错误时退回逐行写入
+     *
+     * @return 从头开始已处理（写入或因数据错误跳过）的行数，小于批大小时其余行因连接类故障未写入
+     */
+    int insertBatch(List<DeviceDataHistory> batch) {
+        long start = System.nanoTime();
+        try {
+            StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + batch.size() * (ROW_PLACEHOLDER.length() + 2));
+            sql.append(INSERT_PREFIX);
+            for (int i = 0; i < batch.size(); i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(ROW_PLACEHOLDER);
+            }
+            jdbcTemplate.update(sql.toString(), ps -> {
+                int index = 1;
+                for (DeviceDataHistory row : batch) {
+                    index = bindRow(ps, index, row);
+                }
+            });
+            rowsWritten.add(batch.size());
+            // 数据量只统计确认写入的记录，落盘的记录在重放写入后统计，丢弃的记录不统计
+            batch.forEach(deviceDataVolumeCounter::record);
+            return batch.size();
+        } catch (Exception e) {
+            if (isTransient(e)) {
+                rowsFailed.add(batch.size());
+                log.error("批量写入历史数据失败 - 行数: {}, 错误: {}", batch.size(), e.getMessage(), e);
+                return 0;
+            }
+            log.warn("批量写入历史数据失败，改为逐行写入 - 行数: {}, 错误: {}", batch.size(), e.getMessage());
+            return insertRows(batch);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            lastFlushNanos = elapsed;
+            totalFlushNanos.addAndGet(elapsed);
+            maxFlushNanos.accumulateAndGet(elapsed, Math::max);
+            flushCount.increment();
+        }
+    }
+
+    /**
+     * 逐行写入，跳过因数据错误写不进去的行，遇到连接类故障时停止
+     *
+     * @return 已处理的行数
+     */
+    private int insertRows(List<DeviceDataHistory> batch) {
+        String sql = INSERT_PREFIX + ROW_PLACEHOLDER;
+        for (int i = 0; i < batch.size(); i++) {
+            DeviceDataHistory row = batch.get(i);
+            try {
+                jdbcTemplate.update(sql, ps -> bindRow(ps, 1, row));
+                rowsWritten.increment();
+                deviceDataVolumeCounter.record(row);
+            } catch (Exception e) {
+                if (isTransient(e)) {
+                    rowsFailed.add(batch.size() - i);
+                    log.error("逐行写入历史数据失败 - 剩余行数: {}, 错误: {}", batch.size() - i, e.getMessage(), e);
+                    return i;
+                }
+                rowsRejected.increment();
+                log.error("历史数据无法写入，跳过 - VID: {}, 时间: {}, 错误: {}", row.getVid(), row.getUpdatedAt(), e.getMessage());
+            }
+        }
+        return batch.size();
+    }
+
+    /**
+     * 连接类故障：数据库恢复后重试可以成功，批次应转存到落盘队列
+     */
+    static boolean isTransient(Exception e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof RecoverableDataAccessException;
+    }
+
+    private void replayLoop() {
+        while (running) {
+            try {
+                Thread.sleep(replayIntervalMillis);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+            spool.sync();
+            replaySpool();
+        }
+    }
+
+    /**
+     * 把落盘队列中的记录按顺序写回数据库，连接类故障时停止，等待下个周期重试；
+     * 因数据错误写不进去的行跳过并确认，不会阻塞后面的记录
+     */
+    int replaySpool() {
+        int replayed = 0;
+        while (spool.hasPending()) {
+            List<DeviceDataHistory> rows = spool.peek(batchSize);
+            int handled = rows.isEmpty() ? 0 : insertBatch(rows);
+            if (handled < rows.size()) {
+                if (handled > 0) {
+                    // 只确认已处理的部分，其余行下个周期重放
+                    spool.peek(handled);
+                    spool.commit();
+                    replayed += handled;
+                }
+                break;
+            }
+            spool.commit();
+            replayed += rows.size();
+        }
+        if (replayed > 0) {
+            rowsReplayed.add(replayed);
+            log.info("落盘历史数据已重放 - 行数: {}", replayed);
+        }
+        return replayed;
+    }
+
+    private int bindRow(PreparedStatement ps, int index, DeviceDataHistory row) throws SQLException {
+        ps.setString(index++, row.getVid());
+        setNullableDouble(ps, index++, row.getTin());
+        setNullableDouble(ps, index++, row.getTout());
+        setNullableInt(ps, index++, row.getHin());
+        setNullableInt(ps, index++, row.getHout());
+        setNullableInt(ps, index++, row.getLxin());
+        setNullableInt(ps, index++, row.getLxout());
+        setNullableInt(ps, index++, row.getBrightness());
+        setNullableInt(ps, index++, row.getVstatus());
+        ps.setTimestamp(index++, row.getUpdatedAt() != null ? Timestamp.valueOf(row.getUpdatedAt()) : null);
+        return index;
+    }
+
+    private void setNullableDouble(PreparedStatement ps, int index, Double value) throws SQLException {
+        if (value != null) {
+            ps.setDouble(index, value);
+        } else {
+            ps.setNull(index, Types.DOUBLE);
+        }
+    }
+
+    private void setNullableInt(PreparedStatement ps, int index, Integer value) throws SQLException {
+        if (value != null) {
+            ps.setInt(index, value);
+        } else {
+            ps.setNull(index, Types.INTEGER);
+        }
+    }
+
+    /**
+     * 获取写入器运行统计：缓冲深度、写入行数、刷新延迟
+     */
+    public Map<String, Object> getStatistics() {
+        long flushes = flushCount.sum();
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("bufferDepth", buffer.size());
+        statistics.put("bufferCapacity", capacity);
+        statistics.put("enqueued", enqueued.sum());
+        statistics.put("rowsWritten", rowsWritten.sum());
+        statistics.put("rowsFailed", rowsFailed.sum());
+        statistics.put("rowsRejected", rowsRejected.sum());
+        statistics.put("rowsSpooled", rowsSpooled.sum());
+        statistics.put("rowsReplayed", rowsReplayed.sum());
+        statistics.put("backpressureWaits", backpressureWaits.sum());
+        statistics.put("flushCount", flushes);
+        statistics.put("avgFlushMs", flushes > 0 ? totalFlushNanos.get() / flushes / 1_000_000.0 : 0.0);
+        statistics.put("maxFlushMs", maxFlushNanos.get() / 1_000_000.0);
+        statistics.put("lastFlushMs", lastFlushNanos / 1_000_000.0);
+        return statistics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (replayer != null) {
+            replayer.interrupt();
+        }
+        try {
+            flusher.join(shutdownTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 超时仍未写完的记录在当前线程补写
+        List<DeviceDataHistory> remaining = new ArrayList<>();
+        buffer.drainTo(remaining);
+        for (int i = 0; i < remaining.size(); i += batchSize) {
+            writeBatch(remaining.subList(i, Math.min(i + batchSize, remaining.size())));
+        }
+        spool.sync();
+        log.info("历史数据批量写入器已关闭 - 累计写入: {} 行, 失败: {} 行, 落盘: {} 行",
+                rowsWritten.sum(), rowsFailed.sum(), rowsSpooled.sum());
+    }
+}
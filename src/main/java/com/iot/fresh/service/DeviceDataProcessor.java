@@ -2,6 +2,7 @@ package com.iot.fresh.service;
 
 import com.iot.fresh.dto.DeviceDataDto;
 import com.iot.fresh.dto.AlarmDto;
+import com.iot.fresh.dto.TelemetryRecord;
 import com.iot.fresh.websocket.DeviceWebSocket;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -24,41 +25,56 @@ public class DeviceDataProcessor {
      * 处理从设备接收到的数据
      */
     public void processDeviceData(String vid, DeviceDataDto deviceDataDto) {
-        if (deviceDataDto != null) {
+        processTelemetry(vid, deviceDataDto != null ? TelemetryRecord.fromDto(deviceDataDto) : null);
+    }
+
+    /**
+     * 处理已解码的设备遥测记录，保存和报警检查共用同一条记录
+     */
+    public void processTelemetry(String vid, TelemetryRecord record) {
+        if (record != null) {
             // 更新设备心跳
             deviceService.updateDeviceHeartbeat(vid);
 
             // 保存设备数据
-            dataService.saveDeviceData(deviceDataDto);
+            dataService.saveTelemetry(record);
 
             // 检查是否需要触发报警
-            checkForAlarms(vid, deviceDataDto);
+            checkForAlarms(vid, record);
 
             // 可以在这里添加其他业务逻辑
-            System.out.println("处理设备 " + vid + " 的数据: " + deviceDataDto);
+            System.out.println("处理设备 " + vid + " 的数据: " + record);
         } else {
             // 只更新设备心跳
             deviceService.updateDeviceHeartbeat(vid);
         }
     }
 
+    /**
+     * 对一条读数做报警检查（批量读数按时间顺序逐条调用）
+     */
+    public void evaluateAlarms(String vid, TelemetryRecord record) {
+        checkForAlarms(vid, record);
+    }
+
     /**
      * 检查是否需要触发报警
      */
-    private void checkForAlarms(String vid, DeviceDataDto deviceDataDto) {
+    private void checkForAlarms(String vid, TelemetryRecord record) {
         // 这里可以实现具体的报警逻辑
         // 例如：温度过高、湿度过低等
-        if (deviceDataDto.getTin() != null) {
-            if (deviceDataDto.getTin() > 30.0) {
+        if (record.has(TelemetryRecord.TIN)) {
+            double tin = record.tinValue();
+            if (tin > 30.0) {
                 // 温度过高报警
-                System.out.println("设备 " + vid + " 温度过高: " + deviceDataDto.getTin());
+                System.out.println("设备 " + vid + " 温度过高: " + tin);
                 // 创建报警
-                createAlarm(vid, "temperature", "high", "温度过高: " + deviceDataDto.getTin() + "°C");
-            } else if (deviceDataDto.getTin() < 0.0) {
+                createAlarm(vid, "temperature", "high", "温度过高: " + tin + "°C");
+            } else if (tin < 0.0) {
                 // 温度过低报警
-                System.out.println("设备 " + vid + " 温度过低: " + deviceDataDto.getTin());
+                System.out.println("设备 " + vid + " 温度过低: " + tin);
                 // 创建报警
-                createAlarm(vid, "temperature", "high", "温度过低: " + deviceDataDto.getTin() + "°C");
+                createAlarm(vid, "temperature", "high", "温度过低: " + tin + "°C");
             }
         }
 
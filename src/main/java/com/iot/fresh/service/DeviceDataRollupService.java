@@ -0,0 +1,524 @@
+package com.iot.fresh.service;
+
+import com.iot.fresh.dto.RollupPointDto;
+import com.iot.fresh.entity.DeviceDataHistory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * 遥测多粒度汇总
+ * 每条读数在接入时累加到内存中对应的分钟、小时、天时间桶（每台设备每个指标一个桶），
+ * 后台线程按固定间隔把变化的桶以INSERT ... ON DUPLICATE KEY UPDATE合并写入
+ * device_data_rollup_1m/1h/1d三张表。合并是可交换的（计数和求和相加、最值取极值、
+ * 首末值按时间比较），同一个桶可以分多次写入，因此迟到的读数（如设备重连后补传的离线缓存）
+ * 不论晚到多久都直接并入旧桶。每个粒度的一批桶在一个事务中写入，失败时整批回滚后放回内存重试。
+ * 查询时按时间范围和点数上限自动选择粒度，并合并尚未写入数据库的桶：正在写入的桶在提交前
+ * 仍对查询可见，写入和查询通过读写锁互斥，查询不会漏算或重复计算正在写入的桶
+ */
+@Service
+public class DeviceDataRollupService {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceDataRollupService.class);
+
+    // 支持汇总的指标
+    public static final String[] METRICS = { "tin", "tout", "hin", "hout", "lxin", "lxout", "brightness" };
+
+    // 字段顺序依次为: 首值在首时间之前、末值在末时间之前更新，MySQL按顺序求值，后面的表达式看到的是新值
+    private static final String UPSERT_SQL =
+            "INSERT INTO %s (vid, metric, bucket_start, sample_count, sum_value, min_value, max_value, " +
+            "first_value, first_at, last_value, last_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE " +
+            "sample_count = sample_count + VALUES(sample_count), " +
+            "sum_value = sum_value + VALUES(sum_value), " +
+            "min_value = LEAST(min_value, VALUES(min_value)), " +
+            "max_value = GREATEST(max_value, VALUES(max_value)), " +
+            "first_value = IF(VALUES(first_at) < first_at, VALUES(first_value), first_value), " +
+            "first_at = LEAST(first_at, VALUES(first_at)), " +
+            "last_value = IF(VALUES(last_at) >= last_at, VALUES(last_value), last_value), " +
+            "last_at = GREATEST(last_at, VALUES(last_at))";
+
+    private static final String SERIES_SQL =
+            "SELECT bucket_start, sample_count, sum_value, min_value, max_value, first_value, first_at, last_value, last_at " +
+            "FROM %s WHERE vid = ? AND metric = ? AND bucket_start >= ? AND bucket_start <= ? ORDER BY bucket_start";
+
+    private static final String SUMMARY_SQL =
+            "SELECT vid, metric, SUM(sample_count) AS sample_count, SUM(sum_value) AS sum_value, " +
+            "MIN(min_value) AS min_value, MAX(max_value) AS max_value " +
+            "FROM %s WHERE bucket_start >= ? AND bucket_start < ?%s GROUP BY vid, metric";
+
+    /**
+     * 汇总粒度
+     */
+    public enum Resolution {
+        MINUTE("device_data_rollup_1m", ChronoUnit.MINUTES),
+        HOUR("device_data_rollup_1h", ChronoUnit.HOURS),
+        DAY("device_data_rollup_1d", ChronoUnit.DAYS);
+
+        private final String table;
+        private final ChronoUnit unit;
+
+        Resolution(String table, ChronoUnit unit) {
+            this.table = table;
+            this.unit = unit;
+        }
+
+        public String table() {
+            return table;
+        }
+
+        public LocalDateTime truncate(LocalDateTime time) {
+            return time.truncatedTo(unit);
+        }
+
+        private LocalDateTime ceil(LocalDateTime time) {
+            LocalDateTime truncated = truncate(time);
+            return truncated.equals(time) ? truncated : truncated.plus(1, unit);
+        }
+
+        /**
+         * 时间范围覆盖的桶数
+         */
+        public long buckets(LocalDateTime start, LocalDateTime end) {
+            return unit.between(truncate(start), truncate(end)) + 1;
+        }
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${history.rollup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${history.rollup.flush-interval:5000}")
+    private long flushIntervalMillis;
+
+    @Value("${history.rollup.max-points:500}")
+    private int defaultMaxPoints;
+
+    @Value("${history.rollup.shutdown-timeout:10000}")
+    private long shutdownTimeoutMillis;
+
+    // 尚未写入数据库的时间桶
+    private final Map<BucketKey, Accumulator> pending = new ConcurrentHashMap<>();
+
+    // 已从pending取出、正在写入的时间桶，只在持有flushLock写锁时修改
+    private final Map<BucketKey, Accumulator> inflight = new HashMap<>();
+
+    // 写入时独占：取出、写入和移除正在写入的桶；查询时共享：读取数据库和内存中的桶
+    private final ReentrantReadWriteLock flushLock = new ReentrantReadWriteLock();
+
+    private Thread flusher;
+    private volatile boolean running;
+
+    private final LongAdder readings = new LongAdder();
+    private final LongAdder bucketsWritten = new LongAdder();
+    private final LongAdder bucketsFailed = new LongAdder();
+    private final LongAdder flushCount = new LongAdder();
+    private volatile long lastFlushNanos;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            log.info("遥测汇总未启用");
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::flushLoop, "device-data-rollup-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("遥测汇总已启动 - 写入间隔: {}ms", flushIntervalMillis);
+    }
+
+    /**
+     * 把一条读数累加到分钟、小时、天三个粒度的时间桶，时间取记录的updatedAt
+     */
+    public void accept(DeviceDataHistory row) {
+        if (!enabled || row.getVid() == null || row.getUpdatedAt() == null) {
+            return;
+        }
+        String vid = row.getVid();
+        LocalDateTime time = row.getUpdatedAt();
+        readings.increment();
+        add(vid, "tin", row.getTin(), time);
+        add(vid, "tout", row.getTout(), time);
+        add(vid, "hin", row.getHin(), time);
+        add(vid, "hout", row.getHout(), time);
+        add(vid, "lxin", row.getLxin(), time);
+        add(vid, "lxout", row.getLxout(), time);
+        add(vid, "brightness", row.getBrightness(), time);
+    }
+
+    private void add(String vid, String metric, Number value, LocalDateTime time) {
+        if (value == null) {
+            return;
+        }
+        double v = value.doubleValue();
+        for (Resolution resolution : Resolution.values()) {
+            BucketKey key = new BucketKey(resolution, vid, metric, resolution.truncate(time));
+            pending.compute(key, (k, accumulator) -> {
+                if (accumulator == null) {
+                    accumulator = new Accumulator();
+                }
+                accumulator.add(v, time);
+                return accumulator;
+            });
+        }
+    }
+
+    /**
+     * 按点数上限选择粒度：分钟、小时、天中第一个能在上限内覆盖整个范围的粒度，都超出时使用天
+     *
+     * @param maxPoints 点数上限，为空或不大于0时使用配置的默认值
+     */
+    public Resolution chooseResolution(LocalDateTime start, LocalDateTime end, Integer maxPoints) {
+        int budget = maxPoints != null && maxPoints > 0 ? maxPoints : defaultMaxPoints;
+        for (Resolution resolution : Resolution.values()) {
+            if (resolution.buckets(start, end) <= budget) {
+                return resolution;
+            }
+        }
+        return Resolution.DAY;
+    }
+
+    /**
+     * 查询设备某个指标的汇总序列，粒度按范围和点数上限自动选择
+     *
+     * @param maxPoints 点数上限，为空或不大于0时使用配置的默认值
+     */
+    public List<RollupPointDto> getSeries(String vid, String metric, LocalDateTime start, LocalDateTime end, Integer maxPoints) {
+        return getSeries(vid, metric, start, end, chooseResolution(start, end, maxPoints));
+    }
+
+    /**
+     * 按指定粒度查询设备某个指标的汇总序列，按时间升序
+     */
+    public List<RollupPointDto> getSeries(String vid, String metric, LocalDateTime start, LocalDateTime end, Resolution resolution) {
+        LocalDateTime from = resolution.truncate(start);
+        TreeMap<LocalDateTime, Accumulator> buckets = new TreeMap<>();
+        flushLock.readLock().lock();
+        try {
+            loadSeries(vid, metric, from, end, resolution, buckets);
+        } finally {
+            flushLock.readLock().unlock();
+        }
+
+        List<RollupPointDto> points = new ArrayList<>(buckets.size());
+        buckets.forEach((bucketStart, accumulator) -> points.add(accumulator.toPoint(bucketStart)));
+        return points;
+    }
+
+    private void loadSeries(String vid, String metric, LocalDateTime from, LocalDateTime end, Resolution resolution,
+                            TreeMap<LocalDateTime, Accumulator> buckets) {
+        jdbcTemplate.query(String.format(SERIES_SQL, resolution.table()), rs -> {
+            Accumulator accumulator = new Accumulator();
+            accumulator.count = rs.getLong("sample_count");
+            accumulator.sum = rs.getDouble("sum_value");
+            accumulator.min = rs.getDouble("min_value");
+            accumulator.max = rs.getDouble("max_value");
+            accumulator.first = rs.getDouble("first_value");
+            accumulator.firstAt = rs.getTimestamp("first_at").toLocalDateTime();
+            accumulator.last = rs.getDouble("last_value");
+            accumulator.lastAt = rs.getTimestamp("last_at").toLocalDateTime();
+            buckets.put(rs.getTimestamp("bucket_start").toLocalDateTime(), accumulator);
+        }, vid, metric, Timestamp.valueOf(from), Timestamp.valueOf(end));
+
+        // 合并尚未写入数据库的部分
+        forEachUnflushed((key, snapshot) -> {
+            if (key.resolution() == resolution && key.vid().equals(vid) && key.metric().equals(metric)
+                    && !key.bucketStart().isBefore(from) && !key.bucketStart().isAfter(end)) {
+                buckets.merge(key.bucketStart(), snapshot, Accumulator::merge);
+            }
+        });
+    }
+
+    /**
+     * 遍历尚未提交到数据库的桶（待写入和正在写入的），调用方需持有flushLock读锁
+     */
+    private void forEachUnflushed(BiConsumer<BucketKey, Accumulator> action) {
+        pending.forEach((key, accumulator) -> action.accept(key, accumulator.snapshot()));
+        inflight.forEach((key, accumulator) -> action.accept(key, accumulator.snapshot()));
+    }
+
+    /**
+     * 按设备、指标汇总时间范围内的读数，返回 vid -> 指标 -> 汇总值
+     * 汇总在死区过滤之前累加，不受历史表只记录变化的影响。范围按分钟对齐，
+     * 中间完整的天、小时读粗粒度表，两端不足一小时的部分读分钟表，并合并尚未写入数据库的桶
+     *
+     * @param vid 设备ID，为空时汇总全部设备
+     */
+    public Map<String, Map<String, MetricSummary>> summarize(String vid, LocalDateTime start, LocalDateTime end) {
+        Map<String, Map<String, MetricSummary>> result = new HashMap<>();
+        LocalDateTime from = Resolution.MINUTE.truncate(start);
+        LocalDateTime to = Resolution.MINUTE.truncate(end).plusMinutes(1);
+        flushLock.readLock().lock();
+        try {
+            summarize(vid, Resolution.DAY, from, to, result);
+        } finally {
+            flushLock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * 汇总[from, to)：本粒度对齐的部分直接读取，两端剩余部分交给下一级更细的粒度
+     */
+    private void summarize(String vid, Resolution resolution, LocalDateTime from, LocalDateTime to,
+                           Map<String, Map<String, MetricSummary>> result) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        if (resolution != Resolution.MINUTE) {
+            Resolution finer = Resolution.values()[resolution.ordinal() - 1];
+            LocalDateTime alignedFrom = resolution.ceil(from);
+            LocalDateTime alignedTo = resolution.truncate(to);
+            if (!alignedFrom.isBefore(alignedTo)) {
+                summarize(vid, finer, from, to, result);
+                return;
+            }
+            summarize(vid, finer, from, alignedFrom, result);
+            summarize(vid, finer, alignedTo, to, result);
+            from = alignedFrom;
+            to = alignedTo;
+        }
+
+        String sql = String.format(SUMMARY_SQL, resolution.table(), vid != null ? " AND vid = ?" : "");
+        Object[] args = vid != null
+                ? new Object[] { Timestamp.valueOf(from), Timestamp.valueOf(to), vid }
+                : new Object[] { Timestamp.valueOf(from), Timestamp.valueOf(to) };
+        jdbcTemplate.query(sql, rs -> {
+            MetricSummary summary = new MetricSummary(rs.getLong("sample_count"), rs.getDouble("sum_value"),
+                    rs.getDouble("min_value"), rs.getDouble("max_value"));
+            result.computeIfAbsent(rs.getString("vid"), k -> new HashMap<>())
+                    .merge(rs.getString("metric"), summary, MetricSummary::merge);
+        }, args);
+
+        // 合并尚未写入数据库的部分
+        LocalDateTime rangeFrom = from;
+        LocalDateTime rangeTo = to;
+        forEachUnflushed((key, snapshot) -> {
+            if (key.resolution() == resolution && (vid == null || key.vid().equals(vid))
+                    && !key.bucketStart().isBefore(rangeFrom) && key.bucketStart().isBefore(rangeTo)) {
+                result.computeIfAbsent(key.vid(), k -> new HashMap<>())
+                        .merge(key.metric(), snapshot.toSummary(), MetricSummary::merge);
+            }
+        });
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                Thread.sleep(flushIntervalMillis);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+            flush();
+        }
+    }
+
+    /**
+     * 把间隔内变化的时间桶按粒度分组批量合并写入
+     * 整个过程持有flushLock写锁，取出的桶在提交前留在inflight中供查询合并，提交后才移除
+     */
+    private synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        flushLock.writeLock().lock();
+        try {
+            flushLocked();
+        } finally {
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    private void flushLocked() {
+        long start = System.nanoTime();
+        Map<Resolution, Map<BucketKey, Accumulator>> drained = new EnumMap<>(Resolution.class);
+        for (BucketKey key : pending.keySet()) {
+            Accumulator accumulator = pending.remove(key);
+            if (accumulator != null) {
+                drained.computeIfAbsent(key.resolution(), r -> new HashMap<>()).put(key, accumulator);
+                inflight.put(key, accumulator);
+            }
+        }
+        for (Map.Entry<Resolution, Map<BucketKey, Accumulator>> group : drained.entrySet()) {
+            List<Object[]> batch = new ArrayList<>(group.getValue().size());
+            group.getValue().forEach((key, a) -> batch.add(new Object[] {
+                    key.vid(), key.metric(), Timestamp.valueOf(key.bucketStart()), a.count, a.sum, a.min, a.max,
+                    a.first, Timestamp.valueOf(a.firstAt), a.last, Timestamp.valueOf(a.lastAt) }));
+            try {
+                // 合并写入不是幂等的，整批在一个事务中提交，失败时不会留下已经累加的部分行
+                transactionTemplate.executeWithoutResult(status ->
+                        jdbcTemplate.batchUpdate(String.format(UPSERT_SQL, group.getKey().table()), batch));
+                bucketsWritten.add(batch.size());
+            } catch (Exception e) {
+                // 写入失败的桶放回内存，与期间新到的读数合并后下个周期重试
+                bucketsFailed.add(batch.size());
+                group.getValue().forEach((key, accumulator) -> pending.merge(key, accumulator, Accumulator::merge));
+                log.error("写入遥测汇总失败 - 表: {}, 桶数: {}, 错误: {}", group.getKey().table(), batch.size(), e.getMessage(), e);
+            } finally {
+                // 已提交的桶由数据库提供，失败的桶已放回pending
+                inflight.keySet().removeAll(group.getValue().keySet());
+            }
+        }
+        lastFlushNanos = System.nanoTime() - start;
+        flushCount.increment();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 获取汇总统计：接收的读数、写入的桶数
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("enabled", enabled);
+        statistics.put("pendingBuckets", pending.size());
+        statistics.put("readings", readings.sum());
+        statistics.put("bucketsWritten", bucketsWritten.sum());
+        statistics.put("bucketsFailed", bucketsFailed.sum());
+        statistics.put("flushCount", flushCount.sum());
+        statistics.put("lastFlushMs", lastFlushNanos / 1_000_000.0);
+        return statistics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flusher == null) {
+            return;
+        }
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join(shutdownTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 关闭前把剩余的时间桶写入数据库
+        flush();
+        log.info("遥测汇总已关闭 - 累计读数: {}, 写入桶: {}", readings.sum(), bucketsWritten.sum());
+    }
+
+    /**
+     * 一段时间内某台设备某个指标的汇总值
+     */
+    public record MetricSummary(long count, double sum, double min, double max) {
+
+        public double avg() {
+            return count > 0 ? sum / count : 0.0;
+        }
+
+        public static MetricSummary merge(MetricSummary a, MetricSummary b) {
+            return new MetricSummary(a.count + b.count, a.sum + b.sum, Math.min(a.min, b.min), Math.max(a.max, b.max));
+        }
+    }
+
+    private record BucketKey(Resolution resolution, String vid, String metric, LocalDateTime bucketStart) {
+    }
+
+    /**
+     * 一个时间桶的累加值，由pending.compute在桶级锁内修改，查询时通过snapshot读取一致的副本
+     */
+    private static final class Accumulator {
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double first;
+        private LocalDateTime firstAt;
+        private double last;
+        private LocalDateTime lastAt;
+
+        synchronized void add(double value, LocalDateTime time) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            if (firstAt == null || time.isBefore(firstAt)) {
+                first = value;
+                firstAt = time;
+            }
+            if (lastAt == null || !time.isBefore(lastAt)) {
+                last = value;
+                lastAt = time;
+            }
+        }
+
+        synchronized Accumulator snapshot() {
+            Accumulator copy = new Accumulator();
+            copy.count = count;
+            copy.sum = sum;
+            copy.min = min;
+            copy.max = max;
+            copy.first = first;
+            copy.firstAt = firstAt;
+            copy.last = last;
+            copy.lastAt = lastAt;
+            return copy;
+        }
+
+        static Accumulator merge(Accumulator a, Accumulator b) {
+            Accumulator merged = a.snapshot();
+            Accumulator other = b.snapshot();
+            merged.count += other.count;
+            merged.sum += other.sum;
+            merged.min = Math.min(merged.min, other.min);
+            merged.max = Math.max(merged.max, other.max);
+            if (merged.firstAt == null || (other.firstAt != null && other.firstAt.isBefore(merged.firstAt))) {
+                merged.first = other.first;
+                merged.firstAt = other.firstAt;
+            }
+            if (merged.lastAt == null || (other.lastAt != null && !other.lastAt.isBefore(merged.lastAt))) {
+                merged.last = other.last;
+                merged.lastAt = other.lastAt;
+            }
+            return merged;
+        }
+
+        synchronized MetricSummary toSummary() {
+            return new MetricSummary(count, sum, min, max);
+        }
+
+        RollupPointDto toPoint(LocalDateTime bucketStart) {
+            RollupPointDto point = new RollupPointDto();
+            point.setTime(bucketStart);
+            point.setCount(count);
+            point.setMin(min);
+            point.setMax(max);
+            point.setAvg(count > 0 ? sum / count : 0.0);
+            point.setFirst(first);
+            point.setLast(last);
+            return point;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.iot.fresh.service;
+
+import com.iot.fresh.entity.DeviceDataHistory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 历史数据量计数
+ * 历史记录确认写入数据库后，在内存中按(设备, 小时)和按天的LongAdder计数，仪表盘的今日数据量和
+ * 增长率直接读取计数，不再查询整天的记录；按设备、按小时的分布也来自同一组计数。
+ * 计数按记录时间(updatedAt)归入时间桶，内存中保留最近若干天；后台线程定期把上次写入后的
+ * 增量累加到device_data_volume_1h（不覆盖），集群中多个节点写同一个(设备, 小时)或设备
+ * 切换节点时计数不会互相覆盖；超出保留期的日期从该表查询。
+ * 启动时按小时COUNT历史表重建保留期内的内存计数，不写计数表
+ */
+@Service
+public class DeviceDataVolumeCounter {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceDataVolumeCounter.class);
+
+    // 写入的是本节点上次写入后的增量，与表中的计数相加
+    private static final String UPSERT_SQL =
+            "INSERT INTO device_data_volume_1h (vid, bucket_start, record_count) VALUES (?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE record_count = record_count + VALUES(record_count)";
+
+    private static final String REBUILD_SQL =
+            "SELECT vid, DATE(updated_at) AS bucket_day, HOUR(updated_at) AS bucket_hour, COUNT(*) AS record_count " +
+            "FROM device_data_history WHERE updated_at >= ? GROUP BY vid, DATE(updated_at), HOUR(updated_at)";
+
+    private static final String DAY_SQL =
+            "SELECT vid, bucket_start, record_count FROM device_data_volume_1h " +
+            "WHERE bucket_start >= ? AND bucket_start < ?";
+
+    private static final String RANGE_SQL =
+            "SELECT COALESCE(SUM(record_count), 0) FROM device_data_volume_1h " +
+            "WHERE bucket_start >= ? AND bucket_start < ?";
+
+    private static final String DEVICE_RANGE_SQL = RANGE_SQL + " AND vid = ?";
+
+    private static final String RANGE_BY_DEVICE_SQL =
+            "SELECT vid, SUM(record_count) AS record_count FROM device_data_volume_1h " +
+            "WHERE bucket_start >= ? AND bucket_start < ?%s GROUP BY vid";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${history.volume.retention-days:7}")
+    private int retentionDays;
+
+    @Value("${history.volume.flush-interval:60000}")
+    private long flushIntervalMillis;
+
+    @Value("${history.volume.shutdown-timeout:10000}")
+    private long shutdownTimeoutMillis;
+
+    // (设备, 小时) -> 计数
+    private final Map<HourKey, LongAdder> hourly = new ConcurrentHashMap<>();
+
+    // 日期 -> 当天全部设备的计数，仪表盘O(1)读取
+    private final Map<LocalDate, LongAdder> daily = new ConcurrentHashMap<>();
+
+    // 上次写入后的增量，按(设备, 小时)合并，写入时整项取出
+    private final Map<HourKey, Long> unflushed = new ConcurrentHashMap<>();
+
+    private Thread flusher;
+    private volatile boolean running;
+    private volatile boolean rebuilt;
+
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder bucketsWritten = new LongAdder();
+    private final LongAdder bucketsFailed = new LongAdder();
+    private volatile long lastFlushNanos;
+
+    @PostConstruct
+    public void start() {
+        rebuild();
+        running = true;
+        flusher = new Thread(this::flushLoop, "device-data-volume-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("历史数据量计数已启动 - 保留: {}天, 写入间隔: {}ms", retentionDays, flushIntervalMillis);
+    }
+
+    /**
+     * 记录一条已确认写入数据库的历史记录
+     */
+    public void record(DeviceDataHistory row) {
+        if (row.getVid() == null || row.getUpdatedAt() == null) {
+            return;
+        }
+        LocalDateTime time = row.getUpdatedAt();
+        HourKey key = new HourKey(row.getVid(), time.truncatedTo(ChronoUnit.HOURS));
+        unflushed.merge(key, 1L, Long::sum);
+        recorded.increment();
+        if (time.toLocalDate().isBefore(oldestRetainedDay())) {
+            // 超出保留期的迟到记录只累加到计数表，内存中不再保留
+            return;
+        }
+        hourly.computeIfAbsent(key, k -> new LongAdder()).increment();
+        daily.computeIfAbsent(time.toLocalDate(), d -> new LongAdder()).increment();
+    }
+
+    /**
+     * 某一天全部设备的历史数据量
+     */
+    public long getDayTotal(LocalDate date) {
+        if (isRetained(date)) {
+            LongAdder total = daily.get(date);
+            return total != null ? total.sum() : 0L;
+        }
+        long total = 0;
+        for (Map.Entry<HourKey, Long> entry : loadDay(date).entrySet()) {
+            total += entry.getValue();
+        }
+        return total;
+    }
+
+    /**
+     * 某一天每小时的历史数据量，下标为小时(0-23)
+     */
+    public long[] getHourly(LocalDate date) {
+        long[] hours = new long[24];
+        dayCounts(date).forEach((key, count) -> hours[key.hour().getHour()] += count);
+        return hours;
+    }
+
+    /**
+     * 某一天每台设备的历史数据量
+     */
+    public Map<String, Long> getByDevice(LocalDate date) {
+        Map<String, Long> devices = new TreeMap<>();
+        dayCounts(date).forEach((key, count) -> devices.merge(key.vid(), count, Long::sum));
+        return devices;
+    }
+
+    /**
+     * 时间范围内的历史数据量（估算值）
+     * 按小时桶累加，范围两端所在的整个小时都计入；保留期内读内存，之前的部分查询计数表
+     *
+     * @param vid 为null时统计全部设备
+     */
+    public long countBetween(String vid, LocalDateTime startTime, LocalDateTime endTime) {
+        LocalDateTime from = startTime.truncatedTo(ChronoUnit.HOURS);
+        LocalDateTime retainedFrom = oldestRetainedDay().atStartOfDay();
+        long total = 0;
+        if (from.isBefore(retainedFrom)) {
+            LocalDateTime to = endTime.isBefore(retainedFrom) ? endTime.truncatedTo(ChronoUnit.HOURS).plusHours(1) : retainedFrom;
+            total += loadRange(vid, from, to);
+        }
+        for (Map.Entry<HourKey, LongAdder> entry : hourly.entrySet()) {
+            HourKey key = entry.getKey();
+            if ((vid == null || vid.equals(key.vid())) && !key.hour().isBefore(from)
+                    && !key.hour().isBefore(retainedFrom) && !key.hour().isAfter(endTime)) {
+                total += entry.getValue().sum();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 时间范围内每台设备的历史数据量（估算值），口径与countBetween相同
+     *
+     * @param vid 为null时统计全部设备
+     * @return VID -> 数据量，没有数据的设备不在结果中
+     */
+    public Map<String, Long> countByDeviceBetween(String vid, LocalDateTime startTime, LocalDateTime endTime) {
+        LocalDateTime from = startTime.truncatedTo(ChronoUnit.HOURS);
+        LocalDateTime retainedFrom = oldestRetainedDay().atStartOfDay();
+        Map<String, Long> devices = new HashMap<>();
+        if (from.isBefore(retainedFrom)) {
+            LocalDateTime to = endTime.isBefore(retainedFrom) ? endTime.truncatedTo(ChronoUnit.HOURS).plusHours(1) : retainedFrom;
+            loadRangeByDevice(vid, from, to, devices);
+        }
+        for (Map.Entry<HourKey, LongAdder> entry : hourly.entrySet()) {
+            HourKey key = entry.getKey();
+            if ((vid == null || vid.equals(key.vid())) && !key.hour().isBefore(from)
+                    && !key.hour().isBefore(retainedFrom) && !key.hour().isAfter(endTime)) {
+                devices.merge(key.vid(), entry.getValue().sum(), Long::sum);
+            }
+        }
+        return devices;
+    }
+
+    private void loadRangeByDevice(String vid, LocalDateTime from, LocalDateTime to, Map<String, Long> devices) {
+        try {
+            String sql = String.format(RANGE_BY_DEVICE_SQL, vid != null ? " AND vid = ?" : "");
+            Object[] args = vid != null
+                    ? new Object[] { Timestamp.valueOf(from), Timestamp.valueOf(to), vid }
+                    : new Object[] { Timestamp.valueOf(from), Timestamp.valueOf(to) };
+            jdbcTemplate.query(sql, rs -> {
+                devices.merge(rs.getString("vid"), rs.getLong("record_count"), Long::sum);
+            }, args);
+        } catch (Exception e) {
+            log.error("查询设备历史数据量失败 - 范围: {} ~ {}, 错误: {}", from, to, e.getMessage(), e);
+        }
+    }
+
+    private long loadRange(String vid, LocalDateTime from, LocalDateTime to) {
+        try {
+            Long total = vid == null
+                    ? jdbcTemplate.queryForObject(RANGE_SQL, Long.class, Timestamp.valueOf(from), Timestamp.valueOf(to))
+                    : jdbcTemplate.queryForObject(DEVICE_RANGE_SQL, Long.class, Timestamp.valueOf(from), Timestamp.valueOf(to), vid);
+            return total != null ? total : 0L;
+        } catch (Exception e) {
+            log.error("查询历史数据量失败 - 范围: {} ~ {}, 错误: {}", from, to, e.getMessage(), e);
+            return 0L;
+        }
+    }
+
+    private Map<HourKey, Long> dayCounts(LocalDate date) {
+        if (!isRetained(date)) {
+            return loadDay(date);
+        }
+        Map<HourKey, Long> counts = new HashMap<>();
+        hourly.forEach((key, count) -> {
+            if (key.hour().toLocalDate().equals(date)) {
+                counts.put(key, count.sum());
+            }
+        });
+        return counts;
+    }
+
+    private Map<HourKey, Long> loadDay(LocalDate date) {
+        Map<HourKey, Long> counts = new HashMap<>();
+        try {
+            jdbcTemplate.query(DAY_SQL, rs -> {
+                counts.put(new HourKey(rs.getString("vid"), rs.getTimestamp("bucket_start").toLocalDateTime()),
+                        rs.getLong("record_count"));
+            }, Timestamp.valueOf(date.atStartOfDay()), Timestamp.valueOf(date.plusDays(1).atStartOfDay()));
+        } catch (Exception e) {
+            log.error("查询历史数据量失败 - 日期: {}, 错误: {}", date, e.getMessage(), e);
+        }
+        return counts;
+    }
+
+    private boolean isRetained(LocalDate date) {
+        return !date.isBefore(oldestRetainedDay()) && !date.isAfter(LocalDate.now());
+    }
+
+    private LocalDate oldestRetainedDay() {
+        return LocalDate.now().minusDays(Math.max(1, retentionDays) - 1L);
+    }
+
+    /**
+     * 按小时COUNT历史表，重建保留期内的计数
+     */
+    private void rebuild() {
+        long start = System.nanoTime();
+        try {
+            LocalDate from = oldestRetainedDay();
+            jdbcTemplate.query(REBUILD_SQL, rs -> {
+                LocalDate day = rs.getDate("bucket_day").toLocalDate();
+                long count = rs.getLong("record_count");
+                HourKey key = new HourKey(rs.getString("vid"), day.atTime(rs.getInt("bucket_hour"), 0));
+                hourly.computeIfAbsent(key, k -> new LongAdder()).add(count);
+                daily.computeIfAbsent(day, d -> new LongAdder()).add(count);
+            }, Timestamp.valueOf(from.atStartOfDay()));
+            rebuilt = true;
+            log.info("历史数据量计数已重建 - 起始日期: {}, 小时桶: {}, 耗时: {}ms",
+                    from, hourly.size(), (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            // 重建失败时从零开始计数，今日数据量会偏小
+            log.error("重建历史数据量计数失败: {}", e.getMessage(), e);
+        }
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                Thread.sleep(flushIntervalMillis);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+            flush();
+        }
+    }
+
+    /**
+     * 把上次写入后的增量累加到计数表，并清除超出保留期的内存计数
+     */
+    private synchronized void flush() {
+        long start = System.nanoTime();
+        Map<HourKey, Long> deltas = new HashMap<>();
+        for (HourKey key : unflushed.keySet()) {
+            Long delta = unflushed.remove(key);
+            if (delta != null) {
+                deltas.put(key, delta);
+            }
+        }
+        if (!deltas.isEmpty()) {
+            List<Object[]> batch = new ArrayList<>(deltas.size());
+            deltas.forEach((key, delta) -> batch.add(new Object[] { key.vid(), Timestamp.valueOf(key.hour()), delta }));
+            try {
+                // 累加不是幂等的，整批在一个事务中提交，失败时不会留下已经累加的部分行
+                transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(UPSERT_SQL, batch));
+                bucketsWritten.add(batch.size());
+            } catch (Exception e) {
+                // 增量放回，与期间新的计数合并后下个周期重试
+                bucketsFailed.add(batch.size());
+                deltas.forEach((key, delta) -> unflushed.merge(key, delta, Long::sum));
+                log.error("写入历史数据量失败 - 桶数: {}, 错误: {}", batch.size(), e.getMessage(), e);
+            }
+        }
+
+        LocalDate oldest = oldestRetainedDay();
+        daily.keySet().removeIf(day -> day.isBefore(oldest));
+        hourly.keySet().removeIf(key -> key.hour().toLocalDate().isBefore(oldest));
+        lastFlushNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * 获取计数统计：内存中的小时桶数、计数的记录数、写入的桶数
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("rebuilt", rebuilt);
+        statistics.put("retentionDays", retentionDays);
+        statistics.put("hourBuckets", hourly.size());
+        statistics.put("pendingBuckets", unflushed.size());
+        statistics.put("recorded", recorded.sum());
+        statistics.put("bucketsWritten", bucketsWritten.sum());
+        statistics.put("bucketsFailed", bucketsFailed.sum());
+        statistics.put("lastFlushMs", lastFlushNanos / 1_000_000.0);
+        return statistics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flusher == null) {
+            return;
+        }
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join(shutdownTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 关闭前写入剩余的增量
+        flush();
+        log.info("历史数据量计数已关闭 - 累计记录: {}, 写入桶: {}", recorded.sum(), bucketsWritten.sum());
+    }
+
+    private record HourKey(String vid, LocalDateTime hour) {
+    }
+}
@@ -0,0 +1,226 @@
+package com.iot.fresh.service;
+
+import com.iot.fresh.entity.Device;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 设备心跳记录
+ * 每条消息只在内存中记录设备的最后心跳时间，由后台线程按固定间隔把变化的设备
+ * 合并成一次批量UPDATE写入devices表。需要实时性的查询通过getLastHeartbeat/apply
+ * 直接读取内存中的精确值，不受写回间隔影响；实时数据快照在每个写回周期收到一次变化的心跳
+ */
+@Service
+public class DeviceHeartbeatTracker {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceHeartbeatTracker.class);
+
+    // 只会把心跳往后推，避免覆盖管理端或其它路径写入的更新时间
+    private static final String UPDATE_SQL =
+            "UPDATE devices SET last_heartbeat = ?, updated_at = ? WHERE vid = ? " +
+            "AND (last_heartbeat IS NULL OR last_heartbeat < ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Lazy
+    @Autowired
+    private DeviceRealTimeSnapshot deviceRealTimeSnapshot;
+
+    @Value("${device.heartbeat.flush-interval:5000}")
+    private long flushIntervalMillis;
+
+    @Value("${device.heartbeat.shutdown-timeout:10000}")
+    private long shutdownTimeoutMillis;
+
+    // 每台设备在内存中的最后心跳时间
+    private final Map<String, LocalDateTime> lastSeen = new ConcurrentHashMap<>();
+
+    // 尚未写入数据库的心跳
+    private final Map<String, LocalDateTime> pending = new ConcurrentHashMap<>();
+
+    private Thread flusher;
+    private volatile boolean running;
+
+    private final LongAdder heartbeats = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder rowsFailed = new LongAdder();
+    private final LongAdder flushCount = new LongAdder();
+    private volatile long lastFlushNanos;
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        flusher = new Thread(this::flushLoop, "device-heartbeat-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("设备心跳记录已启动 - 写回间隔: {}ms", flushIntervalMillis);
+    }
+
+    /**
+     * 记录设备当前时间的心跳
+     */
+    public LocalDateTime record(String vid) {
+        LocalDateTime now = LocalDateTime.now();
+        record(vid, now);
+        return now;
+    }
+
+    /**
+     * 记录设备指定时间的心跳，早于已记录时间的心跳被忽略
+     */
+    public void record(String vid, LocalDateTime time) {
+        if (vid == null || time == null) {
+            return;
+        }
+        lastSeen.merge(vid, time, DeviceHeartbeatTracker::later);
+        pending.merge(vid, time, DeviceHeartbeatTracker::later);
+        heartbeats.increment();
+    }
+
+    /**
+     * 获取内存中记录的最后心跳时间，本进程启动后没有收到过心跳时返回null
+     */
+    public LocalDateTime getLastHeartbeat(String vid) {
+        return vid != null ? lastSeen.get(vid) : null;
+    }
+
+    /**
+     * 取实体中的lastHeartbeat与内存记录中较新的一个，不修改实体
+     */
+    public LocalDateTime lastHeartbeatOf(Device device) {
+        if (device == null) {
+            return null;
+        }
+        LocalDateTime seen = getLastHeartbeat(device.getVid());
+        if (seen != null && (device.getLastHeartbeat() == null || seen.isAfter(device.getLastHeartbeat()))) {
+            return seen;
+        }
+        return device.getLastHeartbeat();
+    }
+
+    /**
+     * 内存中的心跳比数据库读出的更新时，用内存值覆盖实体的lastHeartbeat（仅用于非托管的副本）
+     */
+    public void apply(Device device) {
+        if (device != null) {
+            device.setLastHeartbeat(lastHeartbeatOf(device));
+        }
+    }
+
+    /**
+     * 设备删除后清除其心跳记录
+     */
+    public void forget(String vid) {
+        if (vid != null) {
+            lastSeen.remove(vid);
+            pending.remove(vid);
+        }
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                Thread.sleep(flushIntervalMillis);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+            flush();
+        }
+    }
+
+    /**
+     * 把间隔内收到心跳的设备一次性批量写入devices表
+     */
+    private synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> batch = new ArrayList<>();
+        Map<String, LocalDateTime> drained = new HashMap<>();
+        for (Map.Entry<String, LocalDateTime> entry : pending.entrySet()) {
+            String vid = entry.getKey();
+            LocalDateTime time = entry.getValue();
+            // 只移除本次读到的值，期间到达的新心跳留给下个周期
+            if (pending.remove(vid, time)) {
+                Timestamp heartbeat = Timestamp.valueOf(time);
+                batch.add(new Object[] { heartbeat, now, vid, heartbeat });
+                drained.put(vid, time);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        // 快照按周期合并心跳，每台设备每个周期最多变化一次版本号；重试时时间未变化不会再次变化
+        deviceRealTimeSnapshot.onHeartbeats(drained);
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_SQL, batch,
+                    new int[] { Types.TIMESTAMP, Types.TIMESTAMP, Types.VARCHAR, Types.TIMESTAMP });
+            rowsWritten.add(batch.size());
+        } catch (Exception e) {
+            // 写入失败的心跳放回待写集合，下个周期重试
+            rowsFailed.add(batch.size());
+            drained.forEach((vid, time) -> pending.merge(vid, time, DeviceHeartbeatTracker::later));
+            log.error("批量写入设备心跳失败 - 设备数: {}, 错误: {}", batch.size(), e.getMessage(), e);
+        }
+        lastFlushNanos = System.nanoTime() - start;
+        flushCount.increment();
+    }
+
+    private static LocalDateTime later(LocalDateTime a, LocalDateTime b) {
+        return b.isAfter(a) ? b : a;
+    }
+
+    /**
+     * 获取心跳记录统计：收到的心跳数与实际写入的行数
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("devices", lastSeen.size());
+        statistics.put("pending", pending.size());
+        statistics.put("heartbeats", heartbeats.sum());
+        statistics.put("rowsWritten", rowsWritten.sum());
+        statistics.put("rowsFailed", rowsFailed.sum());
+        statistics.put("flushCount", flushCount.sum());
+        statistics.put("lastFlushMs", lastFlushNanos / 1_000_000.0);
+        return statistics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join(shutdownTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 关闭前把剩余的心跳写入数据库
+        flush();
+        log.info("设备心跳记录已关闭 - 累计心跳: {}, 写入: {} 行, 失败: {} 行",
+                heartbeats.sum(), rowsWritten.sum(), rowsFailed.sum());
+    }
+}
@@ -0,0 +1,494 @@
+package com.iot.fresh.service;
+
+import com.iot.fresh.entity.DeviceData;
+import com.iot.fresh.repository.DeviceDataRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * 设备最新状态存储
+ * 每台设备在device_data中只保留一行当前数据，这里在内存中按VID维护该行的最新快照，
+ * 读取直接返回快照；修改只更新内存并标记为脏，由后台线程按固定间隔合并写回，
+ * 同一设备在一个间隔内的多次修改只落库最后一次。每次修改同时推送给实时数据快照。
+ * 读取和修改都只为已登记的设备建立条目，任意VID的查询和上报不会占用内存；没有数据的设备缓存一段时间后
+ * 重新查询，设备删除时由DeviceRegistry移除条目。
+ * 集群模式下设备的消息由其他节点接收时，本节点的条目不再更新，cluster-ttl内没有本地修改
+ * 且已写回的条目在下次访问时重新从数据库加载，避免用过期的数据覆盖其他节点写入的最新状态
+ */
+@Service
+public class DeviceLatestStateStore {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceLatestStateStore.class);
+
+    private static final String UPDATE_SQL =
+            "UPDATE device_data SET tin = ?, tout = ?, hin = ?, hout = ?, lxin = ?, lxout = ?, brightness = ?, " +
+            "vstatus = ?, timestamp = ?, updated_at = ? WHERE id = ?";
+    private static final String INSERT_SQL =
+            "INSERT INTO device_data (vid, tin, tout, hin, hout, lxin, lxout, brightness, vstatus, timestamp, created_at, updated_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    private DeviceDataRepository deviceDataRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DeviceRealTimeSnapshot deviceRealTimeSnapshot;
+
+    // DeviceRegistry删除设备时会回调evict，延迟注入避免循环依赖
+    @Lazy
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+
+    @Value("${device.state.flush-interval:1000}")
+    private long flushIntervalMillis;
+
+    @Value("${device.state.shutdown-timeout:10000}")
+    private long shutdownTimeoutMillis;
+
+    @Value("${device.state.negative-ttl:60000}")
+    private long negativeTtlMillis;
+
+    @Value("${mqtt.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    @Value("${device.state.cluster-ttl:30000}")
+    private long clusterTtlMillis;
+
+    private final Map<String, Entry> states = new ConcurrentHashMap<>();
+
+    // 有未落库修改的设备
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+
+    private Thread flusher;
+    private volatile boolean running;
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder rowsUpdated = new LongAdder();
+    private final LongAdder rowsInserted = new LongAdder();
+    private final LongAdder rowsFailed = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder flushCount = new LongAdder();
+    private volatile long lastFlushNanos;
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        flusher = new Thread(this::flushLoop, "device-state-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("设备最新状态存储已启动 - 刷新间隔: {}ms", flushIntervalMillis);
+    }
+
+    /**
+     * 获取设备当前数据的副本，设备没有任何数据时返回null
+     */
+    public DeviceData get(String vid) {
+        if (vid == null) {
+            return null;
+        }
+        if (!states.containsKey(vid) && deviceRegistry.findByVid(vid).isEmpty()) {
+            // 未登记的设备不建立条目，直接查询
+            DeviceData row = deviceDataRepository.findTopByVidOrderByCreatedAtDesc(vid);
+            loads.increment();
+            return row != null ? copy(row) : null;
+        }
+        DeviceData state = entry(vid).state;
+        return state != null ? copy(state) : null;
+    }
+
+    /**
+     * 批量获取多台设备当前数据的副本，内存中没有的设备合并为一次查询加载
+     *
+     * @return VID -> 当前数据，没有任何数据的设备不在结果中
+     */
+    public Map<String, DeviceData> getAll(Collection<String> vids) {
+        Map<String, DeviceData> result = new HashMap<>();
+        Set<String> toLoad = new LinkedHashSet<>();
+        long now = System.currentTimeMillis();
+        for (String vid : vids) {
+            if (vid == null) {
+                continue;
+            }
+            Entry entry = states.get(vid);
+            if (entry == null || entry.isExpired(now)) {
+                toLoad.add(vid);
+            } else if (entry.state != null) {
+                result.put(vid, copy(entry.state));
+            }
+        }
+        if (toLoad.isEmpty()) {
+            return result;
+        }
+
+        Map<String, DeviceData> rows = new HashMap<>();
+        for (DeviceData row : deviceDataRepository.findLatestByVidIn(toLoad)) {
+            // 同一时间有多行时保留ID最大的一行
+            rows.merge(row.getVid(), row, (a, b) -> b.getId() != null && (a.getId() == null || b.getId() > a.getId()) ? b : a);
+        }
+        loads.increment();
+        Set<String> registered = deviceRegistry.findAllByVid(toLoad).keySet();
+        for (String vid : toLoad) {
+            DeviceData row = rows.get(vid);
+            if (!registered.contains(vid)) {
+                if (row != null) {
+                    result.put(vid, copy(row));
+                }
+                continue;
+            }
+            // 没有数据的设备也建立条目，在negative-ttl内不再查询
+            DeviceData state = loaded(vid, row).state;
+            if (state != null) {
+                result.put(vid, copy(state));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 修改设备当前数据
+     * updater收到当前数据的副本（没有数据时为null），返回新的数据；返回null表示不修改。
+     * 同一设备的修改串行执行；未登记的设备不建立条目，直接读写数据库
+     *
+     * @return 修改后的数据副本，未修改时返回当前数据副本
+     */
+    public DeviceData update(String vid, UnaryOperator<DeviceData> updater) {
+        if (!states.containsKey(vid) && deviceRegistry.findByVid(vid).isEmpty()) {
+            return writeThrough(vid, updater);
+        }
+        Entry entry = entry(vid);
+        synchronized (entry) {
+            DeviceData next = updater.apply(entry.state != null ? copy(entry.state) : null);
+            if (next == null) {
+                return entry.state != null ? copy(entry.state) : null;
+            }
+            next.setVid(vid);
+            next.setId(entry.id);
+            if (next.getCreatedAt() == null) {
+                next.setCreatedAt(LocalDateTime.now());
+            }
+            entry.state = next;
+            entry.expiresAt = localExpiry();
+            updates.increment();
+            dirty.add(vid);
+            deviceRealTimeSnapshot.onReading(copy(next));
+            return copy(next);
+        }
+    }
+
+    /**
+     * 未登记设备的修改：查询最新一行，修改后直接保存，不缓存也不推送到实时数据快照
+     */
+    private DeviceData writeThrough(String vid, UnaryOperator<DeviceData> updater) {
+        DeviceData current = deviceDataRepository.findTopByVidOrderByCreatedAtDesc(vid);
+        loads.increment();
+        DeviceData next = updater.apply(current != null ? copy(current) : null);
+        if (next == null) {
+            return current != null ? copy(current) : null;
+        }
+        next.setVid(vid);
+        next.setId(current != null ? current.getId() : null);
+        if (next.getCreatedAt() == null) {
+            next.setCreatedAt(LocalDateTime.now());
+        }
+        DeviceData saved = deviceDataRepository.save(next);
+        updates.increment();
+        if (current != null) {
+            rowsUpdated.increment();
+        } else {
+            rowsInserted.increment();
+        }
+        return copy(saved);
+    }
+
+    /**
+     * 用已经直接写入数据库的数据刷新内存快照（管理端直接修改device_data时调用）
+     */
+    public void refresh(DeviceData saved) {
+        if (saved == null || saved.getVid() == null) {
+            return;
+        }
+        Entry entry = entry(saved.getVid());
+        synchronized (entry) {
+            entry.state = copy(saved);
+            entry.expiresAt = localExpiry();
+            if (saved.getId() != null) {
+                entry.id = saved.getId();
+            }
+            deviceRealTimeSnapshot.onReading(copy(saved));
+        }
+    }
+
+    /**
+     * 移除设备的内存快照，下次访问时重新从数据库加载
+     */
+    public void evict(String vid) {
+        dirty.remove(vid);
+        states.remove(vid);
+    }
+
+    private Entry entry(String vid) {
+        Entry entry = states.get(vid);
+        if (entry != null && !entry.isExpired(System.currentTimeMillis())) {
+            return entry;
+        }
+        // 首次访问或缓存的"没有数据"过期时从数据库加载，之后读取都走内存
+        DeviceData row = deviceDataRepository.findTopByVidOrderByCreatedAtDesc(vid);
+        loads.increment();
+        return loaded(vid, row);
+    }
+
+    /**
+     * 用数据库中的行建立条目，已有条目过期时原地替换（其他线程可能正持有该条目）
+     */
+    private Entry loaded(String vid, DeviceData row) {
+        long expiresAt = expiryFor(row);
+        Entry created = new Entry(row, expiresAt);
+        Entry entry = states.putIfAbsent(vid, created);
+        if (entry == null) {
+            return created;
+        }
+        synchronized (entry) {
+            if (entry.isExpired(System.currentTimeMillis()) && !dirty.contains(vid)) {
+                entry.state = row != null ? copy(row) : null;
+                entry.id = row != null ? row.getId() : null;
+                entry.expiresAt = expiresAt;
+            }
+        }
+        return entry;
+    }
+
+    private long expiryFor(DeviceData row) {
+        return row != null ? localExpiry() : System.currentTimeMillis() + negativeTtlMillis;
+    }
+
+    private long localExpiry() {
+        return clusterEnabled ? System.currentTimeMillis() + clusterTtlMillis : Long.MAX_VALUE;
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                Thread.sleep(flushIntervalMillis);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+            flush();
+        }
+    }
+
+    /**
+     * 把所有脏设备的最新数据写回device_data：已有行批量UPDATE，新设备INSERT并记录主键
+     */
+    private synchronized void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<Object[]> updatesBatch = new ArrayList<>();
+        List<String> updatedVids = new ArrayList<>();
+        for (String vid : dirty) {
+            dirty.remove(vid);
+            Entry entry = states.get(vid);
+            if (entry == null) {
+                continue;
+            }
+            DeviceData snapshot;
+            Long id;
+            synchronized (entry) {
+                snapshot = entry.state;
+                id = entry.id;
+            }
+            if (snapshot == null) {
+                continue;
+            }
+            if (id == null) {
+                insert(vid, entry, snapshot);
+            } else {
+                updatesBatch.add(updateArgs(snapshot, id));
+                updatedVids.add(vid);
+            }
+        }
+        if (!updatesBatch.isEmpty()) {
+            try {
+                jdbcTemplate.batchUpdate(UPDATE_SQL, updatesBatch, new int[] {
+                        Types.DOUBLE, Types.DOUBLE, Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.INTEGER,
+                        Types.INTEGER, Types.INTEGER, Types.TIMESTAMP, Types.TIMESTAMP, Types.BIGINT });
+                rowsUpdated.add(updatesBatch.size());
+            } catch (Exception e) {
+                // 写入失败的设备重新标记为脏，下个周期重试
+                rowsFailed.add(updatesBatch.size());
+                dirty.addAll(updatedVids);
+                log.error("批量写回设备最新数据失败 - 设备数: {}, 错误: {}", updatesBatch.size(), e.getMessage(), e);
+            }
+        }
+        lastFlushNanos = System.nanoTime() - start;
+        flushCount.increment();
+    }
+
+    private void insert(String vid, Entry entry, DeviceData snapshot) {
+        try {
+            KeyHolder keyHolder = new GeneratedKeyHolder();
+            jdbcTemplate.update(connection -> {
+                PreparedStatement ps = connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+                ps.setString(1, vid);
+                setNullableDouble(ps, 2, snapshot.getTin());
+                setNullableDouble(ps, 3, snapshot.getTout());
+                setNullableInt(ps, 4, snapshot.getHin());
+                setNullableInt(ps, 5, snapshot.getHout());
+                setNullableInt(ps, 6, snapshot.getLxin());
+                setNullableInt(ps, 7, snapshot.getLxout());
+                setNullableInt(ps, 8, snapshot.getBrightness());
+                setNullableInt(ps, 9, snapshot.getVstatus());
+                ps.setTimestamp(10, toTimestamp(snapshot.getTimestamp() != null ? snapshot.getTimestamp() : snapshot.getCreatedAt()));
+                ps.setTimestamp(11, toTimestamp(snapshot.getCreatedAt()));
+                ps.setTimestamp(12, toTimestamp(snapshot.getUpdatedAt()));
+                return ps;
+            }, keyHolder);
+            Number key = keyHolder.getKey();
+            if (key != null) {
+                synchronized (entry) {
+                    entry.id = key.longValue();
+                    if (entry.state != null) {
+                        DeviceData withId = copy(entry.state);
+                        withId.setId(entry.id);
+                        entry.state = withId;
+                    }
+                }
+            }
+            rowsInserted.increment();
+        } catch (Exception e) {
+            rowsFailed.increment();
+            dirty.add(vid);
+            log.error("写入设备最新数据失败 - VID: {}, 错误: {}", vid, e.getMessage(), e);
+        }
+    }
+
+    private static Object[] updateArgs(DeviceData snapshot, Long id) {
+        return new Object[] {
+                snapshot.getTin(), snapshot.getTout(), snapshot.getHin(), snapshot.getHout(),
+                snapshot.getLxin(), snapshot.getLxout(), snapshot.getBrightness(), snapshot.getVstatus(),
+                toTimestamp(snapshot.getTimestamp()), toTimestamp(snapshot.getUpdatedAt()), id };
+    }
+
+    private static Timestamp toTimestamp(LocalDateTime time) {
+        return time != null ? Timestamp.valueOf(time) : null;
+    }
+
+    private static void setNullableDouble(PreparedStatement ps, int index, Double value) throws SQLException {
+        if (value != null) {
+            ps.setDouble(index, value);
+        } else {
+            ps.setNull(index, Types.DOUBLE);
+        }
+    }
+
+    private static void setNullableInt(PreparedStatement ps, int index, Integer value) throws SQLException {
+        if (value != null) {
+            ps.setInt(index, value);
+        } else {
+            ps.setNull(index, Types.INTEGER);
+        }
+    }
+
+    private static DeviceData copy(DeviceData source) {
+        DeviceData target = new DeviceData();
+        target.setId(source.getId());
+        target.setVid(source.getVid());
+        target.setTin(source.getTin());
+        target.setTout(source.getTout());
+        target.setHin(source.getHin());
+        target.setHout(source.getHout());
+        target.setLxin(source.getLxin());
+        target.setLxout(source.getLxout());
+        target.setBrightness(source.getBrightness());
+        target.setVstatus(source.getVstatus());
+        target.setCreatedAt(source.getCreatedAt());
+        target.setUpdatedAt(source.getUpdatedAt());
+        target.setTimestamp(source.getTimestamp());
+        return target;
+    }
+
+    /**
+     * 获取存储运行统计：设备数、待写回数、修改次数与实际落库行数
+     */
+    public Map<String, Object> getStatistics() {
+        long updateCount = updates.sum();
+        long written = rowsUpdated.sum() + rowsInserted.sum();
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("devices", states.size());
+        statistics.put("dirty", dirty.size());
+        statistics.put("updates", updateCount);
+        statistics.put("rowsUpdated", rowsUpdated.sum());
+        statistics.put("rowsInserted", rowsInserted.sum());
+        statistics.put("rowsFailed", rowsFailed.sum());
+        statistics.put("coalesced", Math.max(0, updateCount - written - dirty.size()));
+        statistics.put("loads", loads.sum());
+        statistics.put("flushCount", flushCount.sum());
+        statistics.put("lastFlushMs", lastFlushNanos / 1_000_000.0);
+        return statistics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join(shutdownTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 关闭前把剩余的修改写回数据库
+        flush();
+        log.info("设备最新状态存储已关闭 - 累计更新: {} 行, 新增: {} 行, 失败: {} 行",
+                rowsUpdated.sum(), rowsInserted.sum(), rowsFailed.sum());
+    }
+
+    private static final class Entry {
+        private volatile DeviceData state;
+        private volatile Long id;
+        // 何时需要从数据库重新查询：没有数据时negative-ttl后，集群模式下最后一次加载或修改的cluster-ttl后
+        private volatile long expiresAt;
+
+        private Entry(DeviceData row, long expiresAt) {
+            this.state = row != null ? copy(row) : null;
+            this.id = row != null ? row.getId() : null;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return expiresAt <= now;
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package com.iot.fresh.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iot.fresh.entity.Device;
+import com.iot.fresh.handler.PartitionedIngestExecutor;
+import com.iot.fresh.websocket.WebSocketEndpoint;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 设备在线检测
+ * 使用哈希时间轮跟踪每台设备的最后活动时间：收到消息只更新节点上的时间戳（O(1)），
+ * 节点到期所在槽位时才检查是否真正超时，未超时则按新的截止时间放回时间轮（惰性重排）。
+ * 超时的设备标记为离线，离线设备再次上报时标记为在线，状态变化写入devices、device_data、
+ * 历史表并通过/ws推送给前端。不需要周期性扫描devices表。
+ * 集群模式下每个节点只跟踪自己收到过消息的设备，不在启动时加载全部在线设备，否则节点会把
+ * 由其他节点接收的设备判为超时并写入离线；设备改由本节点接收时，到期复查发现数据库中仍为
+ * 离线的活跃设备会重新写回在线
+ */
+@Service
+public class DeviceLivenessTracker {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceLivenessTracker.class);
+
+    private static final int STATUS_OFFLINE = 0;
+    private static final int STATUS_ONLINE = 1;
+
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+
+    @Autowired
+    private DataService dataService;
+
+    @Autowired
+    private DeviceDataHistoryService deviceDataHistoryService;
+
+    @Autowired
+    private PartitionedIngestExecutor ingestExecutor;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${device.liveness.enabled:true}")
+    private boolean enabled;
+
+    @Value("${mqtt.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    @Value("${device.liveness.tick:1000}")
+    private long tickMillis;
+
+    @Value("${device.liveness.wheel-size:512}")
+    private int wheelSize;
+
+    @Value("${device.liveness.default-timeout:180000}")
+    private long defaultTimeoutMillis;
+
+    // 按设备类型配置的超时时间，格式: 类型=毫秒,类型=毫秒
+    @Value("${device.liveness.type-timeouts:}")
+    private String typeTimeoutConfig;
+
+    private final Map<String, Long> typeTimeouts = new HashMap<>();
+
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+
+    // 时间轮槽位，由wheelLock保护
+    private ArrayDeque<Node>[] wheel;
+    private final Object wheelLock = new Object();
+    private long currentTick;
+    private long startNanos;
+
+    private Thread ticker;
+    private volatile boolean running;
+
+    private final LongAdder touches = new LongAdder();
+    private final LongAdder reschedules = new LongAdder();
+    private final LongAdder onlineTransitions = new LongAdder();
+    private final LongAdder offlineTransitions = new LongAdder();
+    private volatile long lastTickLagMillis;
+
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    public void start() {
+        parseTypeTimeouts();
+        wheel = new ArrayDeque[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        startNanos = System.nanoTime();
+        if (!enabled) {
+            log.info("设备在线检测未启用");
+            return;
+        }
+        if (!clusterEnabled) {
+            seedOnlineDevices();
+        }
+        running = true;
+        ticker = new Thread(this::tickLoop, "device-liveness-wheel");
+        ticker.setDaemon(true);
+        ticker.start();
+        log.info("设备在线检测已启动 - 刻度: {}ms, 槽位数: {}, 默认超时: {}ms, 类型超时: {}",
+                tickMillis, wheelSize, defaultTimeoutMillis, typeTimeouts);
+    }
+
+    /**
+     * 设备有活动（数据、报警、RFID、WebSocket连接或消息），离线设备转为在线
+     */
+    public void touch(String vid) {
+        if (!enabled || vid == null) {
+            return;
+        }
+        Node node = node(vid);
+        if (node == null) {
+            return;
+        }
+        node.lastSeen = now();
+        touches.increment();
+        if (!node.online) {
+            boolean changed = false;
+            synchronized (node) {
+                if (!node.online) {
+                    node.online = true;
+                    changed = true;
+                }
+            }
+            if (changed) {
+                onlineTransitions.increment();
+                applyTransition(vid, STATUS_ONLINE);
+            }
+        }
+        ensureScheduled(node);
+    }
+
+    /**
+     * 设备主动上报了状态，状态本身由上报路径写库，这里只同步在线标记，不再产生状态变化
+     */
+    public void statusReported(String vid, Integer status) {
+        if (!enabled || vid == null || status == null) {
+            return;
+        }
+        Node node = node(vid);
+        if (node == null) {
+            return;
+        }
+        node.lastSeen = now();
+        touches.increment();
+        synchronized (node) {
+            node.online = status != STATUS_OFFLINE;
+        }
+        ensureScheduled(node);
+    }
+
+    /**
+     * 设备当前是否被判定为在线，未跟踪的设备返回null
+     */
+    public Boolean isOnline(String vid) {
+        Node node = vid != null ? nodes.get(vid) : null;
+        return node != null ? node.online : null;
+    }
+
+    private Node node(String vid) {
+        Node node = nodes.get(vid);
+        if (node != null) {
+            return node;
+        }
+        // 首次出现时按设备类型确定超时时间，未注册的设备不跟踪
+        Optional<Device> device = deviceRegistry.findByVid(vid);
+        if (!device.isPresent()) {
+            return null;
+        }
+        Device d = device.get();
+        Node created = new Node(vid, timeoutFor(d.getDeviceType()), now(),
+                d.getStatus() != null && d.getStatus() != STATUS_OFFLINE);
+        Node existing = nodes.putIfAbsent(vid, created);
+        return existing != null ? existing : created;
+    }
+
+    private void ensureScheduled(Node node) {
+        // 已在时间轮中的节点只需更新时间戳，到期时再按新时间重排
+        if (node.scheduled) {
+            return;
+        }
+        synchronized (wheelLock) {
+            if (!node.scheduled) {
+                place(node);
+            }
+        }
+    }
+
+    // 调用方需持有wheelLock
+    private void place(Node node) {
+        long deadlineTick = (node.lastSeen + node.timeoutMillis) / tickMillis;
+        // 截止时间已过或落在当前刻度，放到下一刻度检查
+        long tick = Math.max(deadlineTick, currentTick + 1);
+        wheel[(int) (tick % wheelSize)].addLast(node);
+        node.scheduled = true;
+    }
+
+    private void tickLoop() {
+        while (running) {
+            long target = (currentTick + 1) * tickMillis;
+            long sleep = target - now();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        break;
+                    }
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            try {
+                advance();
+            } catch (Exception e) {
+                log.error("设备在线检测处理失败: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 推进时间轮到当前时间，逐个处理经过的槽位
+     */
+    private void advance() {
+        long nowTick = now() / tickMillis;
+        List<Node> due = new ArrayList<>();
+        List<Node> recheck = new ArrayList<>();
+        synchronized (wheelLock) {
+            while (currentTick < nowTick) {
+                currentTick++;
+                ArrayDeque<Node> slot = wheel[(int) (currentTick % wheelSize)];
+                int size = slot.size();
+                for (int i = 0; i < size; i++) {
+                    Node node = slot.pollFirst();
+                    node.scheduled = false;
+                    if (node.lastSeen + node.timeoutMillis > now()) {
+                        // 期间有新活动或还有剩余轮次，按最新时间放回
+                        place(node);
+                        reschedules.increment();
+                        if (clusterEnabled && node.online) {
+                            recheck.add(node);
+                        }
+                    } else {
+                        due.add(node);
+                    }
+                }
+            }
+        }
+        lastTickLagMillis = now() - nowTick * tickMillis;
+        for (Node node : due) {
+            expire(node);
+        }
+        for (Node node : recheck) {
+            // 其他节点可能在设备转交前把它写成了离线，applyTransition只在数据库中为离线时写入
+            ingestExecutor.execute(node.vid, () -> applyTransition(node.vid, STATUS_ONLINE));
+        }
+    }
+
+    private void expire(Node node) {
+        boolean changed = false;
+        synchronized (node) {
+            if (node.online) {
+                // 先清除在线标记再复查时间戳，与touch中的先写时间戳再读标记配对，
+                // 两边至少有一方能看到对方的写入，不会漏掉超时期间到达的消息
+                node.online = false;
+                if (node.lastSeen + node.timeoutMillis > now()) {
+                    node.online = true;
+                } else {
+                    changed = true;
+                }
+            }
+        }
+        if (changed) {
+            offlineTransitions.increment();
+            // 离线状态交给该设备所在的工作通道处理，与设备自身的消息保持顺序
+            ingestExecutor.execute(node.vid, () -> applyTransition(node.vid, STATUS_OFFLINE));
+        } else if (node.online) {
+            ensureScheduled(node);
+        }
+    }
+
+    /**
+     * 写入状态变化：devices表、device_data当前状态、历史表，并推送给前端
+     */
+    private void applyTransition(String vid, int status) {
+        try {
+            Optional<Device> device = deviceRegistry.findByVid(vid);
+            if (!device.isPresent()) {
+                // 设备已被删除
+                nodes.remove(vid);
+                return;
+            }
+            Integer current = device.get().getStatus();
+            if (status == STATUS_ONLINE && current != null && current != STATUS_OFFLINE) {
+                // 已经是在线、故障或维护状态，不覆盖
+                return;
+            }
+            if (status == STATUS_OFFLINE && (current == null || current != STATUS_ONLINE)) {
+                return;
+            }
+            dataService.updateDeviceStatus(vid, status);
+            dataService.updateDeviceDataStatus(vid, status);
+            deviceDataHistoryService.saveStatusHistory(vid, status);
+            pushStatus(vid, status);
+            log.info("设备{} - VID: {}", status == STATUS_ONLINE ? "上线" : "离线", vid);
+        } catch (Exception e) {
+            log.error("更新设备在线状态失败 - VID: {}, 状态: {}, 错误: {}", vid, status, e.getMessage(), e);
+        }
+    }
+
+    private void pushStatus(String vid, int status) {
+        try {
+            Map<String, Object> data = new HashMap<>();
+            data.put("vid", vid);
+            data.put("status", status);
+            data.put("online", status == STATUS_ONLINE);
+            data.put("timestamp", LocalDateTime.now().toString());
+
+            Map<String, Object> message = new HashMap<>();
+            message.put("type", "device_status");
+            message.put("data", data);
+            WebSocketEndpoint.sendMessageToAll(objectMapper.writeValueAsString(message));
+        } catch (Exception e) {
+            log.error("推送设备状态失败 - VID: {}, 错误: {}", vid, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 启动时把数据库中在线的设备放入时间轮，给一个完整的超时周期等待其上报
+     */
+    private void seedOnlineDevices() {
+        try {
+            List<Map<String, Object>> rows =
+                    jdbcTemplate.queryForList("SELECT vid, device_type FROM devices WHERE status = ?", STATUS_ONLINE);
+            long now = now();
+            synchronized (wheelLock) {
+                for (Map<String, Object> row : rows) {
+                    String vid = (String) row.get("vid");
+                    Node node = new Node(vid, timeoutFor((String) row.get("device_type")), now, true);
+                    if (nodes.putIfAbsent(vid, node) == null) {
+                        place(node);
+                    }
+                }
+            }
+            log.info("设备在线检测已加载在线设备 - 数量: {}", rows.size());
+        } catch (Exception e) {
+            log.error("加载在线设备失败，仅跟踪之后上报的设备: {}", e.getMessage(), e);
+        }
+    }
+
+    private long timeoutFor(String deviceType) {
+        if (deviceType != null) {
+            Long timeout = typeTimeouts.get(deviceType);
+            if (timeout != null) {
+                return timeout;
+            }
+        }
+        return defaultTimeoutMillis;
+    }
+
+    private void parseTypeTimeouts() {
+        if (typeTimeoutConfig == null || typeTimeoutConfig.trim().isEmpty()) {
+            return;
+        }
+        for (String item : typeTimeoutConfig.split(",")) {
+            int eq = item.indexOf('=');
+            if (eq <= 0) {
+                continue;
+            }
+            try {
+                typeTimeouts.put(item.substring(0, eq).trim(), Long.parseLong(item.substring(eq + 1).trim()));
+            } catch (NumberFormatException e) {
+                log.warn("忽略无效的设备类型超时配置: {}", item);
+            }
+        }
+    }
+
+    // 单调时钟，毫秒
+    private long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 获取在线检测统计
+     */
+    public Map<String, Object> getStatistics() {
+        long online = nodes.values().stream().filter(node -> node.online).count();
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("enabled", enabled);
+        statistics.put("tracked", nodes.size());
+        statistics.put("online", online);
+        statistics.put("touches", touches.sum());
+        statistics.put("reschedules", reschedules.sum());
+        statistics.put("onlineTransitions", onlineTransitions.sum());
+        statistics.put("offlineTransitions", offlineTransitions.sum());
+        statistics.put("tickLagMs", lastTickLagMillis);
+        return statistics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (ticker != null) {
+            ticker.interrupt();
+        }
+    }
+
+    private static final class Node {
+        private final String vid;
+        private final long timeoutMillis;
+        private volatile long lastSeen;
+        private volatile boolean online;
+        // 是否在时间轮中，写入时持有wheelLock
+        private volatile boolean scheduled;
+
+        private Node(String vid, long timeoutMillis, long lastSeen, boolean online) {
+            this.vid = vid;
+            this.timeoutMillis = timeoutMillis;
+            this.lastSeen = lastSeen;
+            this.online = online;
+        }
+    }
+}
@@ -0,0 +1,532 @@
+package com.iot.fresh.service;
+
+import com.iot.fresh.entity.Device;
+import com.iot.fresh.entity.DeviceData;
+import com.iot.fresh.repository.DeviceDataRepository;
+import com.iot.fresh.repository.DeviceRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * 设备实时数据快照
+ * 在内存中按VID保存"设备信息 + 最新读数"的联合视图，实时数据接口一次遍历即可返回全部设备
+ * 或过滤后的一页，不再逐台设备查询最新数据。
+ * 最新读数由DeviceLatestStateStore在每次修改后推送，设备信息由DeviceRegistry在保存、删除后推送，
+ * 心跳由DeviceHeartbeatTracker在每个写回周期合并推送，返回的每个字段都随版本号变化。
+ * 每次变化给该行分配一个递增的版本号，客户端带上次拿到的版本号请求时只返回之后变化的设备
+ * 和已删除的VID；版本号从启动时间(微秒)开始，重启后旧版本号一定小于新的起点，直接返回全量。
+ * 已删除的VID保留一段时间后清除，早于被清除记录版本号的请求同样返回全量。
+ * 集群模式下其他节点接收的设备不会推送到本节点，后台线程定期重新加载，只有比内存新的读数和
+ * 有变化的设备信息才分配新版本号
+ */
+@Service
+public class DeviceRealTimeSnapshot {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceRealTimeSnapshot.class);
+
+    @Autowired
+    private DeviceRepository deviceRepository;
+
+    @Autowired
+    private DeviceDataRepository deviceDataRepository;
+
+    @Lazy
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+
+    @Value("${mqtt.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    @Value("${device.snapshot.cluster-refresh-interval:30000}")
+    private long clusterRefreshIntervalMillis;
+
+    @Value("${device.snapshot.tombstone-retention:3600000}")
+    private long tombstoneRetentionMillis;
+
+    // 按VID批量查询最新读数时每批的VID数
+    private static final int LOAD_BATCH_SIZE = 500;
+
+    private final long startVersion = System.currentTimeMillis() * 1000;
+
+    private final AtomicLong version = new AtomicLong(startVersion);
+
+    // 增量查询支持的最早版本号：已清除的删除记录中最大的版本号，更早的请求返回全量
+    private final AtomicLong minDeltaVersion = new AtomicLong(startVersion);
+
+    private final Map<String, Row> rows = new ConcurrentHashMap<>();
+
+    // 设备ID -> VID，设备修改VID时用于移除旧VID的行
+    private final Map<Long, String> vidById = new ConcurrentHashMap<>();
+
+    // 已删除的VID -> 删除时间(毫秒)，超过保留时间后清除该行
+    private final Map<String, Long> tombstones = new ConcurrentHashMap<>();
+
+    // 修改方共享持有读锁；读取版本号时独占写锁，保证该版本号之前的修改都已写入rows
+    private final ReentrantReadWriteLock versionLock = new ReentrantReadWriteLock();
+
+    private final LongAdder fullQueries = new LongAdder();
+    private final LongAdder deltaQueries = new LongAdder();
+
+    private Thread refresher;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        reload();
+        if (clusterEnabled) {
+            running = true;
+            refresher = new Thread(this::refreshLoop, "device-snapshot-refresher");
+            refresher.setDaemon(true);
+            refresher.start();
+        }
+    }
+
+    /**
+     * 从数据库加载全部设备和每台设备的最新读数；读数以更新时间较新的一方为准，
+     * 设备信息、读数和心跳（集群中其他节点写回的last_heartbeat）都没有变化的行保留原版本号
+     * 最新读数按VID分批查询，每台设备只取一行，不加载device_data的全部记录
+     */
+    public void reload() {
+        try {
+            long before = version.get();
+            List<Device> devices = deviceRepository.findAll();
+            Map<String, DeviceData> latest = loadLatest(devices);
+            Set<String> loadedVids = new HashSet<>();
+            for (Device device : devices) {
+                vidById.put(device.getId(), device.getVid());
+                loadedVids.add(device.getVid());
+                DeviceData loaded = latest.get(device.getVid());
+                apply(device.getVid(), row -> {
+                    DeviceData data = row != null ? newer(row.data(), loaded) : loaded;
+                    if (row != null && row.device() != null && data == row.data() && sameDevice(row.device(), device)
+                            && !isAfter(device.getLastHeartbeat(), later(row.heartbeat(), row.device().getLastHeartbeat()))) {
+                        return row;
+                    }
+                    tombstones.remove(device.getVid());
+                    return new Row(device, data, row != null ? row.heartbeat() : null, nextVersion());
+                });
+            }
+            // 已被其他节点删除的设备；加载期间本节点新增或修改的行版本号更大，不受影响
+            for (String vid : rows.keySet()) {
+                if (!loadedVids.contains(vid)) {
+                    apply(vid, row -> row != null && row.device() != null && row.version() <= before
+                            ? tombstone(vid, row) : row);
+                }
+            }
+            expireTombstones();
+            log.debug("设备实时数据快照已加载 - 设备: {}, 读数: {}, 版本: {}", devices.size(), latest.size(), version.get());
+        } catch (Exception e) {
+            log.error("加载设备实时数据快照失败: {}", e.getMessage(), e);
+        }
+    }
+
+    private Map<String, DeviceData> loadLatest(List<Device> devices) {
+        Map<String, DeviceData> latest = new HashMap<>();
+        List<String> vids = new ArrayList<>();
+        for (Device device : devices) {
+            if (device.getVid() != null) {
+                vids.add(device.getVid());
+            }
+        }
+        for (int from = 0; from < vids.size(); from += LOAD_BATCH_SIZE) {
+            List<String> batch = vids.subList(from, Math.min(from + LOAD_BATCH_SIZE, vids.size()));
+            for (DeviceData data : deviceDataRepository.findLatestByVidIn(batch)) {
+                // 同一时间有多行时保留ID最大的一行
+                latest.merge(data.getVid(), data, (a, b) ->
+                        b.getId() != null && (a.getId() == null || b.getId() > a.getId()) ? b : a);
+            }
+        }
+        return latest;
+    }
+
+    private static DeviceData newer(DeviceData current, DeviceData loaded) {
+        if (current == null || loaded == null) {
+            return current != null ? current : loaded;
+        }
+        LocalDateTime currentTime = current.getUpdatedAt() != null ? current.getUpdatedAt() : current.getCreatedAt();
+        LocalDateTime loadedTime = loaded.getUpdatedAt() != null ? loaded.getUpdatedAt() : loaded.getCreatedAt();
+        return loadedTime != null && (currentTime == null || loadedTime.isAfter(currentTime)) ? loaded : current;
+    }
+
+    // 比较列表中展示的字段
+    private static boolean sameDevice(Device a, Device b) {
+        return Objects.equals(a.getId(), b.getId())
+                && Objects.equals(a.getVid(), b.getVid())
+                && Objects.equals(a.getDeviceName(), b.getDeviceName())
+                && Objects.equals(a.getDeviceType(), b.getDeviceType())
+                && Objects.equals(a.getLocation(), b.getLocation())
+                && Objects.equals(a.getStatus(), b.getStatus())
+                && Objects.equals(a.getCreatedAt(), b.getCreatedAt())
+                && Objects.equals(a.getContactPhone(), b.getContactPhone())
+                && Objects.equals(a.getDescription(), b.getDescription());
+    }
+
+    private void refreshLoop() {
+        while (running) {
+            try {
+                Thread.sleep(clusterRefreshIntervalMillis);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+            reload();
+        }
+    }
+
+    /**
+     * 设备最新读数变化
+     * 未登记的设备不保存读数，登记后由下一条读数或集群模式的重新加载带上；
+     * 其他节点登记、本节点尚未加载的设备从DeviceRegistry取设备信息
+     */
+    public void onReading(DeviceData data) {
+        if (data == null || data.getVid() == null) {
+            return;
+        }
+        Row current = rows.get(data.getVid());
+        Device registered = null;
+        if (current == null || current.device() == null) {
+            registered = deviceRegistry.findByVid(data.getVid()).orElse(null);
+            if (registered == null) {
+                return;
+            }
+        }
+        Device device = registered;
+        apply(data.getVid(), row -> {
+            if (row != null && row.device() != null) {
+                return new Row(row.device(), data, row.heartbeat(), nextVersion());
+            }
+            if (device == null) {
+                // 查询登记信息期间设备被删除
+                return row;
+            }
+            if (device.getId() != null) {
+                vidById.put(device.getId(), device.getVid());
+            }
+            tombstones.remove(device.getVid());
+            return new Row(device, data, null, nextVersion());
+        });
+    }
+
+    /**
+     * 一个写回周期内收到心跳的设备，每台设备每个周期最多分配一次新版本号
+     */
+    public void onHeartbeats(Map<String, LocalDateTime> heartbeats) {
+        heartbeats.forEach((vid, time) -> apply(vid, row -> {
+            if (row == null || row.device() == null
+                    || !isAfter(time, later(row.heartbeat(), row.device().getLastHeartbeat()))) {
+                return row;
+            }
+            return new Row(row.device(), row.data(), time, nextVersion());
+        }));
+    }
+
+    /**
+     * 设备新增或修改
+     */
+    public void onDeviceSaved(Device device) {
+        if (device == null || device.getVid() == null) {
+            return;
+        }
+        if (device.getId() != null) {
+            String previousVid = vidById.put(device.getId(), device.getVid());
+            if (previousVid != null && !previousVid.equals(device.getVid())) {
+                removeDevice(previousVid);
+            }
+        }
+        apply(device.getVid(), row -> {
+            tombstones.remove(device.getVid());
+            return new Row(device, row != null ? row.data() : null, row != null ? row.heartbeat() : null, nextVersion());
+        });
+    }
+
+    /**
+     * 设备删除
+     */
+    public void onDeviceDeleted(Device device) {
+        if (device == null || device.getVid() == null) {
+            return;
+        }
+        if (device.getId() != null) {
+            vidById.remove(device.getId());
+        }
+        removeDevice(device.getVid());
+    }
+
+    private void removeDevice(String vid) {
+        apply(vid, row -> row != null && row.device() != null ? tombstone(vid, row) : row);
+    }
+
+    // 保留读数和新的版本号，增量请求据此返回已删除的VID；在rows.compute中调用
+    private Row tombstone(String vid, Row row) {
+        tombstones.put(vid, System.currentTimeMillis());
+        return new Row(null, row.data(), null, nextVersion());
+    }
+
+    /**
+     * 清除超过保留时间的删除记录，并把增量查询支持的最早版本号推进到被清除记录的版本号
+     */
+    private void expireTombstones() {
+        long cutoff = System.currentTimeMillis() - tombstoneRetentionMillis;
+        for (Map.Entry<String, Long> entry : tombstones.entrySet()) {
+            if (entry.getValue() >= cutoff) {
+                continue;
+            }
+            String vid = entry.getKey();
+            apply(vid, row -> {
+                Long removedAt = tombstones.get(vid);
+                if (removedAt == null || removedAt >= cutoff) {
+                    // 期间重新登记或再次删除
+                    return row;
+                }
+                tombstones.remove(vid);
+                if (row == null || row.device() != null) {
+                    return row;
+                }
+                minDeltaVersion.accumulateAndGet(row.version(), Math::max);
+                return null;
+            });
+        }
+    }
+
+    private void apply(String vid, UnaryOperator<Row> updater) {
+        versionLock.readLock().lock();
+        try {
+            rows.compute(vid, (key, row) -> updater.apply(row));
+        } finally {
+            versionLock.readLock().unlock();
+        }
+    }
+
+    private long nextVersion() {
+        return version.incrementAndGet();
+    }
+
+    /**
+     * 当前版本号，返回时该版本号及之前的修改都已可见
+     */
+    public long currentVersion() {
+        versionLock.writeLock().lock();
+        try {
+            return version.get();
+        } finally {
+            versionLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 全部已登记设备的行，按设备ID排序
+     */
+    public List<Row> rows() {
+        List<Row> result = new ArrayList<>();
+        for (Row row : rows.values()) {
+            if (row.device() != null) {
+                result.add(row);
+            }
+        }
+        result.sort(BY_DEVICE_ID);
+        return result;
+    }
+
+    /**
+     * 全部已登记设备的实时数据，字段与/api/device/real-time-data一致
+     */
+    public List<Map<String, Object>> list() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Row row : rows()) {
+            result.add(toMap(row));
+        }
+        return result;
+    }
+
+    /**
+     * 查询快照
+     * since为空、早于本次启动、早于已清除的删除记录或晚于当前版本时返回全量（可分页）；
+     * 否则只返回since之后变化的设备，以及已删除或不再满足过滤条件的VID
+     *
+     * @param since   客户端上次拿到的版本号
+     * @param keyword 按VID或设备名称模糊匹配
+     * @param status  设备状态
+     * @return version、full、total、list、removed，全量时还有pageNum、pageSize
+     */
+    public Map<String, Object> query(Long since, String keyword, Integer status, Integer pageNum, Integer pageSize) {
+        expireTombstones();
+        long current = currentVersion();
+        boolean full = since == null || since < minDeltaVersion.get() || since > current;
+        Map<String, Object> result = new HashMap<>();
+        result.put("version", current);
+        result.put("full", full);
+
+        if (full) {
+            fullQueries.increment();
+            List<Row> matched = new ArrayList<>();
+            for (Row row : rows()) {
+                if (matches(row, keyword, status)) {
+                    matched.add(row);
+                }
+            }
+            int size = pageSize != null && pageSize > 0 ? pageSize : matched.size();
+            int page = pageNum != null && pageNum > 0 ? pageNum : 1;
+            int from = (int) Math.min((long) (page - 1) * size, matched.size());
+            int to = Math.min(from + size, matched.size());
+            List<Map<String, Object>> list = new ArrayList<>();
+            for (Row row : matched.subList(from, to)) {
+                list.add(toMap(row));
+            }
+            result.put("total", matched.size());
+            result.put("pageNum", page);
+            result.put("pageSize", size);
+            result.put("list", list);
+            result.put("removed", List.of());
+            return result;
+        }
+
+        deltaQueries.increment();
+        List<Row> changed = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (Map.Entry<String, Row> entry : rows.entrySet()) {
+            Row row = entry.getValue();
+            if (row.version() <= since) {
+                continue;
+            }
+            if (matches(row, keyword, status)) {
+                changed.add(row);
+            } else {
+                removed.add(entry.getKey());
+            }
+        }
+        changed.sort(BY_DEVICE_ID);
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Row row : changed) {
+            list.add(toMap(row));
+        }
+        result.put("total", list.size());
+        result.put("list", list);
+        result.put("removed", removed);
+        return result;
+    }
+
+    private static boolean matches(Row row, String keyword, Integer status) {
+        Device device = row.device();
+        if (device == null) {
+            return false;
+        }
+        if (status != null && !status.equals(device.getStatus())) {
+            return false;
+        }
+        if (keyword != null && !keyword.isEmpty()) {
+            return contains(device.getVid(), keyword) || contains(device.getDeviceName(), keyword);
+        }
+        return true;
+    }
+
+    private static boolean contains(String value, String keyword) {
+        return value != null && value.contains(keyword);
+    }
+
+    private Map<String, Object> toMap(Row row) {
+        Device device = row.device();
+        // 心跳取该行版本对应的值，与增量查询返回的内容一致
+        LocalDateTime heartbeat = later(row.heartbeat(), device.getLastHeartbeat());
+        Map<String, Object> deviceDataMap = new HashMap<>();
+
+        // 基本设备信息
+        deviceDataMap.put("id", device.getId());
+        deviceDataMap.put("vid", device.getVid());
+        deviceDataMap.put("deviceName", device.getDeviceName());
+        deviceDataMap.put("deviceType", device.getDeviceType());
+        deviceDataMap.put("location", device.getLocation());
+        deviceDataMap.put("status", device.getStatus());
+        deviceDataMap.put("lastOnlineTime", heartbeat != null ? heartbeat.toString() : null);
+        deviceDataMap.put("createTime", device.getCreatedAt() != null ? device.getCreatedAt().toString() : null);
+        deviceDataMap.put("contactPhone", device.getContactPhone());
+        deviceDataMap.put("description", device.getDescription());
+        deviceDataMap.put("lastHeartbeat", heartbeat);
+
+        // 最新传感器数据
+        DeviceData data = row.data();
+        if (data != null) {
+            deviceDataMap.put("tin", data.getTin());
+            deviceDataMap.put("tout", data.getTout());
+            deviceDataMap.put("hin", data.getHin());
+            deviceDataMap.put("hout", data.getHout());
+            deviceDataMap.put("lxin", data.getLxin());
+            deviceDataMap.put("lxout", data.getLxout());
+            deviceDataMap.put("brightness", data.getBrightness());
+            deviceDataMap.put("vStatus", data.getVstatus());
+            if (data.getTimestamp() != null) {
+                deviceDataMap.put("timestamp", data.getTimestamp().toString());
+            } else if (data.getCreatedAt() != null) {
+                deviceDataMap.put("timestamp", data.getCreatedAt().toString());
+            }
+        }
+        return deviceDataMap;
+    }
+
+    /**
+     * 获取快照统计：设备数、当前版本号、全量和增量查询次数
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("rows", rows.size());
+        statistics.put("tombstones", tombstones.size());
+        statistics.put("minDeltaVersion", minDeltaVersion.get());
+        statistics.put("startVersion", startVersion);
+        statistics.put("version", version.get());
+        statistics.put("fullQueries", fullQueries.sum());
+        statistics.put("deltaQueries", deltaQueries.sum());
+        return statistics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (refresher != null) {
+            refresher.interrupt();
+        }
+    }
+
+    private static LocalDateTime later(LocalDateTime a, LocalDateTime b) {
+        if (a == null || b == null) {
+            return a != null ? a : b;
+        }
+        return b.isAfter(a) ? b : a;
+    }
+
+    private static boolean isAfter(LocalDateTime time, LocalDateTime other) {
+        return time != null && (other == null || time.isAfter(other));
+    }
+
+    private static final Comparator<Row> BY_DEVICE_ID =
+            Comparator.comparing(row -> row.device().getId(), Comparator.nullsLast(Comparator.naturalOrder()));
+
+    /**
+     * 快照中的一行，device为null表示设备已删除；device和data都是不再修改的副本，
+     * heartbeat为最近一次推送的心跳时间，未推送过时为null
+     */
+    public record Row(Device device, DeviceData data, LocalDateTime heartbeat, long version) {
+    }
+}
@@ -0,0 +1,275 @@
+package com.iot.fresh.service;
+
+import com.iot.fresh.entity.Device;
+import com.iot.fresh.handler.IngestDeduplicator;
+import com.iot.fresh.repository.DeviceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 设备注册表缓存
+ * 在DeviceRepository前按VID缓存设备信息，热点路径（报警、历史数据、状态更新、统计）
+ * 不再每次查询devices表。写操作经由本类直达数据库并同步更新缓存（write-through）；
+ * 不存在的VID也会缓存一段时间，避免未知设备反复查库。写操作同时更新设备状态计数和实时数据快照，
+ * 删除设备时一并清除其最新状态、心跳和去重记录。
+ * 集群模式下其他节点也会写devices表，已缓存的设备在cluster-ttl后重新查询
+ * 返回的Device均为副本，调用方修改后需通过save写回
+ */
+@Service
+public class DeviceRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceRegistry.class);
+
+    @Autowired
+    private DeviceRepository deviceRepository;
+
+    @Autowired
+    private DeviceHeartbeatTracker deviceHeartbeatTracker;
+
+    @Autowired
+    private IngestDeduplicator ingestDeduplicator;
+
+    @Autowired
+    private DeviceStatusCounter deviceStatusCounter;
+
+    @Autowired
+    private DeviceRealTimeSnapshot deviceRealTimeSnapshot;
+
+    @Autowired
+    private DeviceLatestStateStore deviceLatestStateStore;
+
+    @Value("${device.registry.max-size:10000}")
+    private int maxSize;
+
+    @Value("${device.registry.negative-ttl:60000}")
+    private long negativeTtlMillis;
+
+    @Value("${mqtt.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    @Value("${device.registry.cluster-ttl:30000}")
+    private long clusterTtlMillis;
+
+    private final Map<String, Cached> devices = new ConcurrentHashMap<>();
+
+    // 不存在的VID -> 过期时间(毫秒)
+    private final Map<String, Long> missing = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * 根据VID查找设备，优先读缓存
+     */
+    public Optional<Device> findByVid(String vid) {
+        if (vid == null) {
+            return Optional.empty();
+        }
+        Cached cached = devices.get(vid);
+        if (cached != null && cached.expiresAt() > System.currentTimeMillis()) {
+            hits.increment();
+            return Optional.of(withHeartbeat(copy(cached.device())));
+        }
+        Long expiresAt = missing.get(vid);
+        if (expiresAt != null) {
+            if (expiresAt > System.currentTimeMillis()) {
+                negativeHits.increment();
+                return Optional.empty();
+            }
+            missing.remove(vid, expiresAt);
+        }
+
+        misses.increment();
+        Optional<Device> loaded = deviceRepository.findByVid(vid);
+        if (loaded.isPresent()) {
+            cache(loaded.get());
+            return Optional.of(withHeartbeat(copy(loaded.get())));
+        }
+        if (missing.size() >= maxSize) {
+            trim(missing);
+        }
+        missing.put(vid, System.currentTimeMillis() + negativeTtlMillis);
+        return Optional.empty();
+    }
+
+    /**
+     * 根据多个VID批量查找设备，缓存未命中的VID合并为一次查询
+     *
+     * @return VID -> 设备，不存在的VID不在结果中
+     */
+    public Map<String, Device> findAllByVid(Collection<String> vids) {
+        Map<String, Device> result = new HashMap<>();
+        List<String> toLoad = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (String vid : vids) {
+            if (vid == null || result.containsKey(vid)) {
+                continue;
+            }
+            Cached cached = devices.get(vid);
+            if (cached != null && cached.expiresAt() > now) {
+                hits.increment();
+                result.put(vid, withHeartbeat(copy(cached.device())));
+                continue;
+            }
+            Long expiresAt = missing.get(vid);
+            if (expiresAt != null && expiresAt > now) {
+                negativeHits.increment();
+                continue;
+            }
+            toLoad.add(vid);
+        }
+        if (toLoad.isEmpty()) {
+            return result;
+        }
+
+        misses.add(toLoad.size());
+        for (Device device : deviceRepository.findByVidIn(toLoad)) {
+            cache(device);
+            result.put(device.getVid(), withHeartbeat(copy(device)));
+        }
+        for (String vid : toLoad) {
+            if (!result.containsKey(vid)) {
+                if (missing.size() >= maxSize) {
+                    trim(missing);
+                }
+                missing.put(vid, now + negativeTtlMillis);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 保存设备并更新缓存
+     */
+    public Device save(Device device) {
+        Device saved = deviceRepository.save(device);
+        cache(saved);
+        deviceStatusCounter.onSaved(saved);
+        deviceRealTimeSnapshot.onDeviceSaved(copy(saved));
+        return saved;
+    }
+
+    /**
+     * 删除设备并清除缓存
+     */
+    public void delete(Device device) {
+        deviceRepository.delete(device);
+        invalidate(device.getVid());
+        deviceStatusCounter.onDeleted(device);
+        deviceRealTimeSnapshot.onDeviceDeleted(device);
+        deviceHeartbeatTracker.forget(device.getVid());
+        ingestDeduplicator.forget(device.getVid());
+        deviceLatestStateStore.evict(device.getVid());
+    }
+
+    /**
+     * 使单个设备的缓存失效（包括不存在标记）
+     */
+    public void invalidate(String vid) {
+        if (vid != null) {
+            devices.remove(vid);
+            missing.remove(vid);
+        }
+    }
+
+    /**
+     * 清空全部缓存
+     */
+    public void invalidateAll() {
+        devices.clear();
+        missing.clear();
+        log.info("设备注册表缓存已清空");
+    }
+
+    // 心跳只在内存中实时更新，读取时补上最新值，调用方save时也会带上
+    private Device withHeartbeat(Device device) {
+        deviceHeartbeatTracker.apply(device);
+        return device;
+    }
+
+    private void cache(Device device) {
+        if (device == null || device.getVid() == null) {
+            return;
+        }
+        missing.remove(device.getVid());
+        if (!devices.containsKey(device.getVid()) && devices.size() >= maxSize) {
+            trim(devices);
+        }
+        long expiresAt = clusterEnabled ? System.currentTimeMillis() + clusterTtlMillis : Long.MAX_VALUE;
+        devices.put(device.getVid(), new Cached(copy(device), expiresAt));
+    }
+
+    /**
+     * 超出容量时淘汰约十分之一的条目（近似淘汰，不维护访问顺序以免热点路径加锁）
+     */
+    private void trim(Map<String, ?> map) {
+        int toRemove = Math.max(1, maxSize / 10);
+        Iterator<String> iterator = map.keySet().iterator();
+        while (toRemove-- > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    private static Device copy(Device source) {
+        Device target = new Device();
+        target.setId(source.getId());
+        target.setVid(source.getVid());
+        target.setDeviceName(source.getDeviceName());
+        target.setDeviceType(source.getDeviceType());
+        target.setStatus(source.getStatus());
+        target.setLocation(source.getLocation());
+        target.setContactPhone(source.getContactPhone());
+        target.setDescription(source.getDescription());
+        target.setManufacturer(source.getManufacturer());
+        target.setModel(source.getModel());
+        target.setFirmwareVersion(source.getFirmwareVersion());
+        target.setIpAddress(source.getIpAddress());
+        target.setMacAddress(source.getMacAddress());
+        target.setCreatedAt(source.getCreatedAt());
+        target.setUpdatedAt(source.getUpdatedAt());
+        target.setLastHeartbeat(source.getLastHeartbeat());
+        target.setLastOnlineTime(source.getLastOnlineTime());
+        return target;
+    }
+
+    /**
+     * 获取缓存统计：命中、未命中、命中率
+     */
+    public Map<String, Object> getStatistics() {
+        long hitCount = hits.sum();
+        long negativeHitCount = negativeHits.sum();
+        long missCount = misses.sum();
+        long total = hitCount + negativeHitCount + missCount;
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("size", devices.size());
+        statistics.put("negativeSize", missing.size());
+        statistics.put("maxSize", maxSize);
+        statistics.put("hits", hitCount);
+        statistics.put("negativeHits", negativeHitCount);
+        statistics.put("misses", missCount);
+        statistics.put("evictions", evictions.sum());
+        statistics.put("hitRate", total > 0 ? (double) (hitCount + negativeHitCount) / total : 0.0);
+        return statistics;
+    }
+
+    // 缓存的设备及重新查询的时间，非集群模式下不过期
+    private record Cached(Device device, long expiresAt) {
+    }
+}
@@ -0,0 +1,257 @@
+package com.iot.fresh.service;
+
+import com.iot.fresh.entity.Device;
+import com.iot.fresh.repository.DeviceRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 设备状态计数
+ * 内存中保存每台设备(按ID)的当前状态和各状态的设备数，设备新增、删除和状态变化时由
+ * DeviceRegistry在写库后更新；仪表盘和设备统计接口直接读取计数，O(1)，不再逐个状态COUNT
+ * 或加载全部设备。
+ * 启动时查询一次全部设备的ID和状态；后台线程定期以一条GROUP BY status查询校对计数，
+ * 与内存不一致时（绕过DeviceRegistry直接写库、事务回滚等）重新加载。
+ * 重新加载时查询不持有锁，查询期间保存或删除的设备按ID记录最新状态，在查询结果上重放，
+ * 在线状态频繁变化时也能完成校准
+ */
+@Service
+public class DeviceStatusCounter {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceStatusCounter.class);
+
+    @Autowired
+    private DeviceRepository deviceRepository;
+
+    @Value("${device.status.reconcile-interval:60000}")
+    private long reconcileIntervalMillis;
+
+    // 设备ID -> 状态，由this加锁保护
+    private final Map<Long, Integer> statusById = new HashMap<>();
+
+    // 状态 -> 设备数，由this加锁保护
+    private final Map<Integer, Long> counts = new HashMap<>();
+
+    // 每次增量更新加1，校对查询期间有更新时不计为不一致
+    private long version;
+
+    // 重新加载期间保存的设备：ID -> 最新状态；不在加载时为null，由this加锁保护
+    private Map<Long, Integer> pendingSaved;
+
+    // 重新加载期间删除的设备ID
+    private Set<Long> pendingDeleted;
+
+    // 对外提供的计数，每次变化后重新生成
+    private volatile Map<Integer, Long> snapshot = Collections.emptyMap();
+
+    private Thread reconciler;
+    private volatile boolean running;
+
+    private final LongAdder reconciles = new LongAdder();
+    private final LongAdder drifts = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        reload();
+        running = true;
+        reconciler = new Thread(this::reconcileLoop, "device-status-reconciler");
+        reconciler.setDaemon(true);
+        reconciler.start();
+    }
+
+    /**
+     * 设备保存后更新计数（新增或状态变化）
+     */
+    public synchronized void onSaved(Device device) {
+        if (device == null || device.getId() == null) {
+            return;
+        }
+        if (pendingSaved != null) {
+            pendingSaved.put(device.getId(), device.getStatus());
+            pendingDeleted.remove(device.getId());
+        }
+        Integer previous = statusById.put(device.getId(), device.getStatus());
+        if (previous != null && previous.equals(device.getStatus())) {
+            return;
+        }
+        if (previous != null) {
+            decrement(previous);
+        }
+        counts.merge(device.getStatus(), 1L, Long::sum);
+        changed();
+    }
+
+    /**
+     * 设备删除后更新计数
+     */
+    public synchronized void onDeleted(Device device) {
+        if (device == null || device.getId() == null) {
+            return;
+        }
+        if (pendingSaved != null) {
+            pendingSaved.remove(device.getId());
+            pendingDeleted.add(device.getId());
+        }
+        Integer previous = statusById.remove(device.getId());
+        if (previous != null) {
+            decrement(previous);
+            changed();
+        }
+    }
+
+    private void decrement(Integer status) {
+        counts.computeIfPresent(status, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private void changed() {
+        version++;
+        snapshot = Collections.unmodifiableMap(new HashMap<>(counts));
+    }
+
+    /**
+     * 某一状态的设备数
+     */
+    public long count(int status) {
+        return snapshot.getOrDefault(status, 0L);
+    }
+
+    /**
+     * 设备总数
+     */
+    public long total() {
+        long total = 0;
+        for (Long count : snapshot.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * 各状态的设备数
+     */
+    public Map<Integer, Long> getCounts() {
+        return snapshot;
+    }
+
+    /**
+     * 查询全部设备的ID和状态，重放查询期间的变化后重建计数
+     */
+    public void reload() {
+        synchronized (this) {
+            if (pendingSaved != null) {
+                // 已有重新加载在进行
+                return;
+            }
+            pendingSaved = new HashMap<>();
+            pendingDeleted = new HashSet<>();
+        }
+        List<Object[]> rows;
+        try {
+            rows = deviceRepository.findIdAndStatus();
+        } catch (Exception e) {
+            synchronized (this) {
+                pendingSaved = null;
+                pendingDeleted = null;
+            }
+            log.error("加载设备状态计数失败: {}", e.getMessage(), e);
+            return;
+        }
+        synchronized (this) {
+            statusById.clear();
+            for (Object[] row : rows) {
+                statusById.put((Long) row[0], (Integer) row[1]);
+            }
+            // 查询期间的变化以内存中的最新状态为准
+            statusById.putAll(pendingSaved);
+            statusById.keySet().removeAll(pendingDeleted);
+            pendingSaved = null;
+            pendingDeleted = null;
+            counts.clear();
+            for (Integer status : statusById.values()) {
+                counts.merge(status, 1L, Long::sum);
+            }
+            changed();
+        }
+        log.info("设备状态计数已加载 - 设备: {}, 分布: {}", rows.size(), snapshot);
+    }
+
+    /**
+     * 按状态GROUP BY查询一次，与内存计数不一致时重新加载
+     */
+    private void reconcile() {
+        long before;
+        synchronized (this) {
+            before = version;
+        }
+        Map<Integer, Long> actual = new HashMap<>();
+        try {
+            for (Object[] row : deviceRepository.countGroupByStatus()) {
+                actual.put((Integer) row[0], ((Number) row[1]).longValue());
+            }
+        } catch (Exception e) {
+            log.error("校对设备状态计数失败: {}", e.getMessage(), e);
+            return;
+        }
+        reconciles.increment();
+        synchronized (this) {
+            if (actual.equals(counts)) {
+                return;
+            }
+            if (version != before) {
+                // 查询期间有状态变化，无法判断是否真的不一致，直接重新加载校准
+                log.debug("设备状态计数校对期间有变化，重新加载");
+            } else {
+                drifts.increment();
+                log.warn("设备状态计数与数据库不一致，重新加载 - 内存: {}, 数据库: {}", snapshot, actual);
+            }
+        }
+        reload();
+    }
+
+    private void reconcileLoop() {
+        while (running) {
+            try {
+                Thread.sleep(reconcileIntervalMillis);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+            reconcile();
+        }
+    }
+
+    /**
+     * 获取计数统计：各状态设备数、校对次数、发现不一致的次数
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("counts", snapshot);
+        statistics.put("reconciles", reconciles.sum());
+        statistics.put("drifts", drifts.sum());
+        return statistics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (reconciler != null) {
+            reconciler.interrupt();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.iot.fresh.service;
+
+import com.iot.fresh.entity.DeviceDataHistory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * 历史数据游标：上一页最后一条记录的(updatedAt, id)
+ * 编码为URL安全的Base64令牌，客户端不需要也不应该解析其内容
+ */
+public record HistoryCursor(LocalDateTime updatedAt, long id) {
+
+    public static HistoryCursor of(DeviceDataHistory row) {
+        return new HistoryCursor(row.getUpdatedAt(), row.getId());
+    }
+
+    public String encode() {
+        String raw = updatedAt + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析令牌
+     *
+     * @throws IllegalArgumentException 令牌格式不正确
+     */
+    public static HistoryCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = raw.indexOf('|');
+            return new HistoryCursor(LocalDateTime.parse(raw.substring(0, separator)),
+                    Long.parseLong(raw.substring(separator + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("无效的分页游标: " + token);
+        }
+    }
+}
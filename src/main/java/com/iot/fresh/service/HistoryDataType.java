@@ -0,0 +1,62 @@
+package com.iot.fresh.service;
+
+/**
+ * 历史数据查询的数据类型过滤
+ * key与DeviceDataHistoryRepository.DATA_TYPE_CONDITION中的取值一一对应，过滤条件在数据库中执行，
+ * 分页和总数都按过滤后的记录计算
+ */
+public enum HistoryDataType {
+    
+    TEMPERATURE("temperature"),
+    HUMIDITY("humidity"),
+    LIGHT("light"),
+    BRIGHTNESS("brightness"),
+    STATUS("status"),
+    // battery、speed字段已移除，不匹配任何记录
+    NONE("none");
+    
+    private final String key;
+    
+    HistoryDataType(String key) {
+        this.key = key;
+    }
+    
+    public String key() {
+        return key;
+    }
+    
+    /**
+     * 解析请求中的dataType，未指定或未知类型返回null，表示不过滤
+     */
+    public static HistoryDataType of(String dataType) {
+        if (dataType == null || dataType.trim().isEmpty()) {
+            return null;
+        }
+        switch (dataType.toLowerCase().trim()) {
+            case "temperature":
+                return TEMPERATURE;
+            case "humidity":
+                return HUMIDITY;
+            case "light":
+            case "illumination":
+                return LIGHT;
+            case "brightness":
+                return BRIGHTNESS;
+            case "status":
+                return STATUS;
+            case "battery":
+            case "speed":
+            case "fan_speed":
+                return NONE;
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * 查询参数，不过滤时为null
+     */
+    public static String keyOf(HistoryDataType type) {
+        return type != null ? type.key : null;
+    }
+}
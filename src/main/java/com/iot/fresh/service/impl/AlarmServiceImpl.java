@@ -10,9 +10,11 @@ import com.iot.fresh.entity.AlarmHistory;
 import com.iot.fresh.entity.Device;
 import com.iot.fresh.repository.AlarmHistoryRepository;
 import com.iot.fresh.repository.AlarmRepository;
-import com.iot.fresh.repository.DeviceRepository;
+import com.iot.fresh.service.ActiveAlarmIndex;
 import com.iot.fresh.service.AlarmPushService;
 import com.iot.fresh.service.AlarmService;
+import com.iot.fresh.service.AlarmStatisticsSnapshot;
+import com.iot.fresh.service.DeviceRegistry;
 import com.iot.fresh.service.impl.EmailNotificationServiceImpl;
 import com.iot.fresh.service.impl.DingTalkService;
 import com.iot.fresh.entity.DingTalkSettings;
@@ -41,7 +43,7 @@ public class AlarmServiceImpl implements AlarmService {
     private AlarmRepository alarmRepository;
     
     @Autowired
-    private DeviceRepository deviceRepository;
+    private DeviceRegistry deviceRegistry;
     
     @Autowired
     private AlarmHistoryRepository alarmHistoryRepository;
@@ -58,6 +60,12 @@ public class AlarmServiceImpl implements AlarmService {
     @Autowired
     private DingTalkSettingsRepository dingTalkSettingsRepository;
 
+    @Autowired
+    private AlarmStatisticsSnapshot alarmStatisticsSnapshot;
+
+    @Autowired
+    private ActiveAlarmIndex activeAlarmIndex;
+
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     @Override
@@ -153,10 +161,13 @@ public class AlarmServiceImpl implements AlarmService {
         }
         
         Alarm alarm = alarmOpt.get();
+        String oldStatus = alarm.getStatus();
         alarm.setStatus("resolved"); // 设置为已处理
         alarm.setUpdatedAt(LocalDateTime.now());
         alarm.setResolvedAt(LocalDateTime.now()); // 设置解决时间为当前时间
         alarmRepository.save(alarm);
+        alarmStatisticsSnapshot.statusChanged(alarm.getAlarmLevel(), oldStatus, alarm.getStatus());
+        activeAlarmIndex.onSaved(alarm);
         
         // 推送更新后的报警统计数据
         pushUpdatedStatistics();
@@ -193,6 +204,12 @@ public class AlarmServiceImpl implements AlarmService {
     @Override
     public ApiResponse<String> clearAllAlarms() {
         alarmRepository.deleteAll(); // 清除所有报警
+        alarmStatisticsSnapshot.cleared();
+        activeAlarmIndex.clear();
+        
+        // 推送清空后的报警统计数据
+        pushUpdatedStatistics();
+        
         return ApiResponse.success("所有报警已清除");
     }
 
@@ -211,50 +228,8 @@ public class AlarmServiceImpl implements AlarmService {
 
     @Override
     public ApiResponse<Map<String, Object>> getAlarmStatistics() {
-        Map<String, Object> statistics = new HashMap<>();
-        
-        // 总报警数
-        long total = alarmRepository.count();
-        statistics.put("total", total);
-        
-        // 按状态统计 (按照API规范使用pending, resolved, ignored)
-        long pending = alarmRepository.countByStatus("active");  // active状态对应pending
-        long resolved = alarmRepository.countByStatus("resolved");
-        long ignored = alarmRepository.countByStatus("ignored");
-        
-        statistics.put("pending", pending);
-        statistics.put("resolved", resolved);
-        statistics.put("ignored", ignored);
-        
-        // 按前端三个级别统计：紧急、重要、一般
-        // 紧急级别：包含后端的critical和high
-        long urgent = alarmRepository.countByAlarmLevel("critical") + alarmRepository.countByAlarmLevel("high");
-        // 重要级别：包含后端的medium
-        long important = alarmRepository.countByAlarmLevel("medium");
-        // 一般级别：包含后端的low
-        long normal = alarmRepository.countByAlarmLevel("low");
-        
-        statistics.put("urgent", urgent);
-        statistics.put("important", important);
-        statistics.put("normal", normal);
-        
-        // 新增：按前端级别和状态统计
-        statistics.put("urgentPending", alarmRepository.countByAlarmLevelAndStatus("critical", "active") + 
-                                        alarmRepository.countByAlarmLevelAndStatus("high", "active"));
-        statistics.put("urgentResolved", alarmRepository.countByAlarmLevelAndStatus("critical", "resolved") + 
-                                         alarmRepository.countByAlarmLevelAndStatus("high", "resolved"));
-        statistics.put("urgentIgnored", alarmRepository.countByAlarmLevelAndStatus("critical", "ignored") + 
-                                        alarmRepository.countByAlarmLevelAndStatus("high", "ignored"));
-        
-        statistics.put("importantPending", alarmRepository.countByAlarmLevelAndStatus("medium", "active"));
-        statistics.put("importantResolved", alarmRepository.countByAlarmLevelAndStatus("medium", "resolved"));
-        statistics.put("importantIgnored", alarmRepository.countByAlarmLevelAndStatus("medium", "ignored"));
-        
-        statistics.put("normalPending", alarmRepository.countByAlarmLevelAndStatus("low", "active"));
-        statistics.put("normalResolved", alarmRepository.countByAlarmLevelAndStatus("low", "resolved"));
-        statistics.put("normalIgnored", alarmRepository.countByAlarmLevelAndStatus("low", "ignored"));
-        
-        return ApiResponse.success(statistics);
+        // 直接读取内存中的统计快照，报警变化时已增量更新
+        return ApiResponse.success(alarmStatisticsSnapshot.getSnapshot());
     }
     
     private Map<String, Object> convertToAlarmMap(Alarm alarm) {
@@ -343,7 +318,7 @@ public class AlarmServiceImpl implements AlarmService {
         
         // 添加设备信息
         Map<String, Object> deviceInfo = new HashMap<>();
-        Device device = deviceRepository.findByVid(alarm.getVid()).orElse(null);
+        Device device = deviceRegistry.findByVid(alarm.getVid()).orElse(null);
         if (device != null) {
             deviceInfo.put("vid", device.getVid());
             deviceInfo.put("deviceType", device.getDeviceType());
@@ -416,7 +391,7 @@ public class AlarmServiceImpl implements AlarmService {
         try {
             String vid = alarmData.getVid();
             // 通过VID查找设备
-            Optional<Device> deviceOpt = deviceRepository.findByVid(vid);
+            Optional<Device> deviceOpt = deviceRegistry.findByVid(vid);
             if (deviceOpt.isPresent()) {
                 Device device = deviceOpt.get();
                 alarm.setDeviceId(device.getId());
@@ -437,6 +412,8 @@ public class AlarmServiceImpl implements AlarmService {
         }
         
         Alarm savedAlarm = alarmRepository.save(alarm);
+        alarmStatisticsSnapshot.added(savedAlarm.getAlarmLevel(), savedAlarm.getStatus());
+        activeAlarmIndex.onSaved(savedAlarm);
         System.out.println("报警已处理并保存: " + alarm.getMessage());
         
         // 推送新报警的详细信息到前端
@@ -476,6 +453,8 @@ public class AlarmServiceImpl implements AlarmService {
         alarm.setCreatedAt(alarmDto.getTimestamp() != null ? alarmDto.getTimestamp() : LocalDateTime.now());
         
         alarmRepository.save(alarm);
+        alarmStatisticsSnapshot.added(alarm.getAlarmLevel(), alarm.getStatus());
+        activeAlarmIndex.onSaved(alarm);
         System.out.println("报警已创建: " + alarm.getMessage());
         
         // 推送更新后的报警统计数据
@@ -490,10 +469,13 @@ public class AlarmServiceImpl implements AlarmService {
         }
         
         Alarm alarm = alarmOpt.get();
+        String oldStatus = alarm.getStatus();
         alarm.setStatus("closed"); // 设置为已关闭
         alarm.setUpdatedAt(LocalDateTime.now());
         alarm.setResolvedAt(LocalDateTime.now());
         alarmRepository.save(alarm);
+        alarmStatisticsSnapshot.statusChanged(alarm.getAlarmLevel(), oldStatus, alarm.getStatus());
+        activeAlarmIndex.onSaved(alarm);
         
         // 添加处理记录
         addAlarmHistory(alarmId, "close", "system", "报警已关闭");
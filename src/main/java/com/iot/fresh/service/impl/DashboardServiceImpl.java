@@ -1,9 +1,10 @@
 package com.iot.fresh.service.impl;
 
 import com.iot.fresh.dto.ApiResponse;
-import com.iot.fresh.repository.DeviceRepository;
 import com.iot.fresh.repository.AlarmRepository;
+import com.iot.fresh.service.ActiveAlarmIndex;
 import com.iot.fresh.service.DashboardService;
+import com.iot.fresh.service.DeviceStatusCounter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -14,21 +15,24 @@ import java.util.Map;
 public class DashboardServiceImpl implements DashboardService {
 
     @Autowired
-    private DeviceRepository deviceRepository;
+    private AlarmRepository alarmRepository;
 
     @Autowired
-    private AlarmRepository alarmRepository;
+    private ActiveAlarmIndex activeAlarmIndex;
+
+    @Autowired
+    private DeviceStatusCounter deviceStatusCounter;
 
     @Override
     public ApiResponse<Map<String, Object>> getStatistics() {
         Map<String, Object> statistics = new HashMap<>();
         
-        // 真实的设备状态统计
-        long onlineDevices = deviceRepository.countByStatus(1); // 状态1表示在线
-        long offlineDevices = deviceRepository.countByStatus(0); // 状态0表示离线
-        long faultDevices = deviceRepository.countByStatus(2); // 状态2表示故障
-        long maintenanceDevices = deviceRepository.countByStatus(3); // 状态3表示维护
-        long totalDevices = deviceRepository.count();
+        // 设备状态统计，读取内存中的状态计数
+        long onlineDevices = deviceStatusCounter.count(1); // 状态1表示在线
+        long offlineDevices = deviceStatusCounter.count(0); // 状态0表示离线
+        long faultDevices = deviceStatusCounter.count(2); // 状态2表示故障
+        long maintenanceDevices = deviceStatusCounter.count(3); // 状态3表示维护
+        long totalDevices = deviceStatusCounter.total();
         
         // 顶部统计数据 - 按照要求格式
         statistics.put("onlineDevices", onlineDevices);
@@ -40,8 +44,8 @@ public class DashboardServiceImpl implements DashboardService {
         // 数据增长率（模拟数据）- 使用整数百分比
         statistics.put("dataGrowth", 12);
         
-        // 未解决报警 (active状态对应pending)
-        long unresolvedAlarms = alarmRepository.findByStatus("active").size();
+        // 未解决报警 (active状态对应pending)，从活动报警索引读取，不加载报警实体
+        long unresolvedAlarms = activeAlarmIndex.count();
         statistics.put("unresolvedAlarms", unresolvedAlarms);
         
         // 今日新增报警（模拟数据）- 使用更合理的数值
@@ -67,11 +71,11 @@ public class DashboardServiceImpl implements DashboardService {
     public ApiResponse<Map<String, Object>> getDeviceStatusDistribution() {
         Map<String, Object> distribution = new HashMap<>();
         
-        // 真实的设备状态统计
-        long onlineDevices = deviceRepository.countByStatus(1); // 状态1表示在线
-        long offlineDevices = deviceRepository.countByStatus(0); // 状态0表示离线
-        long faultDevices = deviceRepository.countByStatus(2); // 状态2表示故障
-        long maintenanceDevices = deviceRepository.countByStatus(3); // 状态3表示维护
+        // 设备状态统计，读取内存中的状态计数
+        long onlineDevices = deviceStatusCounter.count(1); // 状态1表示在线
+        long offlineDevices = deviceStatusCounter.count(0); // 状态0表示离线
+        long faultDevices = deviceStatusCounter.count(2); // 状态2表示故障
+        long maintenanceDevices = deviceStatusCounter.count(3); // 状态3表示维护
         
         distribution.put("online", onlineDevices);
         distribution.put("offline", offlineDevices);
@@ -86,8 +90,8 @@ public class DashboardServiceImpl implements DashboardService {
         try {
             Map<String, Object> statistics = new HashMap<>();
             
-            // 获取未处理报警数量（状态为active）
-            long unresolvedAlarms = alarmRepository.findByStatus("active").size();
+            // 获取未处理报警数量（状态为active），从活动报警索引读取
+            long unresolvedAlarms = activeAlarmIndex.count();
             statistics.put("unresolved", unresolvedAlarms);
             
             // 获取今日新增报警数量（创建时间为今天）
@@ -6,7 +6,11 @@ import com.iot.fresh.entity.Device;
 import com.iot.fresh.entity.DeviceData;
 import com.iot.fresh.repository.DeviceDataRepository;
 import com.iot.fresh.repository.DeviceRepository;
+import com.iot.fresh.service.DeviceLatestStateStore;
 import com.iot.fresh.service.DeviceManagementService;
+import com.iot.fresh.service.DeviceHeartbeatTracker;
+import com.iot.fresh.service.DeviceRegistry;
+import com.iot.fresh.service.DeviceStatusCounter;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.integration.mqtt.outbound.MqttPahoMessageHandler;
@@ -29,9 +33,21 @@ public class DeviceManagementServiceImpl implements DeviceManagementService {
 
     @Autowired
     private DeviceRepository deviceRepository;
+
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+
+    @Autowired
+    private DeviceHeartbeatTracker deviceHeartbeatTracker;
     
     @Autowired
     private DeviceDataRepository deviceDataRepository;
+    
+    @Autowired
+    private DeviceLatestStateStore deviceLatestStateStore;
+
+    @Autowired
+    private DeviceStatusCounter deviceStatusCounter;
 
     @Autowired(required = false) // 可选注入，以防MQTT配置未启用
     private MqttPahoMessageHandler mqttOutbound;
@@ -60,8 +76,14 @@ public class DeviceManagementServiceImpl implements DeviceManagementService {
             }
         }
         
+        // 整页设备的当前数据一次取出（内存中没有的合并为一次查询），不再逐台查询
+        List<String> vids = devicePage.getContent().stream().map(Device::getVid).toList();
+        Map<String, DeviceData> currentDataByVid = deviceLatestStateStore.getAll(vids);
+        
         // 转换为DeviceDto列表
-        List<DeviceDto> deviceDtos = devicePage.getContent().stream().map(this::convertToDeviceDto).toList();
+        List<DeviceDto> deviceDtos = devicePage.getContent().stream()
+                .map(device -> convertToDeviceDto(device, currentDataByVid.get(device.getVid())))
+                .toList();
         
         // 创建分页响应
         PaginatedResponse<DeviceDto> paginatedResponse = new PaginatedResponse<>(
@@ -76,7 +98,7 @@ public class DeviceManagementServiceImpl implements DeviceManagementService {
 
     @Override
     public ApiResponse<DeviceDetailDto> getDeviceDetail(String vid) {
-        Optional<Device> deviceOpt = deviceRepository.findByVid(vid);
+        Optional<Device> deviceOpt = deviceRegistry.findByVid(vid);
         if (!deviceOpt.isPresent()) {
             return ApiResponse.error("设备不存在");
         }
@@ -124,20 +146,21 @@ public class DeviceManagementServiceImpl implements DeviceManagementService {
     public ApiResponse<DeviceStatusStatsDto> getStatusStats() {
         DeviceStatusStatsDto stats = new DeviceStatusStatsDto();
         
+        // 读取内存中的设备状态计数
         // 总设备数
-        long totalDevices = deviceRepository.count();
+        long totalDevices = deviceStatusCounter.total();
         stats.setTotalDevices((int) totalDevices);
         
         // 在线设备数 (状态为1)
-        long onlineDevices = deviceRepository.countByStatus(1);
+        long onlineDevices = deviceStatusCounter.count(1);
         stats.setOnlineDevices((int) onlineDevices);
         
         // 离线设备数 (状态为0)
-        long offlineDevices = deviceRepository.countByStatus(0);
+        long offlineDevices = deviceStatusCounter.count(0);
         stats.setOfflineDevices((int) offlineDevices);
         
         // 故障设备数 (状态为2)
-        long faultDevices = deviceRepository.countByStatus(2);
+        long faultDevices = deviceStatusCounter.count(2);
         stats.setFaultDevices((int) faultDevices);
         
         return ApiResponse.success(stats);
@@ -146,7 +169,7 @@ public class DeviceManagementServiceImpl implements DeviceManagementService {
     @Override
     public ApiResponse<String> controlDevice(String vid, Map<String, Object> controlCommand) {
         // 验证设备是否存在
-        Optional<Device> deviceOpt = deviceRepository.findByVid(vid);
+        Optional<Device> deviceOpt = deviceRegistry.findByVid(vid);
         if (!deviceOpt.isPresent()) {
             return ApiResponse.error("设备不存在");
         }
@@ -245,7 +268,7 @@ public class DeviceManagementServiceImpl implements DeviceManagementService {
          }
     }
     
-    private DeviceDto convertToDeviceDto(Device device) {
+    private DeviceDto convertToDeviceDto(Device device, DeviceData latestData) {
         DeviceDto dto = new DeviceDto();
         dto.setId(device.getId());
         dto.setVid(device.getVid());
@@ -261,28 +284,29 @@ public class DeviceManagementServiceImpl implements DeviceManagementService {
         dto.setModel(device.getModel());
         dto.setFirmwareVersion(device.getFirmwareVersion());
         
-        // 设置多种时间格式以满足API规范
-        dto.setLastOnlineTime(device.getLastHeartbeat());
-        dto.setLastOnline_time(device.getLastHeartbeat());
-        dto.setLast_heartbeat(device.getLastHeartbeat());
-        dto.setLastHeartbeat(device.getLastHeartbeat());
+        // 设置多种时间格式以满足API规范，心跳以内存中的最新值为准
+        LocalDateTime lastHeartbeat = deviceHeartbeatTracker.lastHeartbeatOf(device);
+        dto.setLastOnlineTime(lastHeartbeat);
+        dto.setLastOnline_time(lastHeartbeat);
+        dto.setLast_heartbeat(lastHeartbeat);
+        dto.setLastHeartbeat(lastHeartbeat);
         dto.setCreateTime(device.getCreatedAt());
         dto.setCreate_time(device.getCreatedAt());
         dto.setUpdatedAt(device.getUpdatedAt());
         
-        // 获取设备当前数据
-        DeviceCurrentDataDto currentData = getCurrentDataForDevice(device.getVid());
-        dto.setCurrentData(currentData);
+        // 设备当前数据
+        dto.setCurrentData(toCurrentDataDto(latestData));
         
         return dto;
     }
     
     private DeviceCurrentDataDto getCurrentDataForDevice(String vid) {
-        // 获取设备最新的数据
-        List<DeviceData> deviceDataList = deviceDataRepository.findByVidOrderByCreatedAtDesc(vid, PageRequest.of(0, 1));
-        
-        if (!deviceDataList.isEmpty()) {
-            DeviceData latestData = deviceDataList.get(0);
+        // 以内存中的最新状态为准，其中可能包含尚未写回数据库的修改
+        return toCurrentDataDto(deviceLatestStateStore.get(vid));
+    }
+    
+    private DeviceCurrentDataDto toCurrentDataDto(DeviceData latestData) {
+        if (latestData != null) {
             DeviceCurrentDataDto currentData = new DeviceCurrentDataDto();
             currentData.setTin(latestData.getTin());
             currentData.setTout(latestData.getTout());
@@ -547,6 +571,7 @@ public class DeviceManagementServiceImpl implements DeviceManagementService {
             System.out.println("开始更新现有数据记录...");
             DeviceData savedData = deviceDataRepository.save(latestData);
             deviceDataRepository.flush(); // 强制刷新到数据库
+            deviceLatestStateStore.refresh(savedData); // 同步内存中的最新状态
             System.out.println("数据更新成功 - 记录ID: " + savedData.getId());
             
             // 验证数据是否真的更新了
@@ -584,7 +609,7 @@ public class DeviceManagementServiceImpl implements DeviceManagementService {
      */
     private ApiResponse<String> handleDeviceControlCommand(String vid, String command, Object params) {
         try {
-            Optional<Device> deviceOpt = deviceRepository.findByVid(vid);
+            Optional<Device> deviceOpt = deviceRegistry.findByVid(vid);
             if (!deviceOpt.isPresent()) {
                 return ApiResponse.error("设备不存在");
             }
@@ -604,7 +629,7 @@ public class DeviceManagementServiceImpl implements DeviceManagementService {
                 case "restart":
                     // 重启：先设置为离线，再设置为在线
                     device.setStatus(0);
-                    deviceRepository.save(device);
+                    deviceRegistry.save(device);
                     device.setStatus(1);
                     device.setLastHeartbeat(LocalDateTime.now());
                     break;
@@ -619,7 +644,7 @@ public class DeviceManagementServiceImpl implements DeviceManagementService {
             
             // 更新设备最后在线时间
             device.setLastHeartbeat(LocalDateTime.now());
-            deviceRepository.save(device);
+            deviceRegistry.save(device);
             
             System.out.println("设备控制命令执行成功 - 设备: " + vid + ", 命令: " + command);
             return ApiResponse.success("设备控制命令执行成功");
@@ -673,6 +698,7 @@ public class DeviceManagementServiceImpl implements DeviceManagementService {
                 System.out.println("开始更新现有数据记录...");
                 DeviceData savedData = deviceDataRepository.save(latestData);
                 deviceDataRepository.flush(); // 强制刷新到数据库
+                deviceLatestStateStore.refresh(savedData); // 同步内存中的最新状态
                 System.out.println("数据重置成功 - 记录ID: " + savedData.getId());
                 
                 // 验证数据是否真的重置了
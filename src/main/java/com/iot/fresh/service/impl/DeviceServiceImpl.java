@@ -5,6 +5,9 @@ import com.iot.fresh.dto.DeviceDto;
 import com.iot.fresh.entity.Device;
 import com.iot.fresh.repository.DeviceRepository;
 import com.iot.fresh.service.DeviceService;
+import com.iot.fresh.service.DeviceHeartbeatTracker;
+import com.iot.fresh.service.DeviceRegistry;
+import com.iot.fresh.service.DeviceStatusCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,6 +27,15 @@ public class DeviceServiceImpl implements DeviceService {
     
     @Autowired
     private DeviceRepository deviceRepository;
+
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+
+    @Autowired
+    private DeviceHeartbeatTracker deviceHeartbeatTracker;
+
+    @Autowired
+    private DeviceStatusCounter deviceStatusCounter;
     
     @Override
     public ApiResponse<DeviceDto> addDevice(DeviceDto deviceDto) {
@@ -69,7 +81,7 @@ public class DeviceServiceImpl implements DeviceService {
             log.info("设备对象最后在线时间字段值: {}", device.getLastOnlineTime());
             
             // 保存到数据库
-            Device savedDevice = deviceRepository.save(device);
+            Device savedDevice = deviceRegistry.save(device);
             
             log.info("设备新增成功 - ID: {}, VID: {}, 最后心跳时间: {}", 
                 savedDevice.getId(), savedDevice.getVid(), savedDevice.getLastHeartbeat());
@@ -94,7 +106,7 @@ public class DeviceServiceImpl implements DeviceService {
                 return ApiResponse.error("设备VID不能为空");
             }
             
-            Device device = deviceRepository.findByVid(vid)
+            Device device = deviceRegistry.findByVid(vid)
                 .orElse(null);
             
             if (device == null) {
@@ -134,7 +146,7 @@ public class DeviceServiceImpl implements DeviceService {
         try {
             log.info("更新设备信息 - VID: {}", vid);
             
-            Device device = deviceRepository.findByVid(vid)
+            Device device = deviceRegistry.findByVid(vid)
                 .orElse(null);
             
             if (device == null) {
@@ -161,7 +173,7 @@ public class DeviceServiceImpl implements DeviceService {
                 device.setContactPhone(deviceDto.getContactPhone());
             }
             
-            deviceRepository.save(device);
+            deviceRegistry.save(device);
             log.info("设备信息更新成功 - VID: {}", vid);
             
             return ApiResponse.success("设备信息更新成功");
@@ -177,14 +189,14 @@ public class DeviceServiceImpl implements DeviceService {
         try {
             log.info("删除设备 - VID: {}", vid);
             
-            Device device = deviceRepository.findByVid(vid)
+            Device device = deviceRegistry.findByVid(vid)
                 .orElse(null);
             
             if (device == null) {
                 return ApiResponse.error("设备不存在: " + vid);
             }
             
-            deviceRepository.delete(device);
+            deviceRegistry.delete(device);
             log.info("设备删除成功 - VID: {}", vid);
             
             return ApiResponse.success("设备删除成功");
@@ -208,7 +220,7 @@ public class DeviceServiceImpl implements DeviceService {
                 return ApiResponse.error("设备状态无效: " + status);
             }
             
-            Device device = deviceRepository.findByVid(vid)
+            Device device = deviceRegistry.findByVid(vid)
                 .orElse(null);
             
             if (device == null) {
@@ -218,7 +230,7 @@ public class DeviceServiceImpl implements DeviceService {
             device.setStatus(status);
             device.setUpdatedAt(LocalDateTime.now());
             
-            deviceRepository.save(device);
+            deviceRegistry.save(device);
             log.info("设备状态更新成功 - VID: {}, 状态: {}", vid, status);
             
             return ApiResponse.success("设备状态更新成功");
@@ -232,24 +244,19 @@ public class DeviceServiceImpl implements DeviceService {
     @Override
     public ApiResponse<String> updateDeviceHeartbeat(String vid) {
         try {
-            log.info("更新设备心跳时间 - VID: {}", vid);
+            log.debug("更新设备心跳时间 - VID: {}", vid);
             
             if (vid == null || vid.trim().isEmpty()) {
                 return ApiResponse.error("设备VID不能为空");
             }
             
-            Device device = deviceRepository.findByVid(vid)
-                .orElse(null);
-            
-            if (device == null) {
+            if (!deviceRegistry.findByVid(vid).isPresent()) {
                 return ApiResponse.error("设备不存在: " + vid);
             }
             
-            device.setLastHeartbeat(LocalDateTime.now());
-            device.setUpdatedAt(LocalDateTime.now());
-            
-            deviceRepository.save(device);
-            log.info("设备心跳时间更新成功 - VID: {}", vid);
+            // 只记录在内存中，由心跳记录器按间隔批量写入devices表
+            deviceHeartbeatTracker.record(vid);
+            log.debug("设备心跳时间更新成功 - VID: {}", vid);
             
             return ApiResponse.success("设备心跳时间更新成功");
             
@@ -267,15 +274,12 @@ public class DeviceServiceImpl implements DeviceService {
         try {
             log.info("开始获取设备统计信息");
             
-            // 获取所有设备
-            List<Device> devices = deviceRepository.findAll();
-            
-            // 统计设备状态
-            long totalDevices = devices.size();
-            long onlineDevices = devices.stream().filter(d -> d.getStatus() != null && d.getStatus() == 1).count();
-            long offlineDevices = devices.stream().filter(d -> d.getStatus() != null && d.getStatus() == 0).count();
-            long faultDevices = devices.stream().filter(d -> d.getStatus() != null && d.getStatus() == 2).count();
-            long maintenanceDevices = devices.stream().filter(d -> d.getStatus() != null && d.getStatus() == 3).count();
+            // 统计设备状态，读取内存中的状态计数，不加载全部设备
+            long totalDevices = deviceStatusCounter.total();
+            long onlineDevices = deviceStatusCounter.count(1);
+            long offlineDevices = deviceStatusCounter.count(0);
+            long faultDevices = deviceStatusCounter.count(2);
+            long maintenanceDevices = deviceStatusCounter.count(3);
             
             Map<String, Object> statistics = new HashMap<>();
             statistics.put("total", totalDevices);
@@ -313,7 +317,8 @@ public class DeviceServiceImpl implements DeviceService {
         dto.setFirmwareVersion(device.getFirmwareVersion());
         dto.setCreatedAt(device.getCreatedAt());
         dto.setUpdatedAt(device.getUpdatedAt());
-        dto.setLastHeartbeat(device.getLastHeartbeat());
+        // 心跳以内存中的最新值为准
+        dto.setLastHeartbeat(deviceHeartbeatTracker.lastHeartbeatOf(device));
         return dto;
     }
 }
\ No newline at end of file
@@ -1,8 +1,9 @@
 package com.iot.fresh.websocket;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.iot.fresh.dto.DeviceDataDto;
+import com.iot.fresh.dto.TelemetryRecord;
+import com.iot.fresh.handler.TelemetryDecoder;
 import com.iot.fresh.service.DeviceDataProcessor;
+import com.iot.fresh.service.DeviceLivenessTracker;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -24,6 +25,20 @@ public class DeviceWebSocket {
         DeviceWebSocket.deviceDataProcessor = deviceDataProcessor;
     }
 
+    private static TelemetryDecoder telemetryDecoder;
+
+    @Autowired
+    public void setTelemetryDecoder(TelemetryDecoder telemetryDecoder) {
+        DeviceWebSocket.telemetryDecoder = telemetryDecoder;
+    }
+
+    private static DeviceLivenessTracker deviceLivenessTracker;
+
+    @Autowired
+    public void setDeviceLivenessTracker(DeviceLivenessTracker deviceLivenessTracker) {
+        DeviceWebSocket.deviceLivenessTracker = deviceLivenessTracker;
+    }
+
     // 存储所有连接的会话
     private static CopyOnWriteArraySet<DeviceWebSocket> webSockets = new CopyOnWriteArraySet<>();
     private static ConcurrentHashMap<String, Session> sessionPool = new ConcurrentHashMap<>();
@@ -38,6 +53,11 @@ public class DeviceWebSocket {
         webSockets.add(this);
         sessionPool.put(vid, session);
         
+        // 设备建立连接即视为在线
+        if (deviceLivenessTracker != null) {
+            deviceLivenessTracker.touch(vid);
+        }
+        
         // 更新设备心跳
         if (deviceDataProcessor != null) {
             deviceDataProcessor.processDeviceData(vid, null); // 只更新心跳
@@ -50,15 +70,21 @@ public class DeviceWebSocket {
     public void onMessage(String message, @PathParam("vid") String vid) {
         System.out.println("收到来自设备 " + vid + " 的消息: " + message);
         
+        if (deviceLivenessTracker != null) {
+            deviceLivenessTracker.touch(vid);
+        }
+        
         try {
-            // 解析设备发送的数据
-            ObjectMapper objectMapper = new ObjectMapper();
-            DeviceDataDto deviceDataDto = objectMapper.readValue(message, DeviceDataDto.class);
-            deviceDataDto.setVid(vid);
+            // 解析设备发送的数据（只解码一次，保存、报警检查共用同一条记录）
+            TelemetryRecord record = telemetryDecoder.decodeData(vid, message);
+            if (record == null) {
+                sendMessage("数据格式错误: 无法解析设备数据");
+                return;
+            }
             
             // 使用数据处理器处理设备数据
             if (deviceDataProcessor != null) {
-                deviceDataProcessor.processDeviceData(vid, deviceDataDto);
+                deviceDataProcessor.processTelemetry(vid, record);
             }
             
             // 将数据广播给所有连接的客户端
@@ -80,10 +80,10 @@ public class WebSocketEndpoint implements ApplicationContextAware {
         }
     }
     
-    // 发送报警统计数据
+    // 发送报警统计数据（只回复请求方，统计变化时由AlarmServiceImpl推送给所有客户端）
     private void sendAlarmStatistics() {
         try {
-            // 获取报警统计服务
+            // 获取报警统计服务，统计数据来自内存快照
             AlarmService alarmService = applicationContext.getBean(AlarmService.class);
             var statsResponse = alarmService.getAlarmStatistics();
             
@@ -95,15 +95,8 @@ public class WebSocketEndpoint implements ApplicationContextAware {
             response.put("type", "alarm_statistics_response");
             response.put("timestamp", java.time.LocalDateTime.now().toString());
             
-            // 发送回所有客户端
             String jsonResponse = objectMapper.writeValueAsString(response);
-            for (WebSocketEndpoint webSocket : webSockets) {
-                try {
-                    webSocket.session.getBasicRemote().sendText(jsonResponse);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+            session.getBasicRemote().sendText(jsonResponse);
         } catch (Exception e) {
             System.err.println("发送报警统计数据失败: " + e.getMessage());
             e.printStackTrace();
@@ -93,6 +93,66 @@ CREATE TABLE IF NOT EXISTS device_data_history (
     updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
 );
 
+-- 遥测汇总表（按分钟），每台设备每个指标每个时间桶一行
+CREATE TABLE IF NOT EXISTS device_data_rollup_1m (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    vid VARCHAR(50) NOT NULL,
+    metric VARCHAR(16) NOT NULL, -- 指标: tin, tout, hin, hout, lxin, lxout, brightness
+    bucket_start DATETIME NOT NULL, -- 时间桶起点
+    sample_count BIGINT NOT NULL,
+    sum_value DOUBLE NOT NULL,
+    min_value DOUBLE NOT NULL,
+    max_value DOUBLE NOT NULL,
+    first_value DOUBLE NOT NULL,
+    first_at DATETIME NOT NULL,
+    last_value DOUBLE NOT NULL,
+    last_at DATETIME NOT NULL,
+    UNIQUE KEY uk_device_data_rollup_1m_bucket (vid, metric, bucket_start)
+);
+
+-- 遥测汇总表（按小时），每台设备每个指标每个时间桶一行
+CREATE TABLE IF NOT EXISTS device_data_rollup_1h (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    vid VARCHAR(50) NOT NULL,
+    metric VARCHAR(16) NOT NULL, -- 指标: tin, tout, hin, hout, lxin, lxout, brightness
+    bucket_start DATETIME NOT NULL, -- 时间桶起点
+    sample_count BIGINT NOT NULL,
+    sum_value DOUBLE NOT NULL,
+    min_value DOUBLE NOT NULL,
+    max_value DOUBLE NOT NULL,
+    first_value DOUBLE NOT NULL,
+    first_at DATETIME NOT NULL,
+    last_value DOUBLE NOT NULL,
+    last_at DATETIME NOT NULL,
+    UNIQUE KEY uk_device_data_rollup_1h_bucket (vid, metric, bucket_start)
+);
+
+-- 遥测汇总表（按天），每台设备每个指标每个时间桶一行
+CREATE TABLE IF NOT EXISTS device_data_rollup_1d (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    vid VARCHAR(50) NOT NULL,
+    metric VARCHAR(16) NOT NULL, -- 指标: tin, tout, hin, hout, lxin, lxout, brightness
+    bucket_start DATETIME NOT NULL, -- 时间桶起点
+    sample_count BIGINT NOT NULL,
+    sum_value DOUBLE NOT NULL,
+    min_value DOUBLE NOT NULL,
+    max_value DOUBLE NOT NULL,
+    first_value DOUBLE NOT NULL,
+    first_at DATETIME NOT NULL,
+    last_value DOUBLE NOT NULL,
+    last_at DATETIME NOT NULL,
+    UNIQUE KEY uk_device_data_rollup_1d_bucket (vid, metric, bucket_start)
+);
+
+-- 历史数据量（按小时），每台设备每小时一行
+CREATE TABLE IF NOT EXISTS device_data_volume_1h (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    vid VARCHAR(50) NOT NULL,
+    bucket_start DATETIME NOT NULL, -- 小时起点
+    record_count BIGINT NOT NULL,
+    UNIQUE KEY uk_device_data_volume_1h_bucket (vid, bucket_start)
+);
+
 -- 创建索引
 CREATE INDEX idx_users_username ON users(username);
 CREATE INDEX idx_devices_vid ON devices(vid);
@@ -104,7 +164,9 @@ CREATE INDEX idx_alarms_device_id ON alarms(device_id);
 CREATE INDEX idx_alarms_vid ON alarms(vid);
 CREATE INDEX idx_device_data_history_vid ON device_data_history(vid);
 CREATE INDEX idx_device_data_history_updated_at ON device_data_history(updated_at);
-CREATE INDEX idx_device_data_history_vid_updated_at ON device_data_history(vid, updated_at);
+-- 设备历史查询索引：页码分页和游标分页按(vid, updated_at, id)的索引顺序读取，按数据类型过滤时只对范围内的行回表；
+-- 不包含数据列，避免每次写入历史记录都维护一份整行大小的索引
+CREATE INDEX idx_device_data_history_vid_updated_at ON device_data_history(vid, updated_at, id);
 CREATE INDEX idx_alarms_alarm_type ON alarms(alarm_type);
 CREATE INDEX idx_alarms_alarm_level ON alarms(alarm_level);
 CREATE INDEX idx_alarms_status ON alarms(status);
@@ -0,0 +1,112 @@
+package com.iot.fresh.benchmark;
+
+import com.iot.fresh.handler.PartitionedIngestExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * 集群接入吞吐量：1到3个节点处理同一批设备消息的耗时
+ * 消息按发布者客户端ID哈希分配到节点（与EMQX hash_clientid一致，同一设备固定一个节点），
+ * 每个节点使用生产环境的PartitionedIngestExecutor按VID分区处理，单条消息的处理耗时模拟数据库写入延迟。
+ * 节点数增加时耗时应接近线性下降，设备数较少时受哈希分布不均影响
+ *
+ * 运行方式：mvn test-compile 后执行本类的main方法
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClusterIngestBenchmark {
+
+    @Param({ "1", "2", "3" })
+    public int nodes;
+
+    @Param({ "2" })
+    public int lanesPerNode;
+
+    @Param({ "200" })
+    public int devices;
+
+    @Param({ "2000" })
+    public int messages;
+
+    @Param({ "1000" })
+    public long writeMicros;
+
+    private PartitionedIngestExecutor[] executors;
+    private int[] deviceNodes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        executors = new PartitionedIngestExecutor[nodes];
+        for (int i = 0; i < nodes; i++) {
+            PartitionedIngestExecutor executor = new PartitionedIngestExecutor();
+            ReflectionTestUtils.setField(executor, "laneCount", lanesPerNode);
+            ReflectionTestUtils.setField(executor, "laneCapacity", messages);
+            ReflectionTestUtils.setField(executor, "shutdownTimeoutMillis", 10000L);
+            ReflectionTestUtils.setField(executor, "overflowPolicy", PartitionedIngestExecutor.OverflowPolicy.BLOCK);
+            executor.start();
+            executors[i] = executor;
+        }
+        deviceNodes = new int[devices];
+        for (int i = 0; i < devices; i++) {
+            // 每台设备以固定的客户端ID发布全部主题；Broker使用自己的哈希函数，
+            // 与节点内按VID分区的hashCode无关，否则同一节点的设备会集中到少数通道
+            CRC32 crc = new CRC32();
+            crc.update(("device-V" + i).getBytes(StandardCharsets.UTF_8));
+            deviceNodes[i] = (int) (crc.getValue() % nodes);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (PartitionedIngestExecutor executor : executors) {
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void ingest() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(messages);
+        long writeNanos = TimeUnit.MICROSECONDS.toNanos(writeMicros);
+        for (int i = 0; i < messages; i++) {
+            int device = i % devices;
+            executors[deviceNodes[device]].execute("V" + device, () -> {
+                LockSupport.parkNanos(writeNanos);
+                done.countDown();
+            });
+        }
+        done.await();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ClusterIngestBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
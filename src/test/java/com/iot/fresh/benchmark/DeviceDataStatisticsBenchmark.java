@@ -0,0 +1,246 @@
+package com.iot.fresh.benchmark;
+
+import com.iot.fresh.entity.DeviceDataHistory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 设备数据统计性能对比（MySQL，默认1000万条历史记录）
+ * loadAndStream：原getDeviceDataStatistics的做法，把范围内的记录全部加载为实体列表，
+ *                再对列表多次stream求平均/最值，并按设备分组逐组统计
+ * groupByVid：新的做法，数据库中按设备一次聚合，只返回每台设备一行
+ *
+ * 数据写入独立的device_data_history_bench表，首次运行时生成，行数一致时复用。
+ * 连接参数通过系统属性指定：bench.jdbc.url、bench.jdbc.user、bench.jdbc.password
+ *
+ * 运行方式：mvn test-compile 后执行本类的main方法
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+// 原做法需要在内存中保存全部实体
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class DeviceDataStatisticsBenchmark {
+
+    private static final String TABLE = "device_data_history_bench";
+
+    // 与DeviceDataHistoryRepository.AGGREGATE_SELECT对应的SQL
+    private static final String AGGREGATE_SQL = "SELECT vid, COUNT(*) AS record_count, " +
+            "COUNT(COALESCE(tin, tout)) AS temp_count, " +
+            "AVG((COALESCE(tin, tout) + COALESCE(tout, tin)) / 2.0) AS avg_temp, " +
+            "MAX(CASE WHEN tout IS NULL OR tin >= tout THEN COALESCE(tin, tout) ELSE tout END) AS max_temp, " +
+            "MIN(CASE WHEN tout IS NULL OR tin <= tout THEN COALESCE(tin, tout) ELSE tout END) AS min_temp, " +
+            "COUNT(COALESCE(hin, hout)) AS humidity_count, " +
+            "AVG((COALESCE(hin, hout) + COALESCE(hout, hin)) / 2.0) AS avg_humidity, " +
+            "COUNT(lxin) AS light_count, AVG(lxin) AS avg_light " +
+            "FROM " + TABLE + " WHERE updated_at BETWEEN ? AND ? GROUP BY vid";
+
+    @Param({ "10000000" })
+    public int rows;
+
+    @Param({ "1000" })
+    public int devices;
+
+    private Connection connection;
+    private LocalDateTime start;
+    private LocalDateTime end;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        connection = DriverManager.getConnection(
+                System.getProperty("bench.jdbc.url",
+                        "jdbc:mysql://localhost:3306/iot_fresh?rewriteBatchedStatements=true&useCursorFetch=false"),
+                System.getProperty("bench.jdbc.user", "root"),
+                System.getProperty("bench.jdbc.password", ""));
+        // 每台设备每分钟一条读数，统计范围覆盖全部数据
+        start = LocalDateTime.of(2026, 1, 1, 0, 0);
+        end = start.plusMinutes(rows / devices);
+        seed();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> loadAndStream() throws SQLException {
+        List<DeviceDataHistory> list = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT vid, tin, tout, hin, hout, lxin, updated_at FROM " + TABLE + " WHERE updated_at BETWEEN ? AND ?")) {
+            ps.setTimestamp(1, Timestamp.valueOf(start));
+            ps.setTimestamp(2, Timestamp.valueOf(end));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    DeviceDataHistory row = new DeviceDataHistory();
+                    row.setVid(rs.getString(1));
+                    row.setTin(rs.getObject(2, Double.class));
+                    row.setTout(rs.getObject(3, Double.class));
+                    row.setHin(rs.getObject(4, Integer.class));
+                    row.setHout(rs.getObject(5, Integer.class));
+                    row.setLxin(rs.getObject(6, Integer.class));
+                    row.setUpdatedAt(rs.getTimestamp(7).toLocalDateTime());
+                    list.add(row);
+                }
+            }
+        }
+        Map<String, Object> statistics = summarize(list);
+        Map<String, List<DeviceDataHistory>> grouped = list.stream()
+                .collect(Collectors.groupingBy(DeviceDataHistory::getVid));
+        List<Map<String, Object>> details = new ArrayList<>();
+        for (List<DeviceDataHistory> deviceList : grouped.values()) {
+            details.add(summarize(deviceList));
+        }
+        statistics.put("detail", details);
+        return statistics;
+    }
+
+    @Benchmark
+    public Map<String, Object> groupByVid() throws SQLException {
+        Map<String, Object> statistics = new HashMap<>();
+        List<Map<String, Object>> details = new ArrayList<>();
+        long total = 0;
+        try (PreparedStatement ps = connection.prepareStatement(AGGREGATE_SQL)) {
+            ps.setTimestamp(1, Timestamp.valueOf(start));
+            ps.setTimestamp(2, Timestamp.valueOf(end));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Map<String, Object> detail = new HashMap<>();
+                    detail.put("vid", rs.getString("vid"));
+                    detail.put("recordCount", rs.getLong("record_count"));
+                    detail.put("avgTemp", rs.getDouble("avg_temp"));
+                    detail.put("maxTemp", rs.getDouble("max_temp"));
+                    detail.put("minTemp", rs.getDouble("min_temp"));
+                    detail.put("avgHumidity", rs.getDouble("avg_humidity"));
+                    detail.put("avgLight", rs.getDouble("avg_light"));
+                    total += rs.getLong("record_count");
+                    details.add(detail);
+                }
+            }
+        }
+        statistics.put("totalRecords", total);
+        statistics.put("detail", details);
+        return statistics;
+    }
+
+    // 原实现中每项指标单独遍历一次列表
+    private static Map<String, Object> summarize(List<DeviceDataHistory> list) {
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("recordCount", (long) list.size());
+        statistics.put("avgTemp", list.stream()
+                .filter(d -> d.getTin() != null || d.getTout() != null)
+                .mapToDouble(d -> d.getTin() != null && d.getTout() != null ? (d.getTin() + d.getTout()) / 2.0
+                        : d.getTin() != null ? d.getTin() : d.getTout())
+                .average().orElse(0.0));
+        statistics.put("maxTemp", list.stream()
+                .filter(d -> d.getTin() != null || d.getTout() != null)
+                .mapToDouble(d -> d.getTin() != null && d.getTout() != null ? Math.max(d.getTin(), d.getTout())
+                        : d.getTin() != null ? d.getTin() : d.getTout())
+                .max().orElse(0.0));
+        statistics.put("minTemp", list.stream()
+                .filter(d -> d.getTin() != null || d.getTout() != null)
+                .mapToDouble(d -> d.getTin() != null && d.getTout() != null ? Math.min(d.getTin(), d.getTout())
+                        : d.getTin() != null ? d.getTin() : d.getTout())
+                .min().orElse(0.0));
+        statistics.put("avgHumidity", list.stream()
+                .filter(d -> d.getHin() != null || d.getHout() != null)
+                .mapToDouble(d -> d.getHin() != null && d.getHout() != null ? (d.getHin() + d.getHout()) / 2.0
+                        : d.getHin() != null ? d.getHin() : d.getHout())
+                .average().orElse(0.0));
+        statistics.put("avgLight", list.stream()
+                .filter(d -> d.getLxin() != null)
+                .mapToInt(DeviceDataHistory::getLxin)
+                .average().orElse(0.0));
+        return statistics;
+    }
+
+    /**
+     * 生成测试数据，表中行数与参数一致时跳过
+     */
+    private void seed() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+                    "id BIGINT AUTO_INCREMENT PRIMARY KEY, vid VARCHAR(50) NOT NULL, " +
+                    "tin DOUBLE, tout DOUBLE, hin INT, hout INT, lxin INT, updated_at DATETIME(6), " +
+                    "INDEX idx_bench_updated_at (updated_at))");
+            try (ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + TABLE)) {
+                rs.next();
+                if (rs.getLong(1) == rows) {
+                    return;
+                }
+            }
+            statement.execute("TRUNCATE TABLE " + TABLE);
+        }
+
+        System.out.printf("%n生成 %d 条历史记录...%n", rows);
+        connection.setAutoCommit(false);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO " + TABLE +
+                " (vid, tin, tout, hin, hout, lxin, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+            int perDevice = rows / devices;
+            for (int minute = 0; minute < perDevice; minute++) {
+                Timestamp time = Timestamp.valueOf(start.plusMinutes(minute));
+                for (int device = 0; device < devices; device++) {
+                    ps.setString(1, String.format("V%04d", device));
+                    ps.setDouble(2, 2 + random.nextDouble() * 4);
+                    ps.setDouble(3, 20 + random.nextDouble() * 10);
+                    ps.setInt(4, 80 + random.nextInt(15));
+                    ps.setInt(5, 50 + random.nextInt(30));
+                    ps.setInt(6, random.nextInt(500));
+                    ps.setTimestamp(7, time);
+                    ps.addBatch();
+                }
+                if (minute % 10 == 9) {
+                    ps.executeBatch();
+                    connection.commit();
+                }
+            }
+            ps.executeBatch();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(DeviceDataStatisticsBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,194 @@
+package com.iot.fresh.benchmark;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.iot.fresh.dto.DeviceDataDto;
+import com.iot.fresh.dto.TelemetryRecord;
+import com.iot.fresh.handler.TelemetryDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 遥测解码性能对比
+ * streaming：新的JsonParser流式解码器
+ * streamingBytes：MQTT入口的路径，直接从UTF-8字节流式解码，不创建String
+ * cbor：同一条读数的CBOR编码，按字节流式解码
+ * jacksonMap：原MqttMessageHandler中的readValue(Map.class) + convertToDouble/convertToInteger
+ * jacksonDto：原DataServiceImpl中的readValue(DeviceDataDto.class)，补齐默认值后转换为TelemetryRecord
+ * substring：原parseDeviceDataManually的indexOf/substring扫描
+ *
+ * 运行方式：mvn test-compile 后执行本类的main方法
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TelemetryDecoderBenchmark {
+
+    @Param({
+            "{\"Tin\":4.5,\"Tout\":26.1,\"Hin\":85,\"Hout\":60,\"LXin\":320,\"LXout\":15000,\"brightness\":80,\"VStatus\":1}",
+            "{\"vid\":\"V001\",\"tin\":4.5,\"tout\":26.1,\"hin\":85,\"hout\":60,\"lxin\":320,\"lxout\":15000,\"brightness\":80,\"speedM1\":1200,\"speedM2\":1100,\"vstatus\":1,\"timestamp\":\"2026-01-01 08:00:00\"}"
+    })
+    public String payload;
+
+    private TelemetryDecoder decoder;
+    private ObjectMapper objectMapper;
+    private byte[] jsonBytes;
+    private byte[] cborBytes;
+
+    @Setup
+    public void setup() {
+        objectMapper = new ObjectMapper();
+        objectMapper.findAndRegisterModules();
+        // 与Spring Boot默认配置一致，忽略未知字段
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        decoder = new TelemetryDecoder();
+        ReflectionTestUtils.setField(decoder, "objectMapper", objectMapper);
+        decoder.init();
+        jsonBytes = payload.getBytes(StandardCharsets.UTF_8);
+        try {
+            // 同一条读数转换为CBOR，用于对比载荷大小和解码耗时
+            cborBytes = new CBORMapper().writeValueAsBytes(objectMapper.readTree(payload));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        System.out.printf("%n载荷大小 - JSON: %d bytes, CBOR: %d bytes%n", jsonBytes.length, cborBytes.length);
+    }
+
+    @Benchmark
+    public TelemetryRecord streaming() {
+        return decoder.decodeData("V001", payload);
+    }
+
+    @Benchmark
+    public TelemetryRecord streamingBytes() {
+        return decoder.decodeData("V001", jsonBytes, TelemetryDecoder.PayloadFormat.JSON);
+    }
+
+    @Benchmark
+    public TelemetryRecord cbor() {
+        return decoder.decodeData("V001", cborBytes, TelemetryDecoder.PayloadFormat.CBOR);
+    }
+
+    @Benchmark
+    public DeviceDataDto jacksonMap() throws Exception {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> jsonMap = objectMapper.readValue(payload, Map.class);
+        DeviceDataDto dto = new DeviceDataDto();
+        dto.setVid("V001");
+        dto.setTin(convertToDouble(first(jsonMap, "Tin", "tin")));
+        dto.setTout(convertToDouble(first(jsonMap, "Tout", "tout")));
+        dto.setHin(convertToInteger(first(jsonMap, "Hin", "hin")));
+        dto.setHout(convertToInteger(first(jsonMap, "Hout", "hout")));
+        dto.setLxin(convertToInteger(first(jsonMap, "LXin", "lxin")));
+        dto.setLxout(convertToInteger(first(jsonMap, "LXout", "lxout")));
+        dto.setBrightness(convertToInteger(jsonMap.get("brightness")));
+        dto.setSpeedM1(convertToInteger(jsonMap.get("speedM1")));
+        dto.setSpeedM2(convertToInteger(jsonMap.get("speedM2")));
+        dto.setVstatus(convertToInteger(first(jsonMap, "VStatus", "vstatus")));
+        return dto;
+    }
+
+    @Benchmark
+    public TelemetryRecord jacksonDto() throws Exception {
+        DeviceDataDto dto = objectMapper.readValue(payload, DeviceDataDto.class);
+        if (dto.getVid() == null || dto.getVid().isEmpty()) {
+            dto.setVid("V001");
+        }
+        if (dto.getTimestamp() == null) {
+            dto.setTimestamp(LocalDateTime.now());
+        }
+        if (dto.getVstatus() == null) {
+            dto.setVstatus(0);
+        }
+        return TelemetryRecord.fromDto(dto);
+    }
+
+    @Benchmark
+    public DeviceDataDto substring() {
+        DeviceDataDto dto = new DeviceDataDto();
+        dto.setVid("V001");
+        String tin = scan(payload, "tin", "Tin");
+        if (tin != null) dto.setTin(Double.parseDouble(tin));
+        String tout = scan(payload, "tout", "Tout");
+        if (tout != null) dto.setTout(Double.parseDouble(tout));
+        String hin = scan(payload, "hin", "Hin");
+        if (hin != null) dto.setHin(Integer.parseInt(hin));
+        String hout = scan(payload, "hout", "Hout");
+        if (hout != null) dto.setHout(Integer.parseInt(hout));
+        String lxin = scan(payload, "lxin", "LXin");
+        if (lxin != null) dto.setLxin(Integer.parseInt(lxin));
+        String lxout = scan(payload, "lxout", "LXout");
+        if (lxout != null) dto.setLxout(Integer.parseInt(lxout));
+        String vstatus = scan(payload, "vstatus", "VStatus");
+        if (vstatus != null) dto.setVstatus(Integer.parseInt(vstatus));
+        String brightness = scan(payload, "brightness", "brightness");
+        if (brightness != null) dto.setBrightness(Integer.parseInt(brightness));
+        String speedM1 = scan(payload, "speedM1", "speedM1");
+        if (speedM1 != null) dto.setSpeedM1(Integer.parseInt(speedM1));
+        String speedM2 = scan(payload, "speedM2", "speedM2");
+        if (speedM2 != null) dto.setSpeedM2(Integer.parseInt(speedM2));
+        return dto;
+    }
+
+    private static Object first(Map<String, Object> map, String key, String alternative) {
+        Object value = map.get(key);
+        return value != null ? value : map.get(alternative);
+    }
+
+    private static Double convertToDouble(Object value) {
+        if (value == null) return null;
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        if (value instanceof String) return Double.parseDouble((String) value);
+        return null;
+    }
+
+    private static Integer convertToInteger(Object value) {
+        if (value == null) return null;
+        if (value instanceof Number) return ((Number) value).intValue();
+        if (value instanceof String) return Integer.parseInt((String) value);
+        return null;
+    }
+
+    // 与原手动解析相同的contains + indexOf + substring扫描
+    private static String scan(String json, String name, String alternative) {
+        String key = json.contains("\"" + name + "\"") ? name : (json.contains("\"" + alternative + "\"") ? alternative : null);
+        if (key == null) {
+            return null;
+        }
+        String prefix = "\"" + key + "\":";
+        int start = json.indexOf(prefix) + prefix.length();
+        int end = json.indexOf(",", start);
+        if (end == -1) end = json.indexOf("}", start);
+        return end > start ? json.substring(start, end).trim() : null;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TelemetryDecoderBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
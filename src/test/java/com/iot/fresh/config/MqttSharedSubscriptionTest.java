@@ -0,0 +1,34 @@
+package com.iot.fresh.config;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 共享订阅集群接入测试
+ * 验证订阅主题的构造，以及未确认Broker按发布者客户端ID投递时拒绝以集群模式启动。
+ * 多节点吞吐量见benchmark.ClusterIngestBenchmark
+ */
+class MqttSharedSubscriptionTest {
+
+    @Test
+    void buildsSharedSubscriptionTopics() {
+        assertArrayEquals(new String[] {
+                "$share/iot-fresh/device/+/data",
+                "$share/iot-fresh/device/+/batch",
+                "$share/iot-fresh/device/+/alarm",
+                "$share/iot-fresh/device/+/status",
+                "$share/iot-fresh/device/+/rfid",
+                "$share/iot-fresh/device/+/+/cbor"
+        }, MqttConfig.inboundTopics(true, "iot-fresh"));
+        assertArrayEquals(MqttConfig.DEVICE_TOPICS, MqttConfig.inboundTopics(false, "iot-fresh"));
+    }
+
+    @Test
+    void refusesClusterModeWithoutStickyRouting() {
+        assertThrows(IllegalStateException.class, () -> MqttConfig.checkClusterRouting(true, false));
+        MqttConfig.checkClusterRouting(true, true);
+        MqttConfig.checkClusterRouting(false, false);
+    }
+}
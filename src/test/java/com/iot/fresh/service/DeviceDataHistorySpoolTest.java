@@ -0,0 +1,274 @@
+package com.iot.fresh.service;
+
+import com.iot.fresh.entity.DeviceDataHistory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 历史数据落盘队列测试：重启恢复、残缺记录、分段滚动，数据库故障时写入器的落盘与重放，
+ * 以及数据错误的行被跳过而不进入落盘队列
+ */
+class DeviceDataHistorySpoolTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recoversRecordsAfterRestart() {
+        DeviceDataHistorySpool spool = openSpool(1 << 20);
+        LocalDateTime time = LocalDateTime.of(2026, 1, 1, 8, 0, 0, 123_000_000);
+        DeviceDataHistory full = new DeviceDataHistory("V001", 4.5, 26.1, 85, 60, 320, 15000, 80, 1, time);
+        DeviceDataHistory sparse = new DeviceDataHistory();
+        sparse.setVid("V002");
+        sparse.setVstatus(0);
+        assertTrue(spool.append(List.of(full, sparse)));
+
+        // 不调用close，模拟进程崩溃后重启
+        DeviceDataHistorySpool reopened = openSpool(1 << 20);
+        assertTrue(reopened.hasPending());
+        List<DeviceDataHistory> rows = reopened.peek(10);
+        assertEquals(2, rows.size());
+
+        DeviceDataHistory first = rows.get(0);
+        assertEquals("V001", first.getVid());
+        assertEquals(4.5, first.getTin());
+        assertEquals(26.1, first.getTout());
+        assertEquals(85, first.getHin());
+        assertEquals(60, first.getHout());
+        assertEquals(320, first.getLxin());
+        assertEquals(15000, first.getLxout());
+        assertEquals(80, first.getBrightness());
+        assertEquals(1, first.getVstatus());
+        assertEquals(time, first.getUpdatedAt());
+
+        DeviceDataHistory second = rows.get(1);
+        assertEquals("V002", second.getVid());
+        assertNull(second.getTin());
+        assertNull(second.getUpdatedAt());
+        assertEquals(0, second.getVstatus());
+
+        reopened.commit();
+        assertFalse(reopened.hasPending());
+    }
+
+    @Test
+    void discardsTornTailRecord() throws IOException {
+        DeviceDataHistorySpool spool = openSpool(1 << 20);
+        assertTrue(spool.append(List.of(row("V001", 1), row("V001", 2), row("V001", 3))));
+
+        // 破坏最后一条记录的内容，模拟写到一半时崩溃
+        Path segment = segments().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            long end = 0;
+            long last = 0;
+            while (true) {
+                file.seek(end);
+                int length = file.readInt();
+                if (length == 0) {
+                    break;
+                }
+                last = end;
+                end += 8 + length;
+            }
+            file.seek(last + 8 + 4);
+            file.writeByte(0x7F);
+        }
+
+        DeviceDataHistorySpool reopened = openSpool(1 << 20);
+        List<DeviceDataHistory> rows = reopened.peek(10);
+        assertEquals(2, rows.size());
+        assertEquals(1, rows.get(0).getHin());
+        assertEquals(2, rows.get(1).getHin());
+        assertEquals(1L, reopened.getStatistics().get("corrupted"));
+
+        // 残缺位置之后可以继续追加
+        assertTrue(reopened.append(List.of(row("V001", 4))));
+        rows = openSpool(1 << 20).peek(10);
+        assertEquals(3, rows.size());
+        assertEquals(4, rows.get(2).getHin());
+    }
+
+    @Test
+    void rotatesSegmentsAndResumesFromCheckpoint() throws IOException {
+        DeviceDataHistorySpool spool = openSpool(256);
+        List<DeviceDataHistory> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            batch.add(row("V" + i, i));
+        }
+        assertTrue(spool.append(batch));
+        assertTrue(segments().size() > 1);
+
+        assertEquals(5, spool.peek(5).size());
+        spool.commit();
+
+        DeviceDataHistorySpool reopened = openSpool(256);
+        List<DeviceDataHistory> rows = reopened.peek(100);
+        assertEquals(15, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(i + 5, rows.get(i).getHin());
+        }
+        reopened.commit();
+        assertFalse(reopened.hasPending());
+        // 已重放完的分段被删除，只保留当前写入分段
+        assertEquals(1, segments().size());
+    }
+
+    @Test
+    void rejectsAppendWhenSegmentLimitReached() {
+        DeviceDataHistorySpool spool = openSpool(256);
+        ReflectionTestUtils.setField(spool, "maxSegments", 2);
+        List<DeviceDataHistory> batch = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            batch.add(row("V001", i));
+        }
+        assertFalse(spool.append(batch));
+        assertTrue((Long) spool.getStatistics().get("dropped") > 0);
+    }
+
+    @Test
+    void writerSpoolsWhileDatabaseIsDownAndReplaysAfterRecovery() {
+        DeviceDataHistorySpool spool = openSpool(1 << 20);
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        DeviceDataVolumeCounter volumeCounter = mock(DeviceDataVolumeCounter.class);
+        DeviceDataHistoryWriter writer = new DeviceDataHistoryWriter();
+        ReflectionTestUtils.setField(writer, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(writer, "spool", spool);
+        ReflectionTestUtils.setField(writer, "deviceDataVolumeCounter", volumeCounter);
+        ReflectionTestUtils.setField(writer, "batchSize", 500);
+
+        // 数据源不可用
+        when(jdbcTemplate.update(anyString(), any(PreparedStatementSetter.class)))
+                .thenThrow(new CannotGetJdbcConnectionException("datasource down"));
+        ReflectionTestUtils.invokeMethod(writer, "writeBatch", List.of(row("V001", 1), row("V001", 2)));
+        assertTrue(spool.hasPending());
+
+        // 落盘队列非空时后续批次直接落盘，不再访问数据库
+        ReflectionTestUtils.invokeMethod(writer, "writeBatch", List.of(row("V001", 3)));
+        verify(jdbcTemplate, times(1)).update(anyString(), any(PreparedStatementSetter.class));
+
+        // 数据库仍不可用，重放失败且不丢数据
+        assertEquals(0, writer.replaySpool());
+        assertEquals(3, spool.peek(10).size());
+        // 落盘的记录在写入数据库前不计入数据量
+        verify(volumeCounter, never()).record(any());
+
+        // 数据库恢复后按顺序重放
+        when(jdbcTemplate.update(anyString(), any(PreparedStatementSetter.class))).thenReturn(3);
+        assertEquals(3, writer.replaySpool());
+        assertFalse(spool.hasPending());
+        assertEquals(3L, ((LongAdder) ReflectionTestUtils.getField(writer, "rowsSpooled")).sum());
+        assertEquals(3L, ((LongAdder) ReflectionTestUtils.getField(writer, "rowsReplayed")).sum());
+        verify(volumeCounter, times(3)).record(any());
+    }
+
+    @Test
+    void writerSkipsRowsRejectedByTheDatabaseInsteadOfSpooling() {
+        DeviceDataHistorySpool spool = openSpool(1 << 20);
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        DeviceDataVolumeCounter volumeCounter = mock(DeviceDataVolumeCounter.class);
+        DeviceDataHistoryWriter writer = new DeviceDataHistoryWriter();
+        ReflectionTestUtils.setField(writer, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(writer, "spool", spool);
+        ReflectionTestUtils.setField(writer, "deviceDataVolumeCounter", volumeCounter);
+        ReflectionTestUtils.setField(writer, "batchSize", 500);
+
+        // 多行INSERT因一行数据错误失败，逐行写入时只有这一行失败
+        when(jdbcTemplate.update(anyString(), any(PreparedStatementSetter.class)))
+                .thenThrow(new DataIntegrityViolationException("data too long"))
+                .thenReturn(1)
+                .thenThrow(new DataIntegrityViolationException("data too long"))
+                .thenReturn(1);
+        ReflectionTestUtils.invokeMethod(writer, "writeBatch", List.of(row("V001", 1), row("V001", 2), row("V001", 3)));
+
+        verify(jdbcTemplate, times(4)).update(anyString(), any(PreparedStatementSetter.class));
+        assertFalse(spool.hasPending());
+        assertEquals(2L, ((LongAdder) ReflectionTestUtils.getField(writer, "rowsWritten")).sum());
+        assertEquals(1L, ((LongAdder) ReflectionTestUtils.getField(writer, "rowsRejected")).sum());
+        // 被拒绝的记录不计入数据量
+        verify(volumeCounter, times(2)).record(any());
+    }
+
+    @Test
+    void replaySkipsRowsRejectedByTheDatabase() {
+        DeviceDataHistorySpool spool = openSpool(1 << 20);
+        assertTrue(spool.append(List.of(row("V001", 1), row("V001", 2))));
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        DeviceDataVolumeCounter volumeCounter = mock(DeviceDataVolumeCounter.class);
+        DeviceDataHistoryWriter writer = new DeviceDataHistoryWriter();
+        ReflectionTestUtils.setField(writer, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(writer, "spool", spool);
+        ReflectionTestUtils.setField(writer, "deviceDataVolumeCounter", volumeCounter);
+        ReflectionTestUtils.setField(writer, "batchSize", 500);
+
+        when(jdbcTemplate.update(anyString(), any(PreparedStatementSetter.class)))
+                .thenThrow(new DataIntegrityViolationException("duplicate"))
+                .thenThrow(new DataIntegrityViolationException("duplicate"))
+                .thenReturn(1);
+        assertEquals(2, writer.replaySpool());
+        assertFalse(spool.hasPending());
+        assertEquals(1L, ((LongAdder) ReflectionTestUtils.getField(writer, "rowsRejected")).sum());
+    }
+
+    @Test
+    void writerWritesDirectlyWhenSpoolIsEmpty() {
+        DeviceDataHistorySpool spool = openSpool(1 << 20);
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        DeviceDataVolumeCounter volumeCounter = mock(DeviceDataVolumeCounter.class);
+        DeviceDataHistoryWriter writer = new DeviceDataHistoryWriter();
+        ReflectionTestUtils.setField(writer, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(writer, "spool", spool);
+        ReflectionTestUtils.setField(writer, "deviceDataVolumeCounter", volumeCounter);
+
+        ReflectionTestUtils.invokeMethod(writer, "writeBatch", List.of(row("V001", 1)));
+        verify(jdbcTemplate, times(1)).update(anyString(), any(PreparedStatementSetter.class));
+        assertFalse(spool.hasPending());
+        verify(jdbcTemplate, never()).batchUpdate(anyString());
+    }
+
+    private DeviceDataHistorySpool openSpool(int segmentSize) {
+        DeviceDataHistorySpool spool = new DeviceDataHistorySpool();
+        ReflectionTestUtils.setField(spool, "enabled", true);
+        ReflectionTestUtils.setField(spool, "directory", dir.toString());
+        ReflectionTestUtils.setField(spool, "segmentSize", segmentSize);
+        ReflectionTestUtils.setField(spool, "maxSegments", 64);
+        spool.open();
+        return spool;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("segment-")).sorted().toList();
+        }
+    }
+
+    private static DeviceDataHistory row(String vid, int hin) {
+        return new DeviceDataHistory(vid, 4.5, 26.1, hin, 60, 320, 15000, 80, 1, LocalDateTime.now());
+    }
+}
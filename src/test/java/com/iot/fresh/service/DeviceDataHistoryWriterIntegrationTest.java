@@ -0,0 +1,159 @@
+package com.iot.fresh.service;
+
+import com.iot.fresh.entity.DeviceDataHistory;
+import com.zaxxer.hikari.HikariDataSource;
+import org.h2.tools.Server;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * 历史数据写入器集成测试：通过连接池访问H2 TCP服务端，停止服务端模拟数据库宕机，
+ * 验证写入期间落盘、服务端重启后按顺序重放，数据错误的行不会进入落盘队列，
+ * 以及数据量只统计确认写入的记录
+ */
+class DeviceDataHistoryWriterIntegrationTest {
+
+    @TempDir
+    Path dir;
+
+    private int port;
+    private Server server;
+    private HikariDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private DeviceDataHistorySpool spool;
+    private DeviceDataHistoryWriter writer;
+    private DeviceDataVolumeCounter volumeCounter;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        startServer();
+
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:tcp://localhost:" + port + "/./history;MODE=MySQL");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        dataSource.setMaximumPoolSize(2);
+        dataSource.setConnectionTimeout(250);
+        dataSource.setValidationTimeout(250);
+        // H2客户端对服务端重启前的连接isValid仍返回true，用查询校验连接
+        dataSource.setConnectionTestQuery("SELECT 1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE device_data_history (id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                + "vid VARCHAR(50) NOT NULL, tin DOUBLE, tout DOUBLE, hin INT, hout INT, lxin INT, lxout INT, "
+                + "brightness INT, vstatus TINYINT, updated_at TIMESTAMP)");
+
+        spool = new DeviceDataHistorySpool();
+        ReflectionTestUtils.setField(spool, "enabled", true);
+        ReflectionTestUtils.setField(spool, "directory", dir.resolve("spool").toString());
+        ReflectionTestUtils.setField(spool, "segmentSize", 1 << 20);
+        ReflectionTestUtils.setField(spool, "maxSegments", 64);
+        spool.open();
+
+        writer = new DeviceDataHistoryWriter();
+        ReflectionTestUtils.setField(writer, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(writer, "spool", spool);
+        volumeCounter = mock(DeviceDataVolumeCounter.class);
+        ReflectionTestUtils.setField(writer, "deviceDataVolumeCounter", volumeCounter);
+        ReflectionTestUtils.setField(writer, "batchSize", 100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSource.close();
+        server.stop();
+        spool.close();
+    }
+
+    @Test
+    void spoolsWhileDatabaseIsDownAndReplaysAfterRestart() throws Exception {
+        write(row("V001", 1), row("V001", 2));
+        assertEquals(2, count());
+
+        server.stop();
+        write(row("V001", 3), row("V001", 4));
+        write(row("V001", 5));
+        assertTrue(spool.hasPending());
+        assertEquals(0, writer.replaySpool());
+        verify(volumeCounter, times(2)).record(any());
+
+        startServer();
+        assertEquals(3, replayUntilDrained());
+        assertFalse(spool.hasPending());
+        assertEquals(List.of(1, 2, 3, 4, 5),
+                jdbcTemplate.queryForList("SELECT hin FROM device_data_history ORDER BY id", Integer.class));
+        verify(volumeCounter, times(5)).record(any());
+
+        // 重放完成后恢复直接写库
+        write(row("V001", 6));
+        assertFalse(spool.hasPending());
+        assertEquals(6, count());
+    }
+
+    @Test
+    void skipsRowsTheDatabaseRejectsWithoutBlockingLaterBatches() {
+        // VID超过字段长度，重试也不会成功
+        write(row("V001", 1), row("V".repeat(60), 2), row("V001", 3));
+        assertFalse(spool.hasPending());
+        assertEquals(2, count());
+        assertEquals(1L, ((LongAdder) ReflectionTestUtils.getField(writer, "rowsRejected")).sum());
+        verify(volumeCounter, times(2)).record(any());
+
+        write(row("V001", 4));
+        assertFalse(spool.hasPending());
+        assertEquals(3, count());
+    }
+
+    private void startServer() throws SQLException {
+        server = Server.createTcpServer("-tcpPort", String.valueOf(port), "-baseDir", dir.toString(), "-ifNotExists").start();
+    }
+
+    /**
+     * 与重放线程一样周期性重放：连接池只校验空闲超过500ms的连接，宕机前的连接在下一个周期才会被替换，
+     * 服务端刚恢复时的第一次重放可能仍然失败
+     */
+    private int replayUntilDrained() throws InterruptedException {
+        int replayed = 0;
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (spool.hasPending() && System.currentTimeMillis() < deadline) {
+            replayed += writer.replaySpool();
+            if (spool.hasPending()) {
+                Thread.sleep(600);
+            }
+        }
+        return replayed;
+    }
+
+    private void write(DeviceDataHistory... rows) {
+        ReflectionTestUtils.invokeMethod(writer, "writeBatch", List.of(rows));
+    }
+
+    private int count() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM device_data_history", Integer.class);
+    }
+
+    private static DeviceDataHistory row(String vid, int hin) {
+        return new DeviceDataHistory(vid, 4.5, 26.1, hin, 60, 320, 15000, 80, 1, LocalDateTime.now());
+    }
+}
@@ -0,0 +1,167 @@
+package com.iot.fresh.service.impl;
+
+import com.iot.fresh.dto.ApiResponse;
+import com.iot.fresh.dto.DeviceDto;
+import com.iot.fresh.dto.PaginatedResponse;
+import com.iot.fresh.entity.Device;
+import com.iot.fresh.entity.DeviceData;
+import com.iot.fresh.repository.DeviceDataRepository;
+import com.iot.fresh.repository.DeviceRepository;
+import com.iot.fresh.service.DeviceHeartbeatTracker;
+import com.iot.fresh.service.DeviceLatestStateStore;
+import com.iot.fresh.service.DeviceRealTimeSnapshot;
+import com.iot.fresh.service.DeviceRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 设备列表查询次数测试：一页设备的当前数据最多一次查询，已在内存中的设备不再查询
+ */
+class DeviceManagementServiceImplTest {
+
+    private static final int PAGE_SIZE = 100;
+
+    private DeviceRepository deviceRepository;
+    private DeviceDataRepository deviceDataRepository;
+    private DeviceLatestStateStore deviceLatestStateStore;
+    private DeviceManagementServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        deviceRepository = mock(DeviceRepository.class);
+        deviceDataRepository = mock(DeviceDataRepository.class);
+        DeviceRegistry deviceRegistry = mock(DeviceRegistry.class);
+
+        deviceLatestStateStore = new DeviceLatestStateStore();
+        ReflectionTestUtils.setField(deviceLatestStateStore, "deviceDataRepository", deviceDataRepository);
+        ReflectionTestUtils.setField(deviceLatestStateStore, "deviceRealTimeSnapshot", mock(DeviceRealTimeSnapshot.class));
+        ReflectionTestUtils.setField(deviceLatestStateStore, "deviceRegistry", deviceRegistry);
+        ReflectionTestUtils.setField(deviceLatestStateStore, "negativeTtlMillis", 60000L);
+
+        service = new DeviceManagementServiceImpl();
+        ReflectionTestUtils.setField(service, "deviceRepository", deviceRepository);
+        ReflectionTestUtils.setField(service, "deviceDataRepository", deviceDataRepository);
+        ReflectionTestUtils.setField(service, "deviceLatestStateStore", deviceLatestStateStore);
+        ReflectionTestUtils.setField(service, "deviceHeartbeatTracker", new DeviceHeartbeatTracker());
+
+        List<Device> devices = new ArrayList<>();
+        List<DeviceData> latest = new ArrayList<>();
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            devices.add(device(i));
+            // 一半设备有当前数据
+            if (i % 2 == 0) {
+                latest.add(reading(i));
+            }
+        }
+        Map<String, Device> byVid = devices.stream().collect(Collectors.toMap(Device::getVid, Function.identity()));
+        when(deviceRegistry.findByVid(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(byVid.get(invocation.<String>getArgument(0))));
+        when(deviceRegistry.findAllByVid(anyCollection())).thenAnswer(invocation -> {
+            Collection<String> vids = invocation.getArgument(0);
+            return vids.stream().filter(byVid::containsKey).collect(Collectors.toMap(Function.identity(), byVid::get));
+        });
+        when(deviceRepository.findAll(any(Pageable.class)))
+                .thenAnswer(invocation -> new PageImpl<>(devices, invocation.getArgument(0), 1000));
+        when(deviceDataRepository.findLatestByVidIn(anyCollection())).thenAnswer(invocation -> {
+            Collection<String> vids = invocation.getArgument(0);
+            return latest.stream().filter(row -> vids.contains(row.getVid())).toList();
+        });
+        for (DeviceData row : latest) {
+            when(deviceDataRepository.findTopByVidOrderByCreatedAtDesc(row.getVid())).thenReturn(row);
+        }
+    }
+
+    @Test
+    void loadsCurrentDataForWholePageWithOneQuery() {
+        List<DeviceDto> list = getPage();
+
+        assertEquals(PAGE_SIZE, list.size());
+        assertEquals(1, queryCount(deviceRepository));
+        assertEquals(1, queryCount(deviceDataRepository));
+        verify(deviceDataRepository).findLatestByVidIn(anyCollection());
+
+        // 批量加载的数据按VID进入内存，没有数据的设备也不再查询
+        assertEquals(10.0, deviceLatestStateStore.get("V010").getTin());
+        assertNull(deviceLatestStateStore.get("V011"));
+        assertEquals(1, queryCount(deviceDataRepository));
+
+        // 再次查询全部走内存
+        getPage();
+        assertEquals(1, queryCount(deviceDataRepository));
+    }
+
+    @Test
+    void queriesOnlyDevicesNotYetInMemory() {
+        deviceLatestStateStore.get("V000");
+        deviceLatestStateStore.get("V001");
+        assertEquals(2, queryCount(deviceDataRepository));
+
+        getPage();
+
+        assertEquals(3, queryCount(deviceDataRepository));
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Collection<String>> vids = ArgumentCaptor.forClass(Collection.class);
+        verify(deviceDataRepository).findLatestByVidIn(vids.capture());
+        assertEquals(PAGE_SIZE - 2, vids.getValue().size());
+    }
+
+    @Test
+    void doesNotCacheUnregisteredDevices() {
+        assertNull(deviceLatestStateStore.get("UNKNOWN"));
+        assertNull(deviceLatestStateStore.get("UNKNOWN"));
+
+        // 每次都直接查询，不建立条目
+        assertEquals(2, queryCount(deviceDataRepository));
+        assertEquals(0, deviceLatestStateStore.getStatistics().get("devices"));
+    }
+
+    private List<DeviceDto> getPage() {
+        ApiResponse<PaginatedResponse<DeviceDto>> response = service.getDeviceList(1, PAGE_SIZE, null, null);
+        return response.getData().getList();
+    }
+
+    private static int queryCount(Object repository) {
+        return mockingDetails(repository).getInvocations().size();
+    }
+
+    private static Device device(int i) {
+        Device device = new Device();
+        device.setId((long) i + 1);
+        device.setVid(String.format("V%03d", i));
+        device.setDeviceName("设备" + i);
+        device.setStatus(1);
+        return device;
+    }
+
+    private static DeviceData reading(int i) {
+        DeviceData data = new DeviceData();
+        data.setId((long) i + 1);
+        data.setVid(String.format("V%03d", i));
+        data.setTin((double) i);
+        data.setCreatedAt(LocalDateTime.of(2026, 1, 1, 8, 0));
+        return data;
+    }
+}